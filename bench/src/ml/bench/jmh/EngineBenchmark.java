@@ -0,0 +1,113 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.bench.jmh;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import ml.engine.Action;
+import ml.engine.DenseQTable;
+import ml.engine.Engine;
+import ml.engine.World;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class EngineBenchmark that measures the learner's hot paths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class EngineBenchmark {
+	
+	/**
+	 * The Class Learner that holds an engine whose Q table contains the fixed states.
+	 */
+	@State(Scope.Thread)
+	public static class Learner {
+		
+		/** The engine. */
+		Engine engine;
+		
+		/** The fixed state. */
+		ml.engine.State state;
+		
+		/** The fixed next state. */
+		ml.engine.State newState;
+		
+		/**
+		 * Sets the up.
+		 */
+		@Setup
+		public void setUp()
+		{
+			World world=Fixtures.createWorld();
+			engine=new Engine(world, world.generateStartState(), new DenseQTable(), new SplittableRandom(Fixtures.SEED));
+			state=Fixtures.createBusyState();
+			newState=Fixtures.createBusyState();
+			newState.setElevator1Floor(2);
+			
+			//Fill the Q values of the fixed states
+			SplittableRandom values=new SplittableRandom(Fixtures.SEED);
+			for(int a=0;a<Action.ACTION_COUNT;a++)
+			{
+				engine.getQ().setQValue(state, a, -values.nextDouble()*100);
+				engine.getQ().setQValue(newState, a, -values.nextDouble()*100);
+			}
+		}
+	}
+	
+	/**
+	 * Benchmarks the explore branch of {@link Engine#getNextAction(ml.engine.State)}.
+	 *
+	 * @param l the learner
+	 * @return the action
+	 */
+	@Benchmark
+	public int getNextActionExplore(Learner l)
+	{
+		l.engine.ACTION_EPSILON_ANNEALED=1;
+		return l.engine.getNextAction(l.state);
+	}
+	
+	/**
+	 * Benchmarks the exploit branch of {@link Engine#getNextAction(ml.engine.State)}.
+	 *
+	 * @param l the learner
+	 * @return the action
+	 */
+	@Benchmark
+	public int getNextActionExploit(Learner l)
+	{
+		l.engine.ACTION_EPSILON_ANNEALED=0;
+		return l.engine.getNextAction(l.state);
+	}
+	
+	/**
+	 * Benchmarks the Q update done on every step of {@link Engine#run()}.
+	 *
+	 * @param l the learner
+	 */
+	@Benchmark
+	public void updateQValue(Learner l)
+	{
+		l.engine.updateQValue(l.state, Action.combine(Action.E1_UP, Action.E2_STOP), -10, 
+				l.newState, Action.combine(Action.E1_STOP, Action.E2_STOP));
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.bench.jmh;
+
+import java.io.File;
+import java.util.SplittableRandom;
+
+import ml.engine.Action;
+import ml.engine.State;
+import ml.engine.World;
+
+/**
+ * The Class Fixtures that builds the fixed worlds and states used by the benchmarks, so that the
+ * results can be reproduced and compared between commits.
+ */
+public class Fixtures {
+	
+	/** The Constant SEED used for all the random number generators of the benchmarks. */
+	public static final long SEED=42;
+	
+	/** The Constant OUTPUT_DIR in which the worlds of the benchmarks write their output. */
+	public static final File OUTPUT_DIR=new File(System.getProperty("java.io.tmpdir"), "elevator-bench");
+	
+	/**
+	 * Creates a world with a fixed scenario, with the first episode started.
+	 *
+	 * @return the world
+	 */
+	public static World createWorld()
+	{
+		World world=new World("bench", OUTPUT_DIR, new SplittableRandom(SEED));
+		world.resetEpisode();
+		return world;
+	}
+	
+	/**
+	 * Advances the world a number of steps, choosing each action at random among the possible ones.
+	 *
+	 * @param world the world
+	 * @param state the current state, in which the state after the last step is stored
+	 * @param actions the random number generator used to choose the actions
+	 * @param steps the number of steps
+	 */
+	public static void advance(World world, State state, SplittableRandom actions, int steps)
+	{
+		State next=new State();
+		int previousAction=Action.NO_ACTION, prevPreviousAction=Action.NO_ACTION;
+		for(int i=0;i<steps;i++)
+		{
+			int action=Action.getRandomAction(World.getPossibleActionsMask(state, previousAction, prevPreviousAction), actions);
+			world.getNextState(state, action, next);
+			state.copyFrom(next);
+			prevPreviousAction=previousAction;
+			previousAction=action;
+		}
+	}
+	
+	/**
+	 * Creates a fixed state, in the middle of the day, with the elevators on different floors and
+	 * people waiting on some of the floors.
+	 *
+	 * @return the state
+	 */
+	public static State createBusyState()
+	{
+		State state=new State();
+		state.setTimeInterval(2);
+		state.setElevator1Floor(1);
+		state.setElevator2Floor(3);
+		state.setDestinationE1(State.ABOVE, true);
+		state.setDestinationE2(State.BELOW, true);
+		state.setWaiting(0, State.UP, true);
+		state.setWaiting(2, State.DOWN, true);
+		state.setWaiting(4, State.DOWN, true);
+		return state;
+	}
+}
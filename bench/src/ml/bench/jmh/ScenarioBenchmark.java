@@ -0,0 +1,121 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.bench.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import ml.scenario.ScenarioCache;
+import ml.scenario.ScenarioEvent;
+import ml.scenario.ScenarioGenerator;
+import ml.scenario.ScenarioStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class ScenarioBenchmark that measures the scenario generation, against reading the scenarios from
+ * the files and from the memory of a {@link ScenarioCache}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScenarioBenchmark {
+	
+	/** The scenario generator. */
+	private ScenarioGenerator sg;
+	
+	/** The directory of the cache files. */
+	private File cacheDir;
+	
+	/** The cache that keeps a single day in memory, so alternating seeds are read from the files. */
+	private ScenarioCache fileCache;
+	
+	/** The cache that keeps the days in memory. */
+	private ScenarioCache memoryCache;
+	
+	/** The number of calls, used to alternate the seeds. */
+	private long calls;
+	
+	/**
+	 * Sets the up.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Setup
+	public void setUp() throws IOException
+	{
+		sg=new ScenarioGenerator(new SplittableRandom(Fixtures.SEED));
+		cacheDir=new File(System.getProperty("java.io.tmpdir"), "scenario-bench-"+System.nanoTime());
+		fileCache=new ScenarioCache(cacheDir, 1);
+		memoryCache=new ScenarioCache(cacheDir, ScenarioCache.DEFAULT_CAPACITY);
+		for(int i=0;i<2;i++)
+			memoryCache.getScenario(Fixtures.SEED+i, ScenarioGenerator.FLOOR_COUNT, 1);
+	}
+	
+	/**
+	 * Deletes the cache files.
+	 */
+	@TearDown
+	public void tearDown()
+	{
+		for(File file:cacheDir.listFiles())
+			file.delete();
+		cacheDir.delete();
+	}
+	
+	/**
+	 * Benchmarks {@link ScenarioGenerator#generateScenarioDay(int)}.
+	 *
+	 * @return the events
+	 */
+	@Benchmark
+	public ArrayList<ScenarioEvent> generateScenarioDay()
+	{
+		return sg.generateScenarioDay(0);
+	}
+	
+	/**
+	 * Benchmarks {@link ScenarioCache#getScenario(long, int, int)}, reading memory mapped files.
+	 *
+	 * @return the scenario
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Benchmark
+	public ScenarioStream loadScenarioDay() throws IOException
+	{
+		return fileCache.getScenario(Fixtures.SEED+(calls++ & 1), ScenarioGenerator.FLOOR_COUNT, 1);
+	}
+	
+	/**
+	 * Benchmarks {@link ScenarioCache#getScenario(long, int, int)}, for days kept in memory.
+	 *
+	 * @return the scenario
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Benchmark
+	public ScenarioStream getCachedScenarioDay() throws IOException
+	{
+		return memoryCache.getScenario(Fixtures.SEED+(calls++ & 1), ScenarioGenerator.FLOOR_COUNT, 1);
+	}
+}
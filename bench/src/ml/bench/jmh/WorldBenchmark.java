@@ -0,0 +1,193 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.bench.jmh;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import ml.engine.Action;
+import ml.engine.World;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The Class WorldBenchmark that measures the simulator's hot paths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class WorldBenchmark {
+	
+	/**
+	 * The Class Stepping that holds a world which is advanced one step per invocation, with random
+	 * actions drawn from a seeded generator.
+	 */
+	@State(Scope.Thread)
+	public static class Stepping {
+		
+		/** The world. */
+		World world;
+		
+		/** The current state. */
+		ml.engine.State current;
+		
+		/** The next state. */
+		ml.engine.State next;
+		
+		/** The actions' random number generator. */
+		SplittableRandom actions;
+		
+		/** The previous action. */
+		int previousAction;
+		
+		/** The previous to previous action. */
+		int prevPreviousAction;
+		
+		/**
+		 * Sets the up.
+		 */
+		@Setup
+		public void setUp()
+		{
+			world=Fixtures.createWorld();
+			current=world.generateStartState();
+			next=new ml.engine.State();
+			actions=new SplittableRandom(Fixtures.SEED);
+			previousAction=prevPreviousAction=Action.NO_ACTION;
+		}
+	}
+	
+	/**
+	 * The Class Loaded that holds a world advanced to a time of the day with a given passenger load.
+	 */
+	@State(Scope.Thread)
+	public static class Loaded {
+		
+		/** The load, as the minute of the first day up to which the world is advanced: low (3:00),
+		 * medium (8:30) and peak (13:00). */
+		@Param({"180", "510", "780"})
+		int minute;
+		
+		/** The world. */
+		World world;
+		
+		/**
+		 * Sets the up.
+		 */
+		@Setup
+		public void setUp()
+		{
+			world=Fixtures.createWorld();
+			Fixtures.advance(world, world.generateStartState(), new SplittableRandom(Fixtures.SEED), minute);
+		}
+	}
+	
+	/**
+	 * The Class Fixed that holds a world and a fixed state.
+	 */
+	@State(Scope.Thread)
+	public static class Fixed {
+		
+		/** The world. */
+		World world;
+		
+		/** The state. */
+		ml.engine.State state;
+		
+		/** The possible actions buffer. */
+		int[] possibleActions;
+		
+		/**
+		 * Sets the up.
+		 */
+		@Setup
+		public void setUp()
+		{
+			world=Fixtures.createWorld();
+			state=Fixtures.createBusyState();
+			possibleActions=new int[Action.ACTION_COUNT];
+		}
+	}
+	
+	/**
+	 * Benchmarks {@link World#getNextState(ml.engine.State, int, ml.engine.State)}. The action is chosen
+	 * among the possible ones, so the cost of {@link #getPossibleActionsMask(Fixed)} is included.
+	 *
+	 * @param s the stepping world
+	 * @return the next state
+	 */
+	@Benchmark
+	public ml.engine.State getNextState(Stepping s)
+	{
+		if(s.world.isScenarioFinished())
+			s.world.resetEpisode();
+		int mask=World.getPossibleActionsMask(s.current, s.previousAction, s.prevPreviousAction);
+		int action=Action.getRandomAction(mask, s.actions);
+		s.world.getNextState(s.current, action, s.next);
+		s.prevPreviousAction=s.previousAction;
+		s.previousAction=action;
+		ml.engine.State swap=s.current;
+		s.current=s.next;
+		s.next=swap;
+		return s.current;
+	}
+	
+	/**
+	 * Benchmarks {@link World#getPossibleActions(ml.engine.State, int, int, int[])}, that computes the
+	 * possible actions from the rules.
+	 *
+	 * @param f the fixed world and state
+	 * @param bh the blackhole
+	 */
+	@Benchmark
+	public void getPossibleActions(Fixed f, Blackhole bh)
+	{
+		bh.consume(World.getPossibleActions(f.state, Action.combine(Action.E1_STOP, Action.E2_UP),
+				Action.combine(Action.E1_UP, Action.E2_UP), f.possibleActions));
+		bh.consume(f.possibleActions);
+	}
+	
+	/**
+	 * Benchmarks {@link World#getPossibleActionsMask(ml.engine.State, int, int)}, that reads the
+	 * possible actions from the precomputed table.
+	 *
+	 * @param f the fixed world and state
+	 * @return the possible actions mask
+	 */
+	@Benchmark
+	public int getPossibleActionsMask(Fixed f)
+	{
+		return World.getPossibleActionsMask(f.state, Action.combine(Action.E1_STOP, Action.E2_UP),
+				Action.combine(Action.E1_UP, Action.E2_UP));
+	}
+	
+	/**
+	 * Benchmarks {@link World#getRewardForCurrentState()}, for several passenger loads.
+	 *
+	 * @param l the loaded world
+	 * @return the reward
+	 */
+	@Benchmark
+	public double getRewardForCurrentState(Loaded l)
+	{
+		return l.world.getRewardForCurrentState();
+	}
+}
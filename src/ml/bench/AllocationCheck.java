@@ -0,0 +1,218 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+import ml.engine.ConvergenceMonitor;
+import ml.engine.DenseQTable;
+import ml.engine.Engine;
+import ml.engine.World;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class AllocationCheck that measures, using the allocation counter of the engine's thread, the
+ * bytes allocated in each step of {@link Engine#run()}. The counter is read on every update of the Q
+ * table, through a {@link ConvergenceMonitor} that never stops the training, so each allocation is
+ * attributed to the step in which it happened. The Q table is presized, so its (amortized) growth does
+ * not count.
+ * <p>
+ * The world and the engine are seeded, so every run simulates the same steps. The SARSA step loop
+ * should not allocate, but a few steps of a long run still may, and these are the stated tolerance: at
+ * most MAX_ALLOCATING_STEPS steps of the measured episodes may allocate. They are:
+ * <ul>
+ * <li> the growth of the passenger queues (doubling, so amortized), when a measured episode has a
+ * longer queue than the warm-up episodes.</li>
+ * <li> the allocations made by the JVM when compiled code first takes a branch that it never took
+ * before (an uncommon trap, followed by a deoptimization), which depend on the timing of the JIT.
+ * They are avoided by running with -XX:PerMethodTrapLimit=0, as the test target of the build does.</li>
+ * </ul>
+ * An allocation in every step, or in every day, fails the check (exit code 1), and the allocating
+ * steps are logged.
+ * <p>
+ * Usage: AllocationCheck [warmupEpisodes] [measuredEpisodes]
+ */
+public class AllocationCheck {
+
+	/** The Constant SEED. */
+	private static final long SEED=42;
+	
+	/** The Constant Q_TABLE_ROWS that defines the capacity of the presized Q table. */
+	private static final int Q_TABLE_ROWS=1<<20;
+	
+	/** The Constant DEFAULT_WARMUP_EPISODES, enough for the step loop to be compiled and for the
+	 * passenger queues to reach their usual lengths. */
+	private static final int DEFAULT_WARMUP_EPISODES=4;
+	
+	/** The Constant DEFAULT_MEASURED_EPISODES. */
+	private static final int DEFAULT_MEASURED_EPISODES=2;
+	
+	/** The Constant MAX_ALLOCATING_STEPS that defines the tolerance: the largest number of measured
+	 * steps that may allocate. */
+	private static final int MAX_ALLOCATING_STEPS=16;
+	
+	/** The thread bean that provides the allocation counter. Obtained once, as getting it allocates. */
+	private static final com.sun.management.ThreadMXBean threadBean=
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(AllocationCheck.class);
+	
+	/**
+	 * Gets the number of bytes allocated by the current thread.
+	 *
+	 * @return the allocated bytes
+	 */
+	private static long getAllocatedBytes()
+	{
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/**
+	 * The Class StepAllocations that reads the allocation counter of the engine's thread after each
+	 * step, and keeps the steps that allocated. It does not allocate itself.
+	 */
+	private static class StepAllocations extends ConvergenceMonitor {
+		
+		/** The allocation counter after the previous step. */
+		private long lastAllocated;
+		
+		/** The step of the current episode. */
+		private long step;
+		
+		/** Whether the steps are measured. */
+		private boolean measuring;
+		
+		/** The number of measured steps. */
+		private long steps;
+		
+		/** The bytes allocated in the measured steps. */
+		private long allocated;
+		
+		/** The number of measured steps that allocated. */
+		private int allocatingSteps;
+		
+		/** The episode steps that allocated, at most MAX_ALLOCATING_STEPS+1 of them. */
+		private long[] allocatingStepIndexes;
+		
+		/** The bytes allocated in each of the allocating steps. */
+		private long[] allocatingStepBytes;
+		
+		/**
+		 * Instantiates a new step allocations monitor.
+		 */
+		public StepAllocations() {
+			super();
+			this.allocatingStepIndexes=new long[MAX_ALLOCATING_STEPS+1];
+			this.allocatingStepBytes=new long[MAX_ALLOCATING_STEPS+1];
+		}
+		
+		/* (non-Javadoc)
+		 * @see ml.engine.ConvergenceMonitor#startEpisode()
+		 */
+		@Override
+		public void startEpisode()
+		{
+			step=0;
+			lastAllocated=getAllocatedBytes();
+		}
+		
+		/* (non-Javadoc)
+		 * @see ml.engine.ConvergenceMonitor#recordUpdate(double)
+		 */
+		@Override
+		public void recordUpdate(double deltaQ)
+		{
+			long current=getAllocatedBytes();
+			step++;
+			if(measuring)
+			{
+				steps++;
+				if(current!=lastAllocated)
+				{
+					if(allocatingSteps<allocatingStepIndexes.length)
+					{
+						allocatingStepIndexes[allocatingSteps]=step;
+						allocatingStepBytes[allocatingSteps]=current-lastAllocated;
+					}
+					allocatingSteps++;
+					allocated+=current-lastAllocated;
+				}
+			}
+			lastAllocated=current;
+		}
+		
+		/* (non-Javadoc)
+		 * @see ml.engine.ConvergenceMonitor#endDay(double)
+		 */
+		@Override
+		public boolean endDay(double runningAverageDelay)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Configure logger.
+	 */
+	private static void configureLogger()
+	{
+		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+		ConsoleAppender appender=new ConsoleAppender(patternLayout);
+		log.addAppender(appender);
+		log.setLevel(Level.INFO);		
+	}
+	
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args)
+	{
+		configureLogger();
+		int warmupEpisodes=args.length>0?Integer.parseInt(args[0]):DEFAULT_WARMUP_EPISODES;
+		int measuredEpisodes=args.length>1?Integer.parseInt(args[1]):DEFAULT_MEASURED_EPISODES;
+		
+		SplittableRandom master=new SplittableRandom(SEED);
+		World world=new World(null, new File("."), master.split());
+		Engine engine=new Engine(world, world.generateStartState(), new DenseQTable(Q_TABLE_ROWS), master.split());
+		StepAllocations monitor=new StepAllocations();
+		engine.setConvergenceMonitor(monitor);
+		for(int i=0;i<warmupEpisodes;i++)
+		{
+			world.resetEpisode();
+			engine.run();
+		}
+		
+		monitor.measuring=true;
+		for(int i=0;i<measuredEpisodes;i++)
+		{
+			world.resetEpisode();
+			engine.run();
+		}
+		monitor.measuring=false;
+		
+		log.info("Allocated "+monitor.allocated+" bytes in "+monitor.allocatingSteps+" of "+monitor.steps+
+				" steps (tolerance: "+MAX_ALLOCATING_STEPS+" steps)");
+		for(int i=0;i<Math.min(monitor.allocatingSteps, monitor.allocatingStepIndexes.length);i++)
+			log.info("Step "+monitor.allocatingStepIndexes[i]+" of its episode allocated "+
+					monitor.allocatingStepBytes[i]+" bytes");
+		if(monitor.allocatingSteps>MAX_ALLOCATING_STEPS)
+		{
+			log.error("The step loop allocates memory.");
+			System.exit(1);
+		}
+	}
+}
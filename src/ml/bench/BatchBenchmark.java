@@ -0,0 +1,198 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.bench;
+
+import java.io.File;
+import java.util.SplittableRandom;
+
+import ml.engine.Action;
+import ml.engine.DenseQTable;
+import ml.engine.Engine;
+import ml.engine.State;
+import ml.engine.World;
+import ml.serving.BatchDispatcher;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class BatchBenchmark that measures the decisions per second of the {@link BatchDispatcher}
+ * against the batch size. A Q table is trained for a few episodes, and the batches are filled with
+ * states visited by a simulated world, shuffled so that consecutive buildings are in unrelated states.
+ * Each batch size is measured with one thread and, if more are given, with the given number of threads.
+ * <p>
+ * Usage: BatchBenchmark [trainingEpisodes] [threads]
+ */
+public class BatchBenchmark {
+
+	/** The Constant SEED. */
+	private static final long SEED=42;
+
+	/** The Constant POOL_SIZE that defines the number of recorded building states. */
+	private static final int POOL_SIZE=1<<20;
+
+	/** The Constant BATCH_SIZES. */
+	private static final int[] BATCH_SIZES={1, 16, 256, 4096, 1<<16, 1<<20};
+
+	/** The Constant MIN_DECISIONS that defines how many decisions are measured for each batch size. */
+	private static final long MIN_DECISIONS=20000000;
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(BatchBenchmark.class);
+
+	/** The state indexes in the pool. */
+	private static int[] states=new int[POOL_SIZE];
+
+	/** The previous actions in the pool. */
+	private static int[] previousActions=new int[POOL_SIZE];
+
+	/** The actions before the previous actions in the pool. */
+	private static int[] prevPreviousActions=new int[POOL_SIZE];
+
+	/**
+	 * Configure logger.
+	 */
+	private static void configureLogger()
+	{
+		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+		ConsoleAppender appender=new ConsoleAppender(patternLayout);
+		log.addAppender(appender);
+		log.setLevel(Level.INFO);
+	}
+
+	/**
+	 * Trains a Q table.
+	 *
+	 * @param episodeCount the episode count
+	 * @return the Q table
+	 */
+	private static DenseQTable train(int episodeCount)
+	{
+		World world=new World("batch", new File(System.getProperty("java.io.tmpdir")), new SplittableRandom(SEED));
+		DenseQTable Q=new DenseQTable();
+		Engine engine=new Engine(world, world.generateStartState(), Q, new SplittableRandom(SEED));
+		for(int i=0;i<episodeCount;i++)
+		{
+			world.resetEpisode();
+			engine.run();
+		}
+		return Q;
+	}
+
+	/**
+	 * Fills the pool with the states of a world driven by random actions, and shuffles it.
+	 */
+	private static void fillPool()
+	{
+		SplittableRandom rand=new SplittableRandom(SEED);
+		World world=new World("batch", new File(System.getProperty("java.io.tmpdir")), rand);
+		State state=world.generateStartState();
+		State next=new State();
+		State swap;
+		int previousAction=Action.NO_ACTION;
+		int prevPreviousAction=Action.NO_ACTION;
+		for(int i=0;i<POOL_SIZE;i++)
+		{
+			states[i]=state.getIndex();
+			previousActions[i]=previousAction;
+			prevPreviousActions[i]=prevPreviousAction;
+			int action=Action.getRandomAction(World.getPossibleActionsMask(state, previousAction, prevPreviousAction), rand);
+			world.getNextState(state, action, next);
+			prevPreviousAction=previousAction;
+			previousAction=action;
+			swap=state;
+			state=next;
+			next=swap;
+		}
+
+		for(int i=POOL_SIZE-1;i>0;i--)
+		{
+			int j=rand.nextInt(i+1);
+			swap(states, i, j);
+			swap(previousActions, i, j);
+			swap(prevPreviousActions, i, j);
+		}
+	}
+
+	/**
+	 * Swaps two elements of an array.
+	 *
+	 * @param a the array
+	 * @param i the first element
+	 * @param j the second element
+	 */
+	private static void swap(int[] a, int i, int j)
+	{
+		int t=a[i];
+		a[i]=a[j];
+		a[j]=t;
+	}
+
+	/**
+	 * Measures the decisions per second for a batch size. The batches are taken in order from the pool.
+	 *
+	 * @param dispatcher the dispatcher
+	 * @param batchSize the batch size
+	 * @return the decisions per second
+	 */
+	private static double measure(BatchDispatcher dispatcher, int batchSize)
+	{
+		int[] batchStates=new int[batchSize];
+		int[] batchPrevious=new int[batchSize];
+		int[] batchPrevPrevious=new int[batchSize];
+		int[] actions=new int[batchSize];
+		int batchCount=POOL_SIZE/batchSize;
+		long rounds=Math.max(1, MIN_DECISIONS/batchSize);
+
+		long start=0;
+		for(long r=-rounds/4;r<rounds;r++)
+		{
+			//The first quarter is the warm-up
+			if(r==0)
+				start=System.nanoTime();
+			int offset=(int) ((r+rounds)%batchCount)*batchSize;
+			System.arraycopy(states, offset, batchStates, 0, batchSize);
+			System.arraycopy(previousActions, offset, batchPrevious, 0, batchSize);
+			System.arraycopy(prevPreviousActions, offset, batchPrevPrevious, 0, batchSize);
+			dispatcher.decide(batchStates, batchPrevious, batchPrevPrevious, actions, batchSize);
+		}
+		double seconds=(System.nanoTime()-start)/1e9;
+		return rounds*batchSize/seconds;
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args)
+	{
+		configureLogger();
+		int episodeCount=args.length>0?Integer.parseInt(args[0]):1;
+		int threads=args.length>1?Integer.parseInt(args[1]):Runtime.getRuntime().availableProcessors();
+
+		DenseQTable Q=train(episodeCount);
+		fillPool();
+		log.info("Trained "+Q.size()+" states in "+episodeCount+" episodes. Measuring batches of "+POOL_SIZE+
+				" recorded states. The copy of the batch in its arrays is included.");
+
+		BatchDispatcher single=new BatchDispatcher(Q);
+		BatchDispatcher parallel=threads>1?new BatchDispatcher(Q, threads):null;
+		for(int batchSize:BATCH_SIZES)
+		{
+			String line="Batch "+batchSize+": "+String.format("%.0f", measure(single, batchSize))+" decisions/s";
+			if(parallel!=null)
+				line+=", "+threads+" threads: "+String.format("%.0f", measure(parallel, batchSize))+" decisions/s";
+			log.info(line);
+		}
+		if(parallel!=null)
+			parallel.shutdown();
+	}
+}
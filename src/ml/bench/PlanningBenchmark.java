@@ -0,0 +1,188 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.SplittableRandom;
+
+import ml.engine.ConvergenceMonitor;
+import ml.engine.DenseQTable;
+import ml.engine.DynaPlanner;
+import ml.engine.Engine;
+import ml.engine.World;
+import ml.scenario.ScenarioGenerator;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class PlanningBenchmark that compares the model-free engine with the engine that plans with a
+ * {@link DynaPlanner}, by the number of simulated days needed to reach a target running average delay.
+ * Each learner is trained from an empty Q table, on the same scenarios and with the same seeds, and is
+ * stopped at the end of the first day in which the running average delay reaches the target, or after
+ * maxEpisodes. For each learner, the real steps of the world, the simulated days, the planning updates
+ * and the CPU time are reported.
+ * <p>
+ * Usage: PlanningBenchmark [targetDelay] [maxEpisodes] [configurations] - configurations as a comma
+ * separated list of planning steps, followed by p for prioritized sweeping (0 is the model-free engine).
+ */
+public class PlanningBenchmark {
+
+	/** The Constant SEED. */
+	private static final long SEED=42;
+
+	/** The Constant DEFAULT_TARGET_DELAY. */
+	private static final double DEFAULT_TARGET_DELAY=60;
+
+	/** The Constant DEFAULT_MAX_EPISODES. */
+	private static final int DEFAULT_MAX_EPISODES=10;
+
+	/** The Constant WINDOW_DAYS that defines the days of the running average delay (as in the world). */
+	private static final int WINDOW_DAYS=50;
+
+	/** The Constant DEFAULT_CONFIGURATIONS. */
+	private static final String DEFAULT_CONFIGURATIONS="0,5,5p";
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(PlanningBenchmark.class);
+
+	/** The Constant threadBean used to measure the CPU time. */
+	private static final ThreadMXBean threadBean=ManagementFactory.getThreadMXBean();
+
+	/**
+	 * The Class TargetMonitor that stops the training in the first day in which the running average
+	 * delay reaches the target, once the running average covers WINDOW_DAYS days of the episode.
+	 */
+	private static class TargetMonitor extends ConvergenceMonitor {
+
+		/** The target delay. */
+		private double targetDelay;
+
+		/** Whether the target was reached. */
+		private boolean reached;
+
+		/** The number of days of the episode. */
+		private int days;
+
+		/**
+		 * Instantiates a new target monitor.
+		 *
+		 * @param targetDelay the target delay
+		 */
+		public TargetMonitor(double targetDelay) {
+			super();
+			this.targetDelay=targetDelay;
+		}
+
+		/* (non-Javadoc)
+		 * @see ml.engine.ConvergenceMonitor#startEpisode()
+		 */
+		@Override
+		public void startEpisode()
+		{
+			super.startEpisode();
+			days=0;
+		}
+
+		/* (non-Javadoc)
+		 * @see ml.engine.ConvergenceMonitor#endDay(double)
+		 */
+		@Override
+		public boolean endDay(double runningAverageDelay)
+		{
+			days++;
+			reached=days>=WINDOW_DAYS && runningAverageDelay<=targetDelay;
+			return reached;
+		}
+
+		/* (non-Javadoc)
+		 * @see ml.engine.ConvergenceMonitor#getStopReason()
+		 */
+		@Override
+		public String getStopReason() {
+			return reached?"target delay "+targetDelay+" reached":null;
+		}
+	}
+
+	/**
+	 * Configure logger.
+	 */
+	private static void configureLogger()
+	{
+		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+		ConsoleAppender appender=new ConsoleAppender(patternLayout);
+		log.addAppender(appender);
+		log.setLevel(Level.INFO);
+	}
+
+	/**
+	 * Trains a learner until it reaches the target delay, and logs the results.
+	 *
+	 * @param planningSteps the number of planning updates after each real step, or 0 for no planning
+	 * @param prioritized whether the planner uses prioritized sweeping
+	 * @param targetDelay the target running average delay
+	 * @param maxEpisodes the largest number of episodes
+	 */
+	private static void run(int planningSteps, boolean prioritized, double targetDelay, int maxEpisodes)
+	{
+		SplittableRandom master=new SplittableRandom(SEED);
+		World world=new World("planning", new File(System.getProperty("java.io.tmpdir")), master.split());
+		Engine engine=new Engine(world, world.generateStartState(), new DenseQTable(), master.split());
+		DynaPlanner planner=planningSteps>0?new DynaPlanner(planningSteps, prioritized, master.split()):null;
+		engine.setPlanner(planner);
+		engine.setFastForward(true);
+		TargetMonitor monitor=new TargetMonitor(targetDelay);
+		engine.setConvergenceMonitor(monitor);
+
+		String name=planner==null?"model-free":"Dyna K="+planningSteps+(prioritized?" prioritized":" uniform");
+		long cpuStart=threadBean.getCurrentThreadCpuTime();
+		long realSteps=0;
+		long days=0;
+		int episodes=0;
+		while(episodes<maxEpisodes && !monitor.reached)
+		{
+			world.resetEpisode();
+			engine.run();
+			episodes++;
+			realSteps+=world.getTime()+1;
+			days+=(world.getTime()+1)/ScenarioGenerator.DAY_DURATION;
+		}
+		double seconds=(threadBean.getCurrentThreadCpuTime()-cpuStart)/1e9;
+		log.info(String.format("%s: %s %.1f after %d days in %d episodes: %d real steps (%d skipped), %d planning "+
+				"steps, %.2fs CPU, delay %.3f", name, monitor.reached?"reached":"did not reach", targetDelay, days,
+				episodes, realSteps, engine.getSkippedSteps(), planner==null?0:planner.getUpdateCount(), seconds,
+				world.getRunningAverageDelay()));
+		if(planner!=null)
+			log.info(name+": "+planner.getModel());
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args)
+	{
+		configureLogger();
+		double targetDelay=args.length>0?Double.parseDouble(args[0]):DEFAULT_TARGET_DELAY;
+		int maxEpisodes=args.length>1?Integer.parseInt(args[1]):DEFAULT_MAX_EPISODES;
+		String configurations=args.length>2?args[2]:DEFAULT_CONFIGURATIONS;
+
+		for(String configuration:configurations.split(","))
+		{
+			configuration=configuration.trim();
+			boolean prioritized=configuration.endsWith("p");
+			int planningSteps=Integer.parseInt(prioritized?configuration.substring(0, configuration.length()-1):configuration);
+			run(planningSteps, prioritized, targetDelay, maxEpisodes);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.bench;
+
+import ml.engine.DenseQTable;
+import ml.engine.Engine;
+import ml.engine.HashQTable;
+import ml.engine.QTable;
+import ml.engine.World;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class QTableBenchmark that compares the {@link HashQTable} and the {@link DenseQTable} on
+ * full training runs, like the one in {@link World#main(String[])}. For each table, the steps
+ * per second and the heap used per visited state are reported.
+ * <p>
+ * Usage: QTableBenchmark [episodeCount]
+ */
+public class QTableBenchmark {
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(QTableBenchmark.class);
+	
+	/**
+	 * Configure logger.
+	 */
+	private static void configureLogger()
+	{
+		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+		ConsoleAppender appender=new ConsoleAppender(patternLayout);
+		log.addAppender(appender);
+		log.setLevel(Level.INFO);		
+	}
+	
+	/**
+	 * Gets the used heap, after a garbage collection.
+	 *
+	 * @return the used heap, in bytes
+	 */
+	private static long getUsedHeap()
+	{
+		Runtime runtime=Runtime.getRuntime();
+		for(int i=0;i<3;i++)
+			System.gc();
+		return runtime.totalMemory()-runtime.freeMemory();
+	}
+	
+	/**
+	 * Runs the training with a type of Q table and logs the results.
+	 *
+	 * @param dense whether the dense table should be used, instead of the hash table
+	 * @param episodeCount the episode count
+	 */
+	private static void run(boolean dense, int episodeCount)
+	{
+		World world=new World();
+		long heapBefore=getUsedHeap();
+		QTable Q=dense?new DenseQTable():new HashQTable();
+		Engine engine=new Engine(world, world.generateStartState(), Q);
+		
+		long start=System.nanoTime();
+		for(int i=0;i<episodeCount;i++)
+		{
+			world.resetEpisode();
+			engine.run();
+		}
+		double seconds=(System.nanoTime()-start)/1e9;
+		long heap=getUsedHeap()-heapBefore;
+		
+		String name=Q.getClass().getSimpleName();
+		log.info(name+": "+engine.getTime()+" steps in "+String.format("%.2f", seconds)+"s -> "+
+				String.format("%.0f", engine.getTime()/seconds)+" steps/sec");
+		log.info(name+": "+Q.size()+" visited states, "+(heap/1024/1024)+" MB heap -> "+
+				(heap/Math.max(1, Q.size()))+" bytes/state (estimated "+
+				(Q.getMemoryEstimate()/Math.max(1, Q.size()))+" bytes/state)");
+	}
+	
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args)
+	{
+		configureLogger();
+		int episodeCount=World.EPISODE_COUNT;
+		if(args.length>0)
+			episodeCount=Integer.parseInt(args[0]);
+		
+		run(false, episodeCount);
+		run(true, episodeCount);
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+import ml.engine.Action;
+import ml.engine.Building;
+import ml.engine.State;
+import ml.engine.World;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class ScalingBenchmark that measures the simulated steps per second and the memory of worlds of
+ * increasing size. Each world is driven by a simple sweep policy, so the queues stay bounded: every car
+ * goes up and down between the ends of the building, and stops where its passengers are going or where
+ * passengers are waiting. The policy only chooses among the possible actions of each car, so it also
+ * exercises {@link World#getPossibleCarActions(State, int, int, int)}.
+ * <p>
+ * For each building, the size of the encoding (bits and longs per state, joint actions, states), the
+ * memory allocated for building the world and while stepping it are reported, with the memory a tabular
+ * Q row would need.
+ * <p>
+ * Usage: ScalingBenchmark [buildings] [steps] - buildings as a comma separated list of carsxfloors,
+ * for example 2x5,4x20,8x40.
+ */
+public class ScalingBenchmark {
+
+	/** The Constant SEED. */
+	private static final long SEED=42;
+
+	/** The Constant DEFAULT_BUILDINGS. */
+	private static final String DEFAULT_BUILDINGS="2x5,4x20,6x30,8x40";
+
+	/** The Constant DEFAULT_STEPS that defines how many steps are measured for each building. */
+	private static final int DEFAULT_STEPS=2000000;
+
+	/** The thread bean that provides the allocation counter. Obtained once, as getting it allocates. */
+	private static final com.sun.management.ThreadMXBean threadBean=
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(ScalingBenchmark.class);
+
+	/**
+	 * Configure logger.
+	 */
+	private static void configureLogger()
+	{
+		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+		ConsoleAppender appender=new ConsoleAppender(patternLayout);
+		log.addAppender(appender);
+		log.setLevel(Level.INFO);
+	}
+
+	/**
+	 * The Class SweepPolicy that moves each car between the ends of the building, stopping where its
+	 * passengers are going or where passengers are waiting.
+	 */
+	private static class SweepPolicy {
+
+		/** The world. */
+		private World world;
+
+		/** The building. */
+		private Building building;
+
+		/** The direction of each car (Action.CAR_UP or Action.CAR_DOWN). */
+		private int[] directions;
+
+		/** The previous action of each car. */
+		private int[] previousCarActions;
+
+		/**
+		 * Instantiates a new sweep policy.
+		 *
+		 * @param world the world
+		 */
+		public SweepPolicy(World world) {
+			super();
+			this.world=world;
+			this.building=world.getBuilding();
+			this.directions=new int[building.getCarCount()];
+			this.previousCarActions=new int[building.getCarCount()];
+			for(int i=0;i<directions.length;i++)
+				directions[i]=Action.CAR_UP;
+		}
+
+		/**
+		 * Gets the joint action for a state.
+		 *
+		 * @param state the state
+		 * @param previousAction the previous action
+		 * @param prevPreviousAction the prev previous action
+		 * @return the action
+		 */
+		public int getAction(State state, int previousAction, int prevPreviousAction)
+		{
+			Action.getCarActions(previousAction, building, previousCarActions);
+			int action=0;
+			for(int car=0;car<directions.length;car++)
+			{
+				int mask=World.getPossibleCarActions(state, car, previousAction, prevPreviousAction);
+				int floor=state.getCarFloor(car);
+				int carAction;
+
+				//Stop when arriving at a floor where passengers get out or in
+				boolean moving=previousCarActions[car]==Action.CAR_UP || previousCarActions[car]==Action.CAR_DOWN;
+				if(mask==1<<Action.CAR_STOP ||
+						(moving && (world.getCarCallCount(car+1, floor)>0 || world.getWaitingCount(floor)>0)))
+					carAction=Action.CAR_STOP;
+				else
+				{
+					if((mask & (1<<directions[car]))==0)
+						directions[car]=directions[car]==Action.CAR_UP?Action.CAR_DOWN:Action.CAR_UP;
+					carAction=(mask & (1<<directions[car]))!=0?directions[car]:Action.CAR_STOP;
+				}
+				action=Action.combineCarAction(action, car, carAction, building);
+			}
+			return action;
+		}
+	}
+
+	/**
+	 * Gets the number of bytes allocated by the current thread.
+	 *
+	 * @return the allocated bytes
+	 */
+	private static long getAllocatedBytes()
+	{
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Measures a building.
+	 *
+	 * @param building the building
+	 * @param steps the number of measured steps
+	 */
+	private static void measure(Building building, int steps)
+	{
+		long allocated=getAllocatedBytes();
+		World world=new World("scaling", new File(System.getProperty("java.io.tmpdir")), new SplittableRandom(SEED), building);
+		long worldMemory=getAllocatedBytes()-allocated;
+
+		SweepPolicy policy=new SweepPolicy(world);
+		State state=world.generateStartState();
+		State next=new State(building);
+		State swap;
+		int previousAction=Action.NO_ACTION;
+		int prevPreviousAction=Action.NO_ACTION;
+		long start=0;
+		long waiting=0;
+		int warmup=steps/4;
+		for(int i=-warmup;i<steps;i++)
+		{
+			//The first steps are the warm-up
+			if(i==0)
+			{
+				start=System.nanoTime();
+				allocated=getAllocatedBytes();
+			}
+			int action=policy.getAction(state, previousAction, prevPreviousAction);
+			world.getNextState(state, action, next);
+			world.getRewardForCurrentState();
+			waiting+=world.getPassengerCount();
+			prevPreviousAction=previousAction;
+			previousAction=action;
+			swap=state;
+			state=next;
+			next=swap;
+		}
+		double seconds=(System.nanoTime()-start)/1e9;
+		long stepMemory=getAllocatedBytes()-allocated;
+
+		String states=building.isDense()?Integer.toString(building.getDenseStateSpaceSize()):
+				String.format("2^%.0f", Math.log(building.getStateSpaceSize())/Math.log(2));
+		log.info(String.format("%s: %.0f steps/s, %.1f passengers in the system, %d KB allocated for the world, "+
+				"%.2f bytes per step, state %d bits in %d longs, %s states, %d joint actions, %d bytes per Q row",
+				building, steps/seconds, (double) waiting/(steps+warmup), worldMemory>>10, (double) stepMemory/steps,
+				building.getStateBits(), building.getWordCount(), states, building.getActionCount(),
+				building.getActionCount()*8));
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args)
+	{
+		configureLogger();
+		String buildings=args.length>0?args[0]:DEFAULT_BUILDINGS;
+		int steps=args.length>1?Integer.parseInt(args[1]):DEFAULT_STEPS;
+		for(String size:buildings.split(","))
+		{
+			String[] parts=size.trim().split("x");
+			measure(new Building(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])), steps);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.bench;
+
+import java.io.File;
+import java.util.SplittableRandom;
+
+import ml.engine.DenseQTable;
+import ml.engine.EligibilityTraces;
+import ml.engine.Engine;
+import ml.engine.World;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class TraceBenchmark that compares the wall-clock time needed by one-step SARSA and by
+ * SARSA(&lambda;) with {@link EligibilityTraces} to reach a target running average delay. Each learner
+ * is trained from an empty Q table, on the same scenarios and with the same exploration seed, and the
+ * running average delay is checked at the end of each episode, until it reaches the target or until
+ * maxEpisodes. For each learner, the episodes, the steps, the seconds and the final delay are reported.
+ * <p>
+ * Usage: TraceBenchmark [targetDelay] [maxEpisodes] [lambdas] - lambdas as a comma separated list;
+ * the one-step learner is always measured first.
+ */
+public class TraceBenchmark {
+
+	/** The Constant SEED. */
+	private static final long SEED=42;
+
+	/** The Constant DEFAULT_TARGET_DELAY. */
+	private static final double DEFAULT_TARGET_DELAY=45;
+
+	/** The Constant DEFAULT_MAX_EPISODES. */
+	private static final int DEFAULT_MAX_EPISODES=20;
+
+	/** The Constant DEFAULT_LAMBDAS. */
+	private static final String DEFAULT_LAMBDAS="0.5,0.8,0.95";
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(TraceBenchmark.class);
+
+	/**
+	 * Configure logger.
+	 */
+	private static void configureLogger()
+	{
+		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+		ConsoleAppender appender=new ConsoleAppender(patternLayout);
+		log.addAppender(appender);
+		log.setLevel(Level.INFO);
+	}
+
+	/**
+	 * Trains a learner until it reaches the target delay, and logs the results.
+	 *
+	 * @param traces the eligibility traces, or null for one-step SARSA
+	 * @param targetDelay the target running average delay
+	 * @param maxEpisodes the largest number of episodes
+	 */
+	private static void run(EligibilityTraces traces, double targetDelay, int maxEpisodes)
+	{
+		SplittableRandom master=new SplittableRandom(SEED);
+		World world=new World("traces", new File(System.getProperty("java.io.tmpdir")), master.split());
+		Engine engine=new Engine(world, world.generateStartState(), new DenseQTable(), master.split());
+		engine.setEligibilityTraces(traces);
+		engine.setFastForward(true);
+
+		String name=traces==null?"SARSA":"SARSA(lambda="+traces.getLambda()+")";
+		long start=System.nanoTime();
+		double delay=Double.NaN;
+		int episodes=0;
+		while(episodes<maxEpisodes)
+		{
+			world.resetEpisode();
+			engine.run();
+			episodes++;
+			delay=world.getRunningAverageDelay();
+			log.info(name+": episode "+episodes+" -> "+String.format("%.3f", delay));
+			if(delay<=targetDelay)
+				break;
+		}
+		double seconds=(System.nanoTime()-start)/1e9;
+		log.info(String.format("%s: %s %.1f in %d episodes, %d steps, %.2fs (%.0f steps/s)%s", name,
+				delay<=targetDelay?"reached":"did not reach", targetDelay, episodes, engine.getTime(), seconds,
+				engine.getTime()/seconds, traces==null?"":", "+traces.getUpdateCount()+" trace updates"));
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args)
+	{
+		configureLogger();
+		double targetDelay=args.length>0?Double.parseDouble(args[0]):DEFAULT_TARGET_DELAY;
+		int maxEpisodes=args.length>1?Integer.parseInt(args[1]):DEFAULT_MAX_EPISODES;
+		String lambdas=args.length>2?args[2]:DEFAULT_LAMBDAS;
+
+		run(null, targetDelay, maxEpisodes);
+		for(String lambda:lambdas.split(","))
+			run(new EligibilityTraces(Double.parseDouble(lambda.trim())), targetDelay, maxEpisodes);
+	}
+}
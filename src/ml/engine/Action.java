@@ -6,11 +6,28 @@
  * 2012
  */
 package ml.engine;
+
+import java.util.SplittableRandom;
+
 /**
- * The Enumeration Action that defines the possible actions.
+ * The Enumeration Action that defines the possible actions. The action of each car is one of
+ * CAR_DOWN, CAR_STOP and CAR_UP, and the joint action of all the cars is a number in base
+ * CAR_ACTION_COUNT, with a digit for each car (see {@link Building}). For the default building,
+ * the joint actions are combined from the E1_* and E2_* constants.
  */
 public class Action {
 	
+	/** The car goes down a floor. */
+	public static final int CAR_DOWN=0;
+	/** The car stays on its floor. */
+	public static final int CAR_STOP=1;
+	/** The car goes up a floor. */
+	public static final int CAR_UP=2;
+	
+	/** The Constant CAR_ACTION_COUNT. */
+	public static final int CAR_ACTION_COUNT=3;
+	
+
 	/** First elevator is doing the action. */
 	public static final int E1_DOWN=0;
 	/** First elevator is doing the action. */
@@ -52,6 +69,119 @@ public class Action {
 		return e1Action+e2Action;
 	}
 	
+	/**
+	 * Gets the action of a car, from a joint action.
+	 *
+	 * @param action the joint action, or NO_ACTION
+	 * @param car the car, from 0
+	 * @param building the building
+	 * @return the action of the car (CAR_DOWN, CAR_STOP or CAR_UP), or NO_ACTION
+	 */
+	public static int getCarAction(int action, int car, Building building)
+	{
+		return action==NO_ACTION?NO_ACTION:(action/building.getActionWeight(car))%CAR_ACTION_COUNT;
+	}
+	
+	/**
+	 * Splits a joint action in the actions of the cars.
+	 *
+	 * @param action the joint action, or NO_ACTION
+	 * @param building the building
+	 * @param carActions the array in which the action of each car (or NO_ACTION) is stored
+	 */
+	public static void getCarActions(int action, Building building, int[] carActions)
+	{
+		for(int car=building.getCarCount()-1;car>=0;car--)
+			if(action==NO_ACTION)
+				carActions[car]=NO_ACTION;
+			else
+			{
+				carActions[car]=action%CAR_ACTION_COUNT;
+				action/=CAR_ACTION_COUNT;
+			}
+	}
+	
+	/**
+	 * Adds the action of a car to a joint action. Starting from 0, the joint action of all the cars is
+	 * obtained by adding the action of each car.
+	 *
+	 * @param action the joint action of the previous cars
+	 * @param car the car, from 0
+	 * @param carAction the action of the car (CAR_DOWN, CAR_STOP or CAR_UP)
+	 * @param building the building
+	 * @return the joint action
+	 */
+	public static int combineCarAction(int action, int car, int carAction, Building building)
+	{
+		return action+carAction*building.getActionWeight(car);
+	}
+	
+	/**
+	 * Gets the joint action in which all the cars stop.
+	 *
+	 * @param building the building
+	 * @return the stop action
+	 */
+	public static int getStopAction(Building building)
+	{
+		int action=0;
+		for(int car=0;car<building.getCarCount();car++)
+			action=combineCarAction(action, car, CAR_STOP, building);
+		return action;
+	}
+	
+	/**
+	 * Gets the n-th action (starting from 0) that is set in an action mask.
+	 *
+	 * @param mask the action mask, with bit i set if action i is allowed
+	 * @param n the number of the action, less than the number of bits set in the mask
+	 * @return the action
+	 */
+	public static int selectAction(int mask, int n)
+	{
+		for(int i=0;i<n;i++)
+			mask&=mask-1;
+		return Integer.numberOfTrailingZeros(mask);
+	}
+	
+	/**
+	 * Gets a random action, uniformly distributed among the actions set in an action mask.
+	 *
+	 * @param mask the action mask, with bit i set if action i is allowed
+	 * @param rand the random number generator
+	 * @return the action
+	 */
+	public static int getRandomAction(int mask, SplittableRandom rand)
+	{
+		return selectAction(mask, rand.nextInt(Integer.bitCount(mask)));
+	}
+	
+	/**
+	 * Gets the action with the largest value in a row of Q values, among the actions set in an action
+	 * mask. On ties, the lowest action is chosen.
+	 *
+	 * @param values the Q values
+	 * @param offset the offset of the row in the values
+	 * @param mask the action mask, with bit i set if action i is allowed
+	 * @return the best action
+	 */
+	public static int getBestAction(double[] values, int offset, int mask)
+	{
+		int maxAction=Integer.numberOfTrailingZeros(mask);
+		double maxQ=-Double.MAX_VALUE;
+		for(int m=mask;m!=0;m&=m-1)
+		{
+			int action=Integer.numberOfTrailingZeros(m);
+			double val=values[offset+action];
+			if(maxQ<val)
+			{
+				maxQ=val;
+				maxAction=action;
+			}
+		}
+		return maxAction;
+	}
+	
 	/**
 	 * Gets the e1 action.
 	 *
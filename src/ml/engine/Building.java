@@ -0,0 +1,390 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import ml.scenario.ScenarioGenerator;
+
+/**
+ * The Class Building that defines the number of elevators (cars) and floors of a world, and the layout
+ * of the {@link State}s in that world. A state is a bitfield of one or more longs, with:
+ * <ul>
+ * <li> the destinations of each car (ABOVE, BELOW, CURRENT), 3 bits per car, from bit 0</li>
+ * <li> the waiting flags of each floor (UP, DOWN), 2 bits per floor, right after the destinations</li>
+ * <li> the floor of each car, on {@link #getFloorBits()} bits</li>
+ * <li> the time interval, on TIME_BITS bits</li>
+ * </ul>
+ * A field never spans two longs. The joint actions are numbers in base CAR_ACTION_COUNT, with a digit
+ * for each car, the first car being the most significant (see {@link Action#getCarAction(int, int, Building)}).
+ * <p>
+ * The default building, with 2 cars and {@link ScenarioGenerator#FLOOR_COUNT} floors, has the same
+ * state indexes and actions as before the layout was generalized.
+ */
+public class Building {
+
+	/** The Constant MAX_CARS. The joint actions of the cars must fit in an int. */
+	public static final int MAX_CARS=16;
+
+	/** The Constant MAX_FLOORS. The car calls are given as a mask of floors, in a long. */
+	public static final int MAX_FLOORS=64;
+
+	/** The Constant TIME_BITS that defines the number of bits of the time interval. */
+	public static final int TIME_BITS=3;
+
+	/** The Constant TIME_INTERVAL_COUNT. */
+	public static final int TIME_INTERVAL_COUNT=6;
+
+	/** The Constant DEFAULT building, with 2 cars. */
+	public static final Building DEFAULT=new Building(2, ScenarioGenerator.FLOOR_COUNT);
+
+	/** The number of cars. */
+	private int carCount;
+
+	/** The number of floors. */
+	private int floorCount;
+
+	/** The number of bits used for the floor of a car. */
+	private int floorBits;
+
+	/** The position of the first waiting flag. */
+	private int waitingBit;
+
+	/** The number of flags (destinations and waiting) at the start of the state. */
+	private int flagBits;
+
+	/** The position of the floor of each car. */
+	private int[] floorBit;
+
+	/** The position of the time interval. */
+	private int timeBit;
+
+	/** The number of longs in a state. */
+	private int wordCount;
+
+	/** The mask of the waiting flags, in each long of a state. */
+	private long[] waitingMask;
+
+	/** The number of joint actions. */
+	private int actionCount;
+
+	/** The weight of the digit of each car in the joint actions. */
+	private int[] actionWeight;
+
+	/** The number of states, if they can be indexed densely in an int, or -1. */
+	private int denseStateSpaceSize;
+
+	/** The Constant MAX_INDEX_TABLE_BITS that limits the size of the tables used for the indexes. */
+	private static final int MAX_INDEX_TABLE_BITS=16;
+
+	/** The index of the time interval and floors, for each value of their bits, or null if the time
+	 * interval and the floors are not contiguous or are too large for a table. */
+	private int[] fieldsToIndex;
+
+	/** The bits of the time interval and floors, for each of their indexes, or null. */
+	private int[] indexToFields;
+
+	/**
+	 * Instantiates a new building.
+	 *
+	 * @param carCount the number of cars, between 1 and MAX_CARS
+	 * @param floorCount the number of floors, between 3 and MAX_FLOORS
+	 */
+	public Building(int carCount, int floorCount) {
+		super();
+		if(carCount<1 || carCount>MAX_CARS)
+			throw new IllegalArgumentException("The number of cars must be between 1 and "+MAX_CARS+": "+carCount);
+		if(floorCount<3 || floorCount>MAX_FLOORS)
+			throw new IllegalArgumentException("The number of floors must be between 3 and "+MAX_FLOORS+": "+floorCount);
+		this.carCount=carCount;
+		this.floorCount=floorCount;
+		this.floorBits=32-Integer.numberOfLeadingZeros(floorCount-1);
+
+		//Flags first, then the fields, that are moved to the next long if they would span two longs
+		this.waitingBit=3*carCount;
+		this.flagBits=waitingBit+2*floorCount;
+		int bit=flagBits;
+		this.floorBit=new int[carCount];
+		for(int i=0;i<carCount;i++)
+		{
+			bit=alignField(bit, floorBits);
+			floorBit[i]=bit;
+			bit+=floorBits;
+		}
+		this.timeBit=alignField(bit, TIME_BITS);
+		this.wordCount=(timeBit+TIME_BITS+63)>>>6;
+		this.waitingMask=new long[wordCount];
+		for(int i=waitingBit;i<flagBits;i++)
+			waitingMask[i>>>6]|=1L<<i;
+
+		//Joint actions
+		this.actionWeight=new int[carCount];
+		int weight=1;
+		for(int i=carCount-1;i>=0;i--)
+		{
+			actionWeight[i]=weight;
+			weight*=Action.CAR_ACTION_COUNT;
+		}
+		this.actionCount=weight;
+
+		//Dense indexes: time interval, floors and flags
+		double size=getStateSpaceSize();
+		this.denseStateSpaceSize=size<=Integer.MAX_VALUE?(int) size:-1;
+		buildIndexTables();
+	}
+
+	/**
+	 * Builds the tables that convert between the bits of the floors and time interval, and their part
+	 * of the dense indexes, if the building is dense and the tables are small. The fields are
+	 * contiguous in the first long if the building is dense, as the state has at most 64 bits.
+	 */
+	private void buildIndexTables()
+	{
+		int fieldsBits=getFieldsBits();
+		int indexCount=denseStateSpaceSize>>>flagBits;
+		if(!isDense() || timeBit!=floorBit[0]+carCount*floorBits || fieldsBits>MAX_INDEX_TABLE_BITS)
+			return;
+		fieldsToIndex=new int[1<<fieldsBits];
+		indexToFields=new int[indexCount];
+		for(int fields=0;fields<fieldsToIndex.length;fields++)
+		{
+			int index=fields>>>(carCount*floorBits);
+			boolean valid=index<TIME_INTERVAL_COUNT;
+			for(int i=0;i<carCount;i++)
+			{
+				int floor=(fields>>>(i*floorBits)) & ((1<<floorBits)-1);
+				valid&=floor<floorCount;
+				index=index*floorCount+floor;
+			}
+			fieldsToIndex[fields]=index;
+			if(valid)
+				indexToFields[index]=fields;
+		}
+	}
+
+	/**
+	 * Gets the number of bits of the floors and the time interval.
+	 *
+	 * @return the fields bits
+	 */
+	int getFieldsBits() {
+		return carCount*floorBits+TIME_BITS;
+	}
+
+	/**
+	 * Gets the table that converts the bits of the floors and time interval, starting from the floor of
+	 * the first car, in their part of the dense index.
+	 *
+	 * @return the table, or null if the states are not indexed with tables
+	 */
+	int[] getFieldsToIndex() {
+		return fieldsToIndex;
+	}
+
+	/**
+	 * Gets the table that converts the part of the dense index of the floors and time interval in
+	 * their bits, starting from the floor of the first car.
+	 *
+	 * @return the table, or null if the states are not indexed with tables
+	 */
+	int[] getIndexToFields() {
+		return indexToFields;
+	}
+
+	/**
+	 * Gets the position of a field, so that it does not span two longs.
+	 *
+	 * @param bit the first free bit
+	 * @param bits the size of the field
+	 * @return the position of the field
+	 */
+	private static int alignField(int bit, int bits)
+	{
+		if((bit&63)+bits>64)
+			return (bit+63)&~63;
+		return bit;
+	}
+
+	/**
+	 * Gets the number of cars.
+	 *
+	 * @return the car count
+	 */
+	public int getCarCount() {
+		return carCount;
+	}
+
+	/**
+	 * Gets the number of floors.
+	 *
+	 * @return the floor count
+	 */
+	public int getFloorCount() {
+		return floorCount;
+	}
+
+	/**
+	 * Gets the top floor.
+	 *
+	 * @return the max floor
+	 */
+	public int getMaxFloor() {
+		return floorCount-1;
+	}
+
+	/**
+	 * Gets the number of bits used for the floor of a car.
+	 *
+	 * @return the floor bits
+	 */
+	public int getFloorBits() {
+		return floorBits;
+	}
+
+	/**
+	 * Gets the position of a destination flag.
+	 *
+	 * @param car the car
+	 * @param direction the direction (State.ABOVE, State.BELOW or State.CURRENT)
+	 * @return the bit
+	 */
+	int getDestinationBit(int car, int direction) {
+		return car*3+direction;
+	}
+
+	/**
+	 * Gets the position of a waiting flag.
+	 *
+	 * @param floor the floor
+	 * @param direction the direction (State.UP or State.DOWN)
+	 * @return the bit
+	 */
+	int getWaitingBit(int floor, int direction) {
+		return waitingBit+floor*2+direction;
+	}
+
+	/**
+	 * Gets the number of flags (destinations and waiting), that are stored from bit 0.
+	 *
+	 * @return the flag bits
+	 */
+	int getFlagBits() {
+		return flagBits;
+	}
+
+	/**
+	 * Gets the position of the floor of a car.
+	 *
+	 * @param car the car
+	 * @return the bit
+	 */
+	int getFloorBit(int car) {
+		return floorBit[car];
+	}
+
+	/**
+	 * Gets the position of the time interval.
+	 *
+	 * @return the bit
+	 */
+	int getTimeBit() {
+		return timeBit;
+	}
+
+	/**
+	 * Gets the number of longs in a state.
+	 *
+	 * @return the word count
+	 */
+	public int getWordCount() {
+		return wordCount;
+	}
+
+	/**
+	 * Gets the mask of the waiting flags in a long of a state.
+	 *
+	 * @param word the long
+	 * @return the waiting mask
+	 */
+	long getWaitingMask(int word) {
+		return waitingMask[word];
+	}
+
+	/**
+	 * Gets the number of bits in a state.
+	 *
+	 * @return the bit count
+	 */
+	public int getStateBits() {
+		return flagBits+carCount*floorBits+TIME_BITS;
+	}
+
+	/**
+	 * Gets the number of joint actions.
+	 *
+	 * @return the action count
+	 */
+	public int getActionCount() {
+		return actionCount;
+	}
+
+	/**
+	 * Gets the weight of the digit of a car in the joint actions.
+	 *
+	 * @param car the car
+	 * @return the weight
+	 */
+	int getActionWeight(int car) {
+		return actionWeight[car];
+	}
+
+	/**
+	 * Gets the number of distinct states: TIME_INTERVAL_COUNT * floorCount^carCount * 2^flags. For large
+	 * buildings, it is only an approximation.
+	 *
+	 * @return the state space size
+	 */
+	public double getStateSpaceSize() {
+		return TIME_INTERVAL_COUNT*Math.pow(floorCount, carCount)*Math.pow(2, flagBits);
+	}
+
+	/**
+	 * Checks if the states can be indexed densely in an int, with {@link State#getIndex()}, and so
+	 * stored in the dense Q tables.
+	 *
+	 * @return true, if the states can be indexed densely
+	 */
+	public boolean isDense() {
+		return denseStateSpaceSize>=0;
+	}
+
+	/**
+	 * Gets the number of states, if they can be indexed densely.
+	 *
+	 * @return the dense state space size, or -1
+	 */
+	public int getDenseStateSpaceSize() {
+		return denseStateSpaceSize;
+	}
+
+	/**
+	 * Checks if the building has the cars and floors of the default building, so its states and actions
+	 * can be used with the dense Q tables and the precomputed action masks.
+	 *
+	 * @return true, if the building is like the default one
+	 */
+	public boolean isDefault() {
+		return carCount==DEFAULT.carCount && floorCount==DEFAULT.floorCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return carCount+" cars x "+floorCount+" floors";
+	}
+}
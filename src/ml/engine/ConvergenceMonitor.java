@@ -0,0 +1,277 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+/**
+ * The Class ConvergenceMonitor that tracks the progress of the learning, to stop an episode, or the
+ * whole training, once it stops improving. The learner reports the size of each Q update and the end
+ * of each day; the monitor keeps, for each of the last 2*window days, the running average delay of the
+ * world and the mean |&Delta;Q| of the day, so the tracking does not allocate.
+ * <p>
+ * An episode is on a plateau in a day if, over the last window days:
+ * <ul>
+ * <li> the running average delay changes (by the slope of its least squares line) by less than
+ * slopeTolerance of its mean</li>
+ * <li> the mean |&Delta;Q| decreased by less than deltaQTolerance from the window before, so the
+ * updates are only noise</li>
+ * </ul>
+ * An episode is stopped after patienceDays consecutive days on a plateau. The training is stopped
+ * after patienceEpisodes consecutive episodes that did not improve the best final delay of the
+ * previous episodes by more than runTolerance of it.
+ */
+public class ConvergenceMonitor {
+
+	/** The Constant PROPERTY that defines the system property that enables, if true, the monitor in the main method. */
+	public static final String PROPERTY="ml.convergence";
+
+	/** The Constant DEFAULT_WINDOW_DAYS. */
+	public static final int DEFAULT_WINDOW_DAYS=50;
+
+	/** The Constant DEFAULT_SLOPE_TOLERANCE. */
+	public static final double DEFAULT_SLOPE_TOLERANCE=0.02;
+
+	/** The Constant DEFAULT_DELTA_Q_TOLERANCE. */
+	public static final double DEFAULT_DELTA_Q_TOLERANCE=0.05;
+
+	/** The Constant DEFAULT_PATIENCE_DAYS. */
+	public static final int DEFAULT_PATIENCE_DAYS=25;
+
+	/** The Constant DEFAULT_RUN_TOLERANCE. */
+	public static final double DEFAULT_RUN_TOLERANCE=0.01;
+
+	/** The Constant DEFAULT_PATIENCE_EPISODES. */
+	public static final int DEFAULT_PATIENCE_EPISODES=3;
+
+	/** The number of days over which the trends are computed. */
+	private int windowDays;
+
+	/** The largest relative change of the delay over a window, on a plateau. */
+	private double slopeTolerance;
+
+	/** The largest relative decrease of the mean |&Delta;Q| between two windows, on a plateau. */
+	private double deltaQTolerance;
+
+	/** The number of consecutive days on a plateau after which an episode is stopped. */
+	private int patienceDays;
+
+	/** The smallest relative improvement of the final delay of an episode. */
+	private double runTolerance;
+
+	/** The number of consecutive episodes without improvement after which the training is stopped. */
+	private int patienceEpisodes;
+
+	/** The running average delay at the end of each of the last 2*windowDays days, by day modulo 2*windowDays. */
+	private double[] delays;
+
+	/** The mean |&Delta;Q| of each of the last 2*windowDays days, by day modulo 2*windowDays. */
+	private double[] deltaQs;
+
+	/** The number of days in the episode. */
+	private int days;
+
+	/** The number of consecutive days on a plateau. */
+	private int plateauDays;
+
+	/** The sum of |&Delta;Q| in the current day. */
+	private double deltaQSum;
+
+	/** The largest |&Delta;Q| in the current day. */
+	private double deltaQMax;
+
+	/** The number of updates in the current day. */
+	private long updates;
+
+	/** The largest |&Delta;Q| in the last completed day. */
+	private double lastDeltaQMax;
+
+	/** The relative change of the delay over the last window. */
+	private double lastSlope;
+
+	/** The relative decrease of the mean |&Delta;Q| over the last window. */
+	private double lastDeltaQDecrease;
+
+	/** The best final delay of the episodes. */
+	private double bestDelay;
+
+	/** The number of consecutive episodes without improvement. */
+	private int staleEpisodes;
+
+	/** The reason for which the last episode or the training was stopped, or null. */
+	private String stopReason;
+
+	/**
+	 * Instantiates a new convergence monitor, with the default criteria.
+	 */
+	public ConvergenceMonitor() {
+		this(DEFAULT_WINDOW_DAYS, DEFAULT_SLOPE_TOLERANCE, DEFAULT_DELTA_Q_TOLERANCE, DEFAULT_PATIENCE_DAYS,
+				DEFAULT_RUN_TOLERANCE, DEFAULT_PATIENCE_EPISODES);
+	}
+
+	/**
+	 * Instantiates a new convergence monitor.
+	 *
+	 * @param windowDays the number of days over which the trends are computed
+	 * @param slopeTolerance the largest relative change of the delay over a window, on a plateau
+	 * @param deltaQTolerance the largest relative decrease of the mean |&Delta;Q| between two windows, on a plateau
+	 * @param patienceDays the number of consecutive days on a plateau after which an episode is stopped
+	 * @param runTolerance the smallest relative improvement of the final delay of an episode
+	 * @param patienceEpisodes the number of consecutive episodes without improvement after which the
+	 * training is stopped
+	 */
+	public ConvergenceMonitor(int windowDays, double slopeTolerance, double deltaQTolerance, int patienceDays,
+			double runTolerance, int patienceEpisodes) {
+		super();
+		if(windowDays<2)
+			throw new IllegalArgumentException("The window must have at least 2 days: "+windowDays);
+		this.windowDays=windowDays;
+		this.slopeTolerance=slopeTolerance;
+		this.deltaQTolerance=deltaQTolerance;
+		this.patienceDays=patienceDays;
+		this.runTolerance=runTolerance;
+		this.patienceEpisodes=patienceEpisodes;
+		this.delays=new double[2*windowDays];
+		this.deltaQs=new double[2*windowDays];
+		this.bestDelay=Double.MAX_VALUE;
+		startEpisode();
+	}
+
+	/**
+	 * Marks the start of an episode.
+	 */
+	public void startEpisode()
+	{
+		days=0;
+		plateauDays=0;
+		deltaQSum=deltaQMax=0;
+		updates=0;
+		stopReason=null;
+	}
+
+	/**
+	 * Records the change of a Q value. Called on every update, so it only updates a few fields.
+	 *
+	 * @param deltaQ the change of the Q value
+	 */
+	public void recordUpdate(double deltaQ)
+	{
+		double abs=Math.abs(deltaQ);
+		deltaQSum+=abs;
+		if(abs>deltaQMax)
+			deltaQMax=abs;
+		updates++;
+	}
+
+	/**
+	 * Marks the end of a day, and checks if the episode is on a plateau.
+	 *
+	 * @param runningAverageDelay the running average delay of the world, at the end of the day
+	 * @return true, if the episode should be stopped; the reason is given by {@link #getStopReason()}
+	 */
+	public boolean endDay(double runningAverageDelay)
+	{
+		int slot=days%delays.length;
+		delays[slot]=runningAverageDelay;
+		deltaQs[slot]=updates==0?0:deltaQSum/updates;
+		lastDeltaQMax=deltaQMax;
+		deltaQSum=deltaQMax=0;
+		updates=0;
+		days++;
+		if(days<delays.length)
+			return false;
+
+		//Least squares slope of the delay over the last window, and the mean |dQ| of the last two windows
+		double sumX=0, sumY=0, sumXY=0, sumXX=0;
+		double recentDeltaQ=0, previousDeltaQ=0;
+		for(int i=0;i<windowDays;i++)
+		{
+			int recent=(days-windowDays+i)%delays.length;
+			double y=delays[recent];
+			sumX+=i;
+			sumY+=y;
+			sumXY+=i*y;
+			sumXX+=(double) i*i;
+			recentDeltaQ+=deltaQs[recent];
+			previousDeltaQ+=deltaQs[(days-2*windowDays+i)%delays.length];
+		}
+		double slope=(windowDays*sumXY-sumX*sumY)/(windowDays*sumXX-sumX*sumX);
+		double mean=sumY/windowDays;
+		lastSlope=mean==0?0:slope*windowDays/mean;
+		lastDeltaQDecrease=previousDeltaQ==0?0:1-recentDeltaQ/previousDeltaQ;
+
+		if(Math.abs(lastSlope)<slopeTolerance && lastDeltaQDecrease<deltaQTolerance)
+			plateauDays++;
+		else
+			plateauDays=0;
+		if(plateauDays<patienceDays)
+			return false;
+		stopReason=String.format("plateau for %d days at day %d: the delay %.3f changed by %.2f%% and the mean |dQ| "+
+				"%.4g decreased by %.2f%% over the last %d days (max |dQ| of the day %.4g)", plateauDays, days, mean,
+				100*lastSlope, recentDeltaQ/windowDays, 100*lastDeltaQDecrease, windowDays, lastDeltaQMax);
+		return true;
+	}
+
+	/**
+	 * Marks the end of an episode, and checks if the training has converged.
+	 *
+	 * @param finalDelay the running average delay at the end of the episode
+	 * @return true, if the training should be stopped; the reason is given by {@link #getStopReason()}
+	 */
+	public boolean endEpisode(double finalDelay)
+	{
+		if(finalDelay<bestDelay*(1-runTolerance))
+		{
+			bestDelay=finalDelay;
+			staleEpisodes=0;
+			return false;
+		}
+		if(finalDelay<bestDelay)
+			bestDelay=finalDelay;
+		staleEpisodes++;
+		if(staleEpisodes<patienceEpisodes)
+			return false;
+		stopReason=String.format("converged: %d episodes did not improve the best delay %.3f by more than %.2f%%",
+				staleEpisodes, bestDelay, 100*runTolerance);
+		return true;
+	}
+
+	/**
+	 * Gets the reason for which the last episode or the training was stopped.
+	 *
+	 * @return the stop reason, or null
+	 */
+	public String getStopReason() {
+		return stopReason;
+	}
+
+	/**
+	 * Gets the number of days in the current episode.
+	 *
+	 * @return the days
+	 */
+	public int getDays() {
+		return days;
+	}
+
+	/**
+	 * Gets the relative change of the running average delay over the last window.
+	 *
+	 * @return the slope
+	 */
+	public double getSlope() {
+		return lastSlope;
+	}
+
+	/**
+	 * Gets the largest |&Delta;Q| of the last completed day.
+	 *
+	 * @return the max delta Q
+	 */
+	public double getMaxDeltaQ() {
+		return lastDeltaQMax;
+	}
+}
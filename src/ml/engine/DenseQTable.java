@@ -0,0 +1,180 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.util.Arrays;
+
+/**
+ * The Class DenseQTable that keeps the Q values in a single flat array, addressed through the
+ * state index ({@link State#getIndex()}). A row of {@link Action#ACTION_COUNT} values is allocated
+ * in the flat array when a state is first visited, and a bitset marks the visited states.
+ */
+public class DenseQTable implements QTable {
+	
+	/** The Constant INITIAL_ROWS that defines the initial number of rows in the values array. */
+	private static final int INITIAL_ROWS=1<<16;
+
+	/** The visited states, as a bitset indexed by the state index. */
+	private long[] visited;
+	
+	/** The row of each visited state in the values array. Valid only for visited states. */
+	private int[] rows;
+	
+	/** The Q values, {@link Action#ACTION_COUNT} consecutive values per visited state. */
+	private double[] values;
+	
+	/** The number of visited states. */
+	private int size;
+	
+	/**
+	 * Instantiates a new dense Q table.
+	 */
+	public DenseQTable() {
+		this(INITIAL_ROWS);
+	}
+	
+	/**
+	 * Instantiates a new dense Q table, with room for a number of visited states before the values
+	 * array has to grow.
+	 *
+	 * @param initialRows the initial number of rows
+	 */
+	public DenseQTable(int initialRows) {
+		super();
+		visited=new long[(State.STATE_SPACE_SIZE+63)/64];
+		rows=new int[State.STATE_SPACE_SIZE];
+		values=new double[initialRows*Action.ACTION_COUNT];
+		size=0;
+	}
+	
+	/**
+	 * Checks if the state with the given index was visited.
+	 *
+	 * @param index the state index
+	 * @return true, if visited
+	 */
+	public boolean isVisited(int index)
+	{
+		return (visited[index>>>6] & (1L << index)) != 0;
+	}
+	
+	/**
+	 * Gets the Q value corresponding to a state index and an action.
+	 *
+	 * @param index the state index
+	 * @param action the action
+	 * @return the Q value
+	 */
+	public double getQValue(int index, int action)
+	{
+		if(!isVisited(index))
+			return 0;
+		return values[rows[index]*Action.ACTION_COUNT+action];
+	}
+	
+	/**
+	 * Sets the Q value corresponding to a state index and an action.
+	 *
+	 * @param index the state index
+	 * @param action the action
+	 * @param val the value
+	 */
+	public void setQValue(int index, int action, double val)
+	{
+		if(!isVisited(index))
+		{
+			if((size+1)*Action.ACTION_COUNT>values.length)
+				values=Arrays.copyOf(values, values.length*2);
+			rows[index]=size++;
+			visited[index>>>6] |= 1L << index;
+		}
+		values[rows[index]*Action.ACTION_COUNT+action]=val;
+	}
+
+	/**
+	 * Gets the action with the largest Q value in a state, among the actions set in an action mask.
+	 *
+	 * @param index the state index
+	 * @param mask the action mask
+	 * @return the best action
+	 */
+	public int getBestAction(int index, int mask)
+	{
+		if(!isVisited(index))
+			return Integer.numberOfTrailingZeros(mask);
+		return Action.getBestAction(values, rows[index]*Action.ACTION_COUNT, mask);
+	}
+	
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getBestAction(ml.engine.State, int)
+	 */
+	@Override
+	public int getBestAction(State state, int mask)
+	{
+		return getBestAction(state.getIndex(), mask);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getQValue(ml.engine.State, int)
+	 */
+	@Override
+	public double getQValue(State state, int action)
+	{
+		return getQValue(state.getIndex(), action);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#setQValue(ml.engine.State, int, double)
+	 */
+	@Override
+	public void setQValue(State state, int action, double val)
+	{
+		setQValue(state.getIndex(), action, val);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#isVisited(ml.engine.State)
+	 */
+	@Override
+	public boolean isVisited(State state)
+	{
+		return isVisited(state.getIndex());
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#size()
+	 */
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getMemoryEstimate()
+	 */
+	@Override
+	public long getMemoryEstimate()
+	{
+		return (long)visited.length*8 + (long)rows.length*4 + (long)values.length*8;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getVisitedStates()
+	 */
+	@Override
+	public State[] getVisitedStates()
+	{
+		State[] states=new State[size];
+		int count=0;
+		for(int i=0;i<State.STATE_SPACE_SIZE;i++)
+			if(isVisited(i))
+				states[count++]=State.fromIndex(i);
+		return states;
+	}
+}
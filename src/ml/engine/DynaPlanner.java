@@ -0,0 +1,301 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The Class DynaPlanner that adds Dyna-style planning to the tabular {@link Engine}: each real step of
+ * the world is recorded in a {@link TransitionModel}, and is followed by up to planningSteps planning
+ * updates of the Q table, that replay the transitions of the model with the SARSA rule of the engine:
+ * Q(s,a) += learningFactor * (mean reward + mean discount * Q(s',a') - Q(s,a)), where (s',a') is the
+ * last next pair observed after (s,a). So the value of the experience spreads through the Q table
+ * without simulating the world.
+ * <p>
+ * The replayed pairs are either chosen uniformly among the observed pairs (Dyna-Q), or, with
+ * prioritized sweeping, by the size of their TD error: a pair enters a priority queue when its TD error
+ * is above the threshold, and when the Q value of a pair changes, its predecessors in the model (at
+ * most MAX_PREDECESSORS of them, so the cost of an update is bounded) are queued with their new TD
+ * errors. The queue is a binary heap in primitive arrays, indexed by the entries of the model.
+ */
+public class DynaPlanner {
+
+	/** The Constant PROPERTY that defines the system property with the planning steps of the main method. */
+	public static final String PROPERTY="ml.planning";
+
+	/** The Constant PRIORITIZED_PROPERTY that defines the system property that enables, if true, the
+	 * prioritized sweeping in the main method. */
+	public static final String PRIORITIZED_PROPERTY="ml.prioritized";
+
+	/** The Constant DEFAULT_THRESHOLD that defines the smallest TD error of a queued pair. */
+	public static final double DEFAULT_THRESHOLD=0.01;
+
+	/** The Constant MAX_PREDECESSORS that defines the largest number of predecessors queued after an update. */
+	private static final int MAX_PREDECESSORS=16;
+
+	/** The model. */
+	private TransitionModel model;
+
+	/** The number of planning updates after each real step. */
+	private int planningSteps;
+
+	/** Whether the pairs are replayed by priority, instead of uniformly. */
+	private boolean prioritized;
+
+	/** The smallest TD error of a queued pair. */
+	private double threshold;
+
+	/** The random number generator used to choose the pairs. */
+	private SplittableRandom rand;
+
+	/** The heap of the queued entries, ordered by priority. */
+	private int[] heap;
+
+	/** The number of queued entries. */
+	private int heapSize;
+
+	/** The priority of each entry. Valid only for the queued entries. */
+	private double[] priorities;
+
+	/** The position of each entry in the heap, or -1 if it is not queued. */
+	private int[] heapPositions;
+
+	/** The state in which the pairs are decoded, to access the Q table. */
+	private State state;
+
+	/** The state in which the next pairs are decoded. */
+	private State nextState;
+
+	/** The number of planning updates. */
+	private long updateCount;
+
+	/**
+	 * Instantiates a new Dyna planner, with a model of the default capacity.
+	 *
+	 * @param planningSteps the number of planning updates after each real step
+	 * @param prioritized whether the pairs are replayed by priority (prioritized sweeping)
+	 * @param rand the random number generator used to choose the pairs
+	 */
+	public DynaPlanner(int planningSteps, boolean prioritized, SplittableRandom rand) {
+		this(new TransitionModel(), planningSteps, prioritized, DEFAULT_THRESHOLD, rand);
+	}
+
+	/**
+	 * Instantiates a new Dyna planner.
+	 *
+	 * @param model the model
+	 * @param planningSteps the number of planning updates after each real step
+	 * @param prioritized whether the pairs are replayed by priority (prioritized sweeping)
+	 * @param threshold the smallest TD error of a queued pair, with prioritized sweeping
+	 * @param rand the random number generator used to choose the pairs
+	 */
+	public DynaPlanner(TransitionModel model, int planningSteps, boolean prioritized, double threshold,
+			SplittableRandom rand) {
+		super();
+		if(planningSteps<0)
+			throw new IllegalArgumentException("The planning steps must be positive: "+planningSteps);
+		this.model=model;
+		this.planningSteps=planningSteps;
+		this.prioritized=prioritized;
+		this.threshold=threshold;
+		this.rand=rand;
+		this.heap=new int[0];
+		this.priorities=new double[0];
+		this.heapPositions=new int[0];
+		this.state=new State();
+		this.nextState=new State();
+	}
+
+	/**
+	 * Records a real step in the model, and performs the planning updates that follow it.
+	 *
+	 * @param Q the Q table, already updated with the real step
+	 * @param learningFactor the learning factor
+	 * @param stateIndex the index of the state
+	 * @param action the action
+	 * @param reward the reward
+	 * @param discount the discount of the value of the next pair
+	 * @param nextStateIndex the index of the next state
+	 * @param nextAction the action chosen in the next state
+	 */
+	public void observe(QTable Q, double learningFactor, int stateIndex, int action, double reward,
+			double discount, int nextStateIndex, int nextAction)
+	{
+		int entry=model.record(stateIndex, action, reward, discount, nextStateIndex, nextAction);
+		if(prioritized)
+		{
+			if(entry!=TransitionModel.NONE)
+				queue(entry, Math.abs(getError(Q, entry)));
+			queuePredecessors(Q, stateIndex, action);
+			for(int i=0;i<planningSteps && heapSize>0;i++)
+			{
+				entry=poll();
+				update(Q, learningFactor, entry);
+				queuePredecessors(Q, model.getState(entry), model.getAction(entry));
+			}
+		}
+		else if(model.size()>0)
+			for(int i=0;i<planningSteps;i++)
+				update(Q, learningFactor, rand.nextInt(model.size()));
+	}
+
+	/**
+	 * Gets the TD error of an entry of the model.
+	 *
+	 * @param Q the Q table
+	 * @param entry the entry
+	 * @return the TD error
+	 */
+	private double getError(QTable Q, int entry)
+	{
+		state.setIndex(model.getState(entry));
+		nextState.setIndex(model.getNextState(entry));
+		return model.getMeanReward(entry)+model.getMeanDiscount(entry)*Q.getQValue(nextState, model.getNextAction(entry))-
+				Q.getQValue(state, model.getAction(entry));
+	}
+
+	/**
+	 * Performs a planning update of an entry of the model.
+	 *
+	 * @param Q the Q table
+	 * @param learningFactor the learning factor
+	 * @param entry the entry
+	 */
+	private void update(QTable Q, double learningFactor, int entry)
+	{
+		double error=getError(Q, entry);
+		int action=model.getAction(entry);
+		Q.setQValue(state, action, Q.getQValue(state, action)+learningFactor*error);
+		updateCount++;
+	}
+
+	/**
+	 * Queues the predecessors of a pair whose Q value changed, by their TD errors.
+	 *
+	 * @param Q the Q table
+	 * @param stateIndex the state index of the pair
+	 * @param action the action of the pair
+	 */
+	private void queuePredecessors(QTable Q, int stateIndex, int action)
+	{
+		int predecessor=model.getFirstPredecessor(stateIndex, action);
+		for(int i=0;i<MAX_PREDECESSORS && predecessor!=TransitionModel.NONE;i++)
+		{
+			queue(predecessor, Math.abs(getError(Q, predecessor)));
+			predecessor=model.getNextPredecessor(predecessor);
+		}
+	}
+
+	/**
+	 * Queues an entry with a priority, or raises its priority if it is already queued with a lower one.
+	 *
+	 * @param entry the entry
+	 * @param priority the priority
+	 */
+	private void queue(int entry, double priority)
+	{
+		if(priority<threshold)
+			return;
+		if(entry>=heapPositions.length)
+		{
+			int length=Math.max(model.size(), 2*heapPositions.length);
+			int oldLength=heapPositions.length;
+			heap=Arrays.copyOf(heap, length);
+			priorities=Arrays.copyOf(priorities, length);
+			heapPositions=Arrays.copyOf(heapPositions, length);
+			Arrays.fill(heapPositions, oldLength, length, -1);
+		}
+		int position=heapPositions[entry];
+		if(position<0)
+			position=heapSize++;
+		else if(priorities[entry]>=priority)
+			return;
+		priorities[entry]=priority;
+		//Sift up
+		while(position>0)
+		{
+			int parent=(position-1)/2;
+			if(priorities[heap[parent]]>=priority)
+				break;
+			heap[position]=heap[parent];
+			heapPositions[heap[position]]=position;
+			position=parent;
+		}
+		heap[position]=entry;
+		heapPositions[entry]=position;
+	}
+
+	/**
+	 * Removes the entry with the highest priority from the queue.
+	 *
+	 * @return the entry
+	 */
+	private int poll()
+	{
+		int top=heap[0];
+		heapPositions[top]=-1;
+		int last=heap[--heapSize];
+		if(heapSize>0)
+		{
+			//Sift down
+			int position=0;
+			double priority=priorities[last];
+			while(2*position+1<heapSize)
+			{
+				int child=2*position+1;
+				if(child+1<heapSize && priorities[heap[child+1]]>priorities[heap[child]])
+					child++;
+				if(priorities[heap[child]]<=priority)
+					break;
+				heap[position]=heap[child];
+				heapPositions[heap[position]]=position;
+				position=child;
+			}
+			heap[position]=last;
+			heapPositions[last]=position;
+		}
+		return top;
+	}
+
+	/**
+	 * Gets the number of planning updates.
+	 *
+	 * @return the update count
+	 */
+	public long getUpdateCount() {
+		return updateCount;
+	}
+
+	/**
+	 * Gets the number of queued pairs.
+	 *
+	 * @return the queue size
+	 */
+	public int getQueueSize() {
+		return heapSize;
+	}
+
+	/**
+	 * Gets the model.
+	 *
+	 * @return the model
+	 */
+	public TransitionModel getModel() {
+		return model;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DynaPlanner [planningSteps="+planningSteps+", prioritized="+prioritized+", updates="+updateCount+
+				", "+model+"]";
+	}
+}
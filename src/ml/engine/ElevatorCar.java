@@ -0,0 +1,273 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.util.Arrays;
+
+import ml.metrics.JourneyStatistics;
+import ml.scenario.ScenarioGenerator;
+
+/**
+ * The Class ElevatorCar that keeps the passengers in an elevator grouped by their destination floor.
+ * For each floor, only the number of passengers and the sums needed for the delay are stored, so 
+ * all the passengers going to a floor are unloaded at once. The number of passengers going in each
+ * direction (State.BELOW, State.CURRENT, State.ABOVE) is also kept, for the destinations in the state.
+ * The journey of each passenger (show up and boarding times, start floor) is also kept, in slots of
+ * flat arrays linked in a list for each destination floor, so the completed journeys can be recorded in
+ * {@link JourneyStatistics} when unloading, visiting only the passengers that get out.
+ */
+public class ElevatorCar {
+	
+	/** The Constant NO_SLOT that marks the end of a list of journey slots. */
+	private static final int NO_SLOT=-1;
+	
+	/** The show up time of the passenger in each journey slot. */
+	private int[] journeyShowUp;
+	
+	/** The time at which the passenger in each journey slot boarded. */
+	private int[] journeyBoard;
+	
+	/** The start floor of the passenger in each journey slot. */
+	private int[] journeyStart;
+	
+	/** The next slot in the list of each journey slot (the same destination floor, or the free slots). */
+	private int[] journeyNext;
+	
+	/** The first journey slot of the passengers going to each floor, or NO_SLOT. */
+	private int[] journeyHead;
+	
+	/** The last journey slot of the passengers going to each floor. Valid only if the list is not empty. */
+	private int[] journeyTail;
+	
+	/** The first free journey slot, or NO_SLOT. */
+	private int freeSlot;
+	
+	/** The number of passengers for each destination floor. */
+	private int[] count;
+	
+	/** The sum of the show up times of the passengers, for each destination floor. */
+	private long[] sumShowUpTime;
+	
+	/** The sum of the distances (|start - stop|) of the passengers, for each destination floor. */
+	private long[] sumDistance;
+	
+	/** The number of passengers for each destination floor and direction. Access: floor*3+direction */
+	private int[] directionCount;
+	
+	/** The number of passengers for each direction. */
+	private int[] directionTotal;
+	
+	/** The number of passengers. */
+	private int size;
+	
+	/**
+	 * Instantiates a new elevator car.
+	 *
+	 * @param floorCount the floor count
+	 */
+	public ElevatorCar(int floorCount) {
+		super();
+		count=new int[floorCount];
+		sumShowUpTime=new long[floorCount];
+		sumDistance=new long[floorCount];
+		directionCount=new int[floorCount*3];
+		directionTotal=new int[3];
+		journeyShowUp=new int[0];
+		journeyBoard=new int[0];
+		journeyStart=new int[0];
+		journeyNext=new int[0];
+		journeyHead=new int[floorCount];
+		journeyTail=new int[floorCount];
+		Arrays.fill(journeyHead, NO_SLOT);
+		freeSlot=NO_SLOT;
+		addSlots(ScenarioGenerator.ELEVATOR_CAPACITY);
+		size=0;
+	}
+	
+	/**
+	 * Grows the journey arrays to a new length, adding the new slots to the free list.
+	 *
+	 * @param length the new length
+	 */
+	private void addSlots(int length)
+	{
+		int oldLength=journeyNext.length;
+		journeyShowUp=Arrays.copyOf(journeyShowUp, length);
+		journeyBoard=Arrays.copyOf(journeyBoard, length);
+		journeyStart=Arrays.copyOf(journeyStart, length);
+		journeyNext=Arrays.copyOf(journeyNext, length);
+		for(int slot=length-1;slot>=oldLength;slot--)
+		{
+			journeyNext[slot]=freeSlot;
+			freeSlot=slot;
+		}
+	}
+	
+	/**
+	 * Gets the direction in which a passenger is going.
+	 *
+	 * @param startFloor the start floor
+	 * @param stopFloor the stop floor
+	 * @return the direction (State.BELOW, State.CURRENT or State.ABOVE)
+	 */
+	public static int getDirection(int startFloor, int stopFloor)
+	{
+		if(startFloor>stopFloor)
+			return State.BELOW;
+		else if(startFloor<stopFloor)
+			return State.ABOVE;
+		else
+			return State.CURRENT;
+	}
+	
+	/**
+	 * Adds a passenger in the elevator.
+	 *
+	 * @param time the show up time
+	 * @param startFloor the start floor
+	 * @param stopFloor the stop floor
+	 * @param boardTime the time at which the passenger boards
+	 */
+	public void board(int time, int startFloor, int stopFloor, int boardTime)
+	{
+		//The capacity is checked by the world, so the slots grow only in custom simulations
+		if(freeSlot==NO_SLOT)
+			addSlots(Math.max(1, 2*journeyNext.length));
+		int slot=freeSlot;
+		freeSlot=journeyNext[slot];
+		journeyShowUp[slot]=time;
+		journeyBoard[slot]=boardTime;
+		journeyStart[slot]=startFloor;
+		if(journeyHead[stopFloor]==NO_SLOT)
+			journeyTail[stopFloor]=slot;
+		journeyNext[slot]=journeyHead[stopFloor];
+		journeyHead[stopFloor]=slot;
+		
+		int direction=getDirection(startFloor, stopFloor);
+		count[stopFloor]++;
+		sumShowUpTime[stopFloor]+=time;
+		sumDistance[stopFloor]+=Math.abs(stopFloor-startFloor);
+		directionCount[stopFloor*3+direction]++;
+		directionTotal[direction]++;
+		size++;
+	}
+	
+	/**
+	 * Removes all the passengers going to a floor.
+	 *
+	 * @param floor the floor
+	 */
+	public void unload(int floor)
+	{
+		unload(floor, 0, null);
+	}
+	
+	/**
+	 * Removes all the passengers going to a floor, recording their journeys.
+	 *
+	 * @param floor the floor
+	 * @param time the arrival time
+	 * @param journeys the statistics in which the journeys are recorded, or null
+	 */
+	public void unload(int floor, int time, JourneyStatistics journeys)
+	{
+		if(count[floor]==0)
+			return;
+		if(journeys!=null)
+			for(int slot=journeyHead[floor];slot!=NO_SLOT;slot=journeyNext[slot])
+				journeys.record(journeyStart[slot], floor, journeyShowUp[slot], journeyBoard[slot], time);
+		//The whole list of the floor is moved to the free slots
+		journeyNext[journeyTail[floor]]=freeSlot;
+		freeSlot=journeyHead[floor];
+		journeyHead[floor]=NO_SLOT;
+		
+		for(int direction=0;direction<3;direction++)
+		{
+			directionTotal[direction]-=directionCount[floor*3+direction];
+			directionCount[floor*3+direction]=0;
+		}
+		size-=count[floor];
+		count[floor]=0;
+		sumShowUpTime[floor]=0;
+		sumDistance[floor]=0;
+	}
+	
+	/**
+	 * Checks if any passenger is going in a direction.
+	 *
+	 * @param direction the direction (State.BELOW, State.CURRENT or State.ABOVE)
+	 * @return true, if any passenger is going in the direction
+	 */
+	public boolean hasDirection(int direction)
+	{
+		return directionTotal[direction]>0;
+	}
+	
+	/**
+	 * Gets the directions in which passengers are going.
+	 *
+	 * @return the directions, as a mask with bit i set if any passenger is going in direction i
+	 */
+	public int getDirections()
+	{
+		return (directionTotal[State.BELOW]>0?1<<State.BELOW:0) | (directionTotal[State.CURRENT]>0?1<<State.CURRENT:0) |
+				(directionTotal[State.ABOVE]>0?1<<State.ABOVE:0);
+	}
+	
+	/**
+	 * Gets the number of passengers going to a floor.
+	 *
+	 * @param floor the floor
+	 * @return the count
+	 */
+	public int getCount(int floor)
+	{
+		return count[floor];
+	}
+	
+	/**
+	 * Gets the sum of the show up times of the passengers going to a floor.
+	 *
+	 * @param floor the floor
+	 * @return the sum
+	 */
+	public long getSumShowUpTime(int floor)
+	{
+		return sumShowUpTime[floor];
+	}
+	
+	/**
+	 * Gets the sum of the distances of the passengers going to a floor.
+	 *
+	 * @param floor the floor
+	 * @return the sum
+	 */
+	public long getSumDistance(int floor)
+	{
+		return sumDistance[floor];
+	}
+	
+	/**
+	 * Gets the number of passengers.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Removes all the passengers.
+	 */
+	public void clear()
+	{
+		for(int i=0;i<count.length;i++)
+			unload(i);
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+/**
+ * The Class EligibilityTraces that keeps the eligibility traces of SARSA(&lambda;) only for the
+ * recently visited (state, action) pairs, so the TD error of a step also updates the pairs that led to
+ * it, and the credit spreads back through a day in far fewer episodes than with one-step SARSA.
+ * <p>
+ * The traces are replacing: a visited pair gets the trace 1. After each step, all the traces decay by
+ * the discount of the step times &lambda;, and the ones below the threshold are cut off. As all the
+ * traces decay by the same factor, they are kept in primitive arrays ordered by the last visit, from the
+ * oldest (the smallest trace) to the newest, and are cut off from the start. At most capacity pairs
+ * are kept, so the cost of a step is bounded, and the traces do not allocate.
+ * <p>
+ * The pairs are identified by the index of the state ({@link State#getIndex()}), so the traces can be
+ * used only in the buildings whose states have indexes, as the tabular {@link Engine}.
+ */
+public class EligibilityTraces {
+
+	/** The Constant PROPERTY that defines the system property with the &lambda; of the main method. */
+	public static final String PROPERTY="ml.lambda";
+
+	/** The Constant DEFAULT_LAMBDA. */
+	public static final double DEFAULT_LAMBDA=0.8;
+
+	/** The Constant DEFAULT_THRESHOLD below which the traces are cut off. */
+	public static final double DEFAULT_THRESHOLD=0.01;
+
+	/** The Constant DEFAULT_CAPACITY that defines the default largest number of traces. */
+	public static final int DEFAULT_CAPACITY=64;
+
+	/** The trace decay factor &lambda;. */
+	private double lambda;
+
+	/** The threshold below which the traces are cut off. */
+	private double threshold;
+
+	/** The state indexes of the pairs, from the oldest visit to the newest. */
+	private int[] states;
+
+	/** The actions of the pairs. */
+	private int[] actions;
+
+	/** The traces of the pairs. */
+	private double[] traces;
+
+	/** The number of pairs. */
+	private int size;
+
+	/** The state in which the pairs are decoded, to access the Q table. */
+	private State scratch;
+
+	/** The number of Q values updated. */
+	private long updateCount;
+
+	/**
+	 * Instantiates new eligibility traces, with the default threshold and capacity.
+	 *
+	 * @param lambda the trace decay factor &lambda;
+	 */
+	public EligibilityTraces(double lambda) {
+		this(lambda, DEFAULT_THRESHOLD, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates new eligibility traces.
+	 *
+	 * @param lambda the trace decay factor &lambda;, in [0, 1]
+	 * @param threshold the threshold below which the traces are cut off, in (0, 1]
+	 * @param capacity the largest number of traces
+	 */
+	public EligibilityTraces(double lambda, double threshold, int capacity) {
+		super();
+		if(!(lambda>=0 && lambda<=1))
+			throw new IllegalArgumentException("The trace decay must be in [0, 1]: "+lambda);
+		if(!(threshold>0 && threshold<=1))
+			throw new IllegalArgumentException("The trace threshold must be in (0, 1]: "+threshold);
+		if(capacity<1)
+			throw new IllegalArgumentException("The capacity must be at least 1: "+capacity);
+		this.lambda=lambda;
+		this.threshold=threshold;
+		this.states=new int[capacity];
+		this.actions=new int[capacity];
+		this.traces=new double[capacity];
+		this.scratch=new State();
+	}
+
+	/**
+	 * Removes the pairs from start (inclusive) to end (exclusive), keeping the order of the others.
+	 *
+	 * @param start the start
+	 * @param end the end
+	 */
+	private void remove(int start, int end)
+	{
+		System.arraycopy(states, end, states, start, size-end);
+		System.arraycopy(actions, end, actions, start, size-end);
+		System.arraycopy(traces, end, traces, start, size-end);
+		size-=end-start;
+	}
+
+	/**
+	 * Marks a pair as visited: its trace is replaced by 1, and it becomes the newest. If the traces are
+	 * full, the oldest is dropped.
+	 *
+	 * @param stateIndex the index of the state
+	 * @param action the action
+	 */
+	public void visit(int stateIndex, int action)
+	{
+		for(int i=size-1;i>=0;i--)
+			if(states[i]==stateIndex && actions[i]==action)
+			{
+				remove(i, i+1);
+				break;
+			}
+		if(size==states.length)
+			remove(0, 1);
+		states[size]=stateIndex;
+		actions[size]=action;
+		traces[size]=1;
+		size++;
+	}
+
+	/**
+	 * Adds to the Q value of each pair a change proportional to its trace.
+	 *
+	 * @param Q the Q table
+	 * @param change the change of a pair with the trace 1 (the learning factor times the TD error)
+	 */
+	public void update(QTable Q, double change)
+	{
+		for(int i=0;i<size;i++)
+		{
+			scratch.setIndex(states[i]);
+			Q.setQValue(scratch, actions[i], Q.getQValue(scratch, actions[i])+change*traces[i]);
+		}
+		updateCount+=size;
+	}
+
+	/**
+	 * Decays the traces after a step, and cuts off the ones below the threshold.
+	 *
+	 * @param discount the discount of the step (the attenuation factor, for one step)
+	 */
+	public void decay(double discount)
+	{
+		double factor=discount*lambda;
+		int cut=0;
+		for(int i=0;i<size;i++)
+		{
+			traces[i]*=factor;
+			if(traces[i]<threshold)
+				cut=i+1;
+		}
+		if(cut>0)
+			remove(0, cut);
+	}
+
+	/**
+	 * Removes all the traces, at the end of an episode.
+	 */
+	public void clear()
+	{
+		size=0;
+	}
+
+	/**
+	 * Gets the number of traces.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the number of Q values updated through the traces.
+	 *
+	 * @return the update count
+	 */
+	public long getUpdateCount() {
+		return updateCount;
+	}
+
+	/**
+	 * Gets the trace decay factor.
+	 *
+	 * @return the lambda
+	 */
+	public double getLambda() {
+		return lambda;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "EligibilityTraces [lambda="+lambda+", threshold="+threshold+", capacity="+states.length+"]";
+	}
+}
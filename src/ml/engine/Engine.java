@@ -8,13 +8,14 @@
 package ml.engine;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.Random;
+import java.util.SplittableRandom;
+
+import ml.metrics.TrainingMetrics;
+import ml.scenario.ScenarioGenerator;
+import ml.trace.TraceRecorder;
 
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Level;
@@ -22,66 +23,108 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 
 /**
- * The Class Engine.
+ * The Class Engine that learns with SARSA in a table of Q values, or with SARSA(&lambda;) if it has
+ * {@link EligibilityTraces}. With a {@link DynaPlanner}, each real step is also followed by planning
+ * updates from a model of the observed transitions.
  */
-public class Engine {
+public class Engine extends SarsaLearner {
 	
-	/** The Constant ACTION_EPSILON. */
+	/** The Constant ACTION_EPSILON, the default initial exploration rate. */
 	public static final double ACTION_EPSILON=0.9;
 	
-	/** The Constant LEARNING_FACTOR. */
+	/** The Constant LEARNING_FACTOR, the default learning factor. */
 	public static final double LEARNING_FACTOR=0.8;
 	
-	/** The Constant ATTENUATION_FACTOR. */
+	/** The Constant ATTENUATION_FACTOR, the default attenuation factor. */
 	public static final double ATTENUATION_FACTOR=0.4;
 	
-	/** The Constant ANNEALING_FACTOR. */
+	/** The Constant ANNEALING_FACTOR, the default annealing factor. */
 	public static final double ANNEALING_FACTOR=0.001/1000; 
 	
 	public double ACTION_EPSILON_ANNEALED;
 	
-	/** A random number generator. */
-	private static final Random rand=new Random();
-	
 	/** The Q. */
-	private HashMap<State,double[]> Q;
-	
-	/** The world. */
-	private World world;
+	private QTable Q;
 	
-	/** The current state. */
-	private State currentState;
+	/** The recorder in which the steps are traced, or null. */
+	private TraceRecorder trace;
 	
-	/** The time. */
-	private int time;
+	/** The eligibility traces of SARSA(&lambda;), or null for one-step SARSA. */
+	private EligibilityTraces traces;
 	
-	/** The previous action. */
-	private Integer previousAction;
+	/** The planner that replays the transitions of a model after each step, or null. */
+	private DynaPlanner planner;
 	
-	/** The previous before previous action. */
-	private Integer prevPreviousAction;
-	
-	/** The Constant log. */
-	public static final Logger log=Logger.getLogger(Engine.class);
+	/**
+	 * Gets the logger of the learner of a world. The console appender is added only once, to the logger
+	 * of the class, and learners of named worlds log through child loggers.
+	 *
+	 * @param world the world
+	 * @return the logger
+	 */
+	static Logger getLogger(World world)
+	{
+		Logger classLog=Logger.getLogger(Engine.class);
+		if(!classLog.getAllAppenders().hasMoreElements())
+		{
+			PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+			ConsoleAppender appender=new ConsoleAppender(patternLayout);
+			appender.setImmediateFlush(true);
+			classLog.addAppender(appender);
+			classLog.setLevel(Level.DEBUG);
+		}
+		return world.getName()==null?classLog:Logger.getLogger(Engine.class.getName()+"."+world.getName());
+	}
 	
 	/**
-	 * Configures the logger.
+	 * Creates the learner for a world. The tabular engine is used when the states of the building can
+	 * be indexed in the Q tables and the index of a {@link DenseQTable} takes at most a quarter of the
+	 * heap; otherwise, the Q table would not fit in the memory, and a {@link LinearEngine} is used. A
+	 * warning is logged for buildings with more than {@link ScenarioGenerator#FLOOR_COUNT} floors, in
+	 * which neither learner recovers from the backlog of the traffic.
+	 *
+	 * @param world the world
+	 * @param startState the start state
+	 * @return the learner
 	 */
-	private void configureLogger()
+	public static Learner createLearner(World world, State startState)
 	{
-		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
-		ConsoleAppender appender=new ConsoleAppender(patternLayout);
-		appender.setImmediateFlush(true);
-		log.addAppender(appender);
-		log.setLevel(Level.DEBUG);
+		return createLearner(world, startState, new SplittableRandom());
 	}
 	
 	/**
-	 * Log statistics.
+	 * Creates the learner for a world, as {@link #createLearner(World, State)}, with a given random
+	 * number generator used for exploration.
+	 *
+	 * @param world the world
+	 * @param startState the start state
+	 * @param rand the random number generator
+	 * @return the learner
 	 */
+	public static Learner createLearner(World world, State startState, SplittableRandom rand)
+	{
+		Building building=world.getBuilding();
+		if(building.isDefault() && 4L*building.getDenseStateSpaceSize()<=Runtime.getRuntime().maxMemory()/4)
+			return new Engine(world, startState, new DenseQTable(), rand);
+		if(building.getFloorCount()>ScenarioGenerator.FLOOR_COUNT)
+			getLogger(world).warn("The linear engine is used for "+building+", but with more than "+
+					ScenarioGenerator.FLOOR_COUNT+" floors the traffic builds a backlog before any learning happens, "+
+					"and neither learner has been seen to recover from it");
+		return new LinearEngine(world, startState, new LinearQFunction(new TileCoder(building)), rand,
+				LinearEngine.DEFAULT_HYPERPARAMETERS);
+	}
+	
+	/* (non-Javadoc)
+	 * @see ml.engine.Learner#logStatistics()
+	 */
+	@Override
 	public void logStatistics()
 	{
 		log.info("State Space Size: "+Q.size());
+		if(traces!=null)
+			log.info("Q values updated through the traces: "+traces.getUpdateCount());
+		if(planner!=null)
+			log.info("Planning: "+planner);
 	}
 	
 	/**
@@ -91,19 +134,9 @@ public class Engine {
 	 * @param action the action
 	 * @param val the value
 	 */
-	private void setQValue(State state, Integer action, double val)
+	private void setQValue(State state, int action, double val)
 	{
-		double vals[]=Q.get(state);
-		if(vals==null)
-		{
-			double nVals[]=new double[Action.ACTION_COUNT];
-			nVals[action]=val;
-			Q.put(state, nVals);			
-		}
-		else
-		{
-			vals[action]=val;
-		}
+		Q.setQValue(state, action, val);
 	}
 	
 	/**
@@ -113,58 +146,103 @@ public class Engine {
 	 * @param action the action
 	 * @return the Q value
 	 */
-	private double getQValue(State state, Integer action)
+	private double getQValue(State state, int action)
 	{
-		double vals[]=Q.get(state);
-		if(vals==null)
-			return 0;
-		else
-			return vals[action];
+		return Q.getQValue(state, action);
+	}
+	
+	/* (non-Javadoc)
+	 * @see ml.engine.SarsaLearner#getEpsilon()
+	 */
+	@Override
+	protected double getEpsilon() {
+		return ACTION_EPSILON_ANNEALED;
+	}
+	
+	/* (non-Javadoc)
+	 * @see ml.engine.SarsaLearner#setEpsilon(double)
+	 */
+	@Override
+	protected void setEpsilon(double epsilon) {
+		ACTION_EPSILON_ANNEALED=epsilon;
+	}
+	
+	/* (non-Javadoc)
+	 * @see ml.engine.SarsaLearner#episodeStarted()
+	 */
+	@Override
+	protected void episodeStarted()
+	{
+		if(traces!=null)
+			traces.clear();
+	}
+	
+	/* (non-Javadoc)
+	 * @see ml.engine.SarsaLearner#actionPerformed(int, double)
+	 */
+	@Override
+	protected void actionPerformed(int action, double reward)
+	{
+		if(trace!=null)
+			trace.record(world.getTime(), currentState.getIndex(), action, reward,
+					world.getStepInjected(), world.getStepBoarded(), world.getStepAlighted());
+	}
+	
+	/* (non-Javadoc)
+	 * @see ml.engine.SarsaLearner#chooseAction(ml.engine.State, boolean)
+	 */
+	@Override
+	protected int chooseAction(State state, boolean next)
+	{
+		return getNextAction(state);
 	}
 	
 	/**
-	 * Run.
+	 * Updates the Q value of a state and an action, using the SARSA rule:
+	 * Q(s,a) += learningFactor * (r + attenuationFactor * Q(s',a') - Q(s,a)).
+	 *
+	 * @param state the state
+	 * @param action the action
+	 * @param reward the reward obtained
+	 * @param newState the new state
+	 * @param newAction the action chosen in the new state
 	 */
-	public void run()
+	public void updateQValue(State state, int action, double reward, State newState, int newAction)
 	{
-		//log.info("Engine started");	
-		
-		State newState;
-		Integer action=getNextAction(currentState);
-		Integer newAction;
-		Double reward;
-		Double newQVal;
-		while(!world.isScenarioFinished())
-		{	
-			if(ACTION_EPSILON_ANNEALED>ACTION_EPSILON/2)
-				ACTION_EPSILON_ANNEALED-=ACTION_EPSILON_ANNEALED*ANNEALING_FACTOR;
-			time++;
-			//log.debug(time+") Now in state: "+currentState+" performing "+action);
-			
-			//Perform the action and get to the new state & the reward
-			newState=world.getNextState(currentState, action);
-			reward=world.getRewardForCurrentState();
-			//log.debug("Reward: "+world.getRewardForCurrentState());
-			
-			//Choose next action
-			newAction=getNextAction(newState);
-			//log.debug("Next action: "+newAction+". Updating Q Value.");
-			
-			//Update Q
-			newQVal=getQValue(this.currentState, action);
-			newQVal+=LEARNING_FACTOR*(reward+ATTENUATION_FACTOR*getQValue(newState, newAction)-newQVal);
-			setQValue(this.currentState, action, newQVal);
-			//log.debug("Q value updated. Step finished.");
-			
-			//Update actions and state
-			this.prevPreviousAction=previousAction;
-			this.previousAction=action;
-			action=newAction;
-			this.currentState=newState;
+		update(state, action, reward, newState, newAction, hyperparameters.getAttenuationFactor());
+	}
+	
+	/**
+	 * Updates the Q value of a state and an action, using the SARSA rule with a given discount of the
+	 * value of the new state. A macro-transition over n steps is discounted by attenuationFactor^n.
+	 * With eligibility traces, the TD error also updates the recently visited pairs, by their traces.
+	 * With a planner, the step is recorded in its model, and followed by the planning updates.
+	 *
+	 * @param state the state
+	 * @param action the action
+	 * @param reward the reward obtained
+	 * @param newState the new state
+	 * @param newAction the action chosen in the new state
+	 * @param discount the discount
+	 * @return the change of the Q value
+	 */
+	@Override
+	protected double update(State state, int action, double reward, State newState, int newAction, double discount)
+	{
+		double newQVal=getQValue(state, action);
+		double change=hyperparameters.getLearningFactor()*(reward+discount*getQValue(newState, newAction)-newQVal);
+		if(traces==null)
+			setQValue(state, action, newQVal+change);
+		else
+		{
+			traces.visit(state.getIndex(), action);
+			traces.update(Q, change);
+			traces.decay(discount);
 		}
-		
-		
-		//log.info("Engine finished");
+		if(planner!=null)
+			planner.observe(Q, hyperparameters.getLearningFactor(), state.getIndex(), action, reward, discount,
+					newState.getIndex(), newAction);
+		return change;
 	}
 	
 	/**
@@ -173,58 +251,149 @@ public class Engine {
 	 * @param state the state
 	 * @return the next action
 	 */
-	public Integer getNextAction(State state)
+	public int getNextAction(State state)
 	{
-		ArrayList<Integer> possibleActions;
-		possibleActions=world.getPossibleActions(state, previousAction, prevPreviousAction);
+		int mask=World.getPossibleActionsMask(state, previousAction, prevPreviousAction);
 		
 		//Explore - Pick a random action
-		if(!Q.containsKey(state) || rand.nextDouble()<ACTION_EPSILON_ANNEALED)
-			return possibleActions.get(rand.nextInt(possibleActions.size()));
+		if(!Q.isVisited(state) || rand.nextDouble()<ACTION_EPSILON_ANNEALED)
+		{
+			exploreCount++;
+			return Action.getRandomAction(mask, rand);
+		}
 		//Exploit - Get the BEST action
 		else
 		{
-			int maxAction=possibleActions.get(0);
-			double maxQ=-Double.MAX_VALUE;
-			double[] QVals=Q.get(state);
-			for(Integer action:possibleActions)
-			{
-				double val=QVals[action];
-				if(maxQ<val)
-				{
-					maxQ=val;
-					maxAction=action;
-				}
-			}
-			
-			return maxAction;
-		}		
+			exploitCount++;
+			return Q.getBestAction(state, mask);
+		}
 	}
 
 	/**
-	 * Instantiates a new engine.
+	 * Instantiates a new engine, that uses a {@link DenseQTable}.
 	 *
 	 * @param world the world
 	 * @param startState the start state
 	 */
 	public Engine(World world, State startState) {
-		super();
-		configureLogger();
+		this(world, startState, new DenseQTable());
+	}
+	
+	/**
+	 * Instantiates a new engine.
+	 *
+	 * @param world the world
+	 * @param startState the start state
+	 * @param Q the table in which the Q values are stored
+	 */
+	public Engine(World world, State startState, QTable Q) {
+		this(world, startState, Q, new SplittableRandom());
+	}
+	
+	/**
+	 * Instantiates a new engine.
+	 *
+	 * @param world the world
+	 * @param startState the start state
+	 * @param Q the table in which the Q values are stored
+	 * @param rand the random number generator used for exploration
+	 */
+	public Engine(World world, State startState, QTable Q, SplittableRandom rand) {
+		this(world, startState, Q, rand, Hyperparameters.DEFAULT);
+	}
+	
+	/**
+	 * Instantiates a new engine, with given hyperparameters.
+	 *
+	 * @param world the world
+	 * @param startState the start state
+	 * @param Q the table in which the Q values are stored
+	 * @param rand the random number generator used for exploration
+	 * @param hyperparameters the hyperparameters
+	 */
+	public Engine(World world, State startState, QTable Q, SplittableRandom rand, Hyperparameters hyperparameters) {
+		super(world, startState, rand, hyperparameters);
+		if(!world.getBuilding().isDefault())
+			throw new IllegalArgumentException("The engine learns only in the default building, not in "+
+					world.getBuilding());
 		
 		log.info("Initializing engine...");
 		log.info("State space size: "+State.STATE_SPACE_SIZE);
+		log.info("Hyperparameters: "+hyperparameters);
 		
 		//Initialize the elements
-		ACTION_EPSILON_ANNEALED=ACTION_EPSILON;
-		Q=new HashMap<State, double[]>(State.STATE_SPACE_SIZE);
-		this.world=world;
-		this.previousAction=this.prevPreviousAction=Action.NO_ACTION;
-		this.currentState=startState;
+		ACTION_EPSILON_ANNEALED=hyperparameters.getActionEpsilon();
+		this.Q=Q;
+		this.metrics=TrainingMetrics.getInstance().register(world.getName()==null?"engine":world.getName(), Q,
+				world.getBuilding().getFloorCount());
 		log.info("Start state: "+currentState);
 
 		log.info("Engine initialized");
 	}
 	
+	/**
+	 * Sets the eligibility traces with which the following episodes learn with SARSA(&lambda;).
+	 *
+	 * @param traces the eligibility traces, or null to learn with one-step SARSA
+	 */
+	public void setEligibilityTraces(EligibilityTraces traces) {
+		this.traces=traces;
+	}
+	
+	/**
+	 * Gets the eligibility traces.
+	 *
+	 * @return the eligibility traces, or null
+	 */
+	public EligibilityTraces getEligibilityTraces() {
+		return traces;
+	}
+	
+	/**
+	 * Sets the planner that replays the transitions of a model of the world after each step.
+	 *
+	 * @param planner the planner, or null to learn only from the real steps
+	 */
+	public void setPlanner(DynaPlanner planner) {
+		this.planner=planner;
+	}
+	
+	/**
+	 * Gets the planner.
+	 *
+	 * @return the planner, or null
+	 */
+	public DynaPlanner getPlanner() {
+		return planner;
+	}
+	
+	/**
+	 * Sets the recorder in which the steps of the following episodes are traced.
+	 *
+	 * @param trace the trace recorder, or null to stop tracing
+	 */
+	public void setTraceRecorder(TraceRecorder trace) {
+		this.trace=trace;
+	}
+	
+	/**
+	 * Gets the hyperparameters.
+	 *
+	 * @return the hyperparameters
+	 */
+	public Hyperparameters getHyperparameters() {
+		return hyperparameters;
+	}
+	
+	/**
+	 * Gets the table of Q values.
+	 *
+	 * @return the Q table
+	 */
+	public QTable getQ() {
+		return Q;
+	}
+	
 	/**
 	 * Write Q to file.
 	 *
@@ -233,18 +402,47 @@ public class Engine {
 	public void writeQToFile(String filename)
 	{
 		log.info("Writing Q to file");
-		
+		writeQToFile(Q, filename);
+		log.info("Write completed.");
+	}
+	
+	/**
+	 * Write a Q table to a text file.
+	 *
+	 * @param Q the Q table
+	 * @param filename the filename
+	 */
+	public static void writeQToFile(QTable Q, String filename)
+	{
 		try {
 			BufferedWriter out=new BufferedWriter(new FileWriter(filename));
 			out.write(Integer.toString(Q.size())+"\n");
-			for(Entry<State, double[]> entry:Q.entrySet())
+			double vals[]=new double[Action.ACTION_COUNT];
+			for(State state:Q.getVisitedStates())
 			{
-				out.write(entry.getKey().flushState() + " - " + flushQValues(entry.getValue())+"\n");
+				for(int i=0;i<Action.ACTION_COUNT;i++)
+					vals[i]=Q.getQValue(state, i);
+				out.write(state.flushState() + " - " + flushQValues(vals)+"\n");
 			}
 			out.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+	}
+	
+	/**
+	 * Write Q to a binary checkpoint file, that can be memory mapped with {@link QTableCheckpoint#open(File)}.
+	 *
+	 * @param file the file
+	 */
+	public void writeQCheckpoint(File file)
+	{
+		log.info("Writing Q checkpoint");
+		try {
+			QTableCheckpoint.write(Q, file);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 		log.info("Write completed.");
 	}
 	
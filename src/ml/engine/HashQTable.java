@@ -0,0 +1,113 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.util.HashMap;
+
+/**
+ * The Class HashQTable that keeps a separate array of Q values for each visited state, 
+ * in a {@link HashMap}.
+ */
+public class HashQTable implements QTable {
+
+	/** The estimated size of a HashMap entry, of a State key and of a value array, in bytes. */
+	private static final int ENTRY_SIZE=32+(24+24)+(16+Action.ACTION_COUNT*8);
+	
+	/** The Q. */
+	private HashMap<State,double[]> Q;
+	
+	/**
+	 * Instantiates a new hash Q table.
+	 */
+	public HashQTable() {
+		super();
+		Q=new HashMap<State, double[]>(State.STATE_SPACE_SIZE);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getQValue(ml.engine.State, int)
+	 */
+	@Override
+	public double getQValue(State state, int action)
+	{
+		double vals[]=Q.get(state);
+		if(vals==null)
+			return 0;
+		else
+			return vals[action];
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#setQValue(ml.engine.State, int, double)
+	 */
+	@Override
+	public void setQValue(State state, int action, double val)
+	{
+		double vals[]=Q.get(state);
+		if(vals==null)
+		{
+			double nVals[]=new double[Action.ACTION_COUNT];
+			nVals[action]=val;
+			//The key is copied, as the engine reuses the state objects
+			Q.put(new State(state), nVals);			
+		}
+		else
+		{
+			vals[action]=val;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getBestAction(ml.engine.State, int)
+	 */
+	@Override
+	public int getBestAction(State state, int mask)
+	{
+		double vals[]=Q.get(state);
+		if(vals==null)
+			return Integer.numberOfTrailingZeros(mask);
+		return Action.getBestAction(vals, 0, mask);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#isVisited(ml.engine.State)
+	 */
+	@Override
+	public boolean isVisited(State state)
+	{
+		return Q.containsKey(state);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#size()
+	 */
+	@Override
+	public int size()
+	{
+		return Q.size();
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getMemoryEstimate()
+	 */
+	@Override
+	public long getMemoryEstimate()
+	{
+		//The bucket array is presized to the whole state space
+		return (long)Integer.highestOneBit(State.STATE_SPACE_SIZE-1)*2*4 + (long)Q.size()*ENTRY_SIZE;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getVisitedStates()
+	 */
+	@Override
+	public State[] getVisitedStates()
+	{
+		return Q.keySet().toArray(new State[Q.size()]);
+	}
+}
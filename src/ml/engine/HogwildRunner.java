@@ -0,0 +1,266 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class HogwildRunner that trains a single policy with many worker threads. Every worker has
+ * its own {@link World} and {@link Engine}, but all the engines update the same {@link SharedQTable},
+ * without locks. The total number of episodes is split between the workers, so the runs with more
+ * threads do the same amount of work in less wall-clock time.
+ * <p>
+ * The run is repeated for each of the given thread counts, and the convergence of the monthly average
+ * delay is reported against the wall-clock time, together with the time needed to get close to the
+ * final delay of the first thread count.
+ * <p>
+ * Usage: HogwildRunner threadCounts [episodeCount] [plain|atomic] [seed] <br/>
+ * where threadCounts is a comma separated list, such as 1,2,4.
+ */
+public class HogwildRunner {
+
+	/** The Constant OUTPUT_DIR that defines the directory in which the runs are written. */
+	private static final String OUTPUT_DIR=ParallelRunner.OUTPUT_DIR+File.separator+"hogwild";
+
+
+	/** The Constant TARGET_TOLERANCE that defines how close to the reference delay a run must get. */
+	private static final double TARGET_TOLERANCE=0.05;
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(HogwildRunner.class);
+
+	/**
+	 * Configure logger.
+	 */
+	private static void configureLogger()
+	{
+		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+		ConsoleAppender appender=new ConsoleAppender(patternLayout);
+		log.addAppender(appender);
+		log.setLevel(Level.INFO);
+	}
+
+	/**
+	 * The Class Worker that trains its own world, using the shared Q table.
+	 */
+	private static class Worker implements Callable<double[][]> {
+
+		/** The world. */
+		private World world;
+
+		/** The engine. */
+		private Engine engine;
+
+		/** The episode count. */
+		private int episodeCount;
+
+		/** The latch on which all the workers wait, so they start at the same time. */
+		private CountDownLatch start;
+
+		/**
+		 * Instantiates a new worker.
+		 *
+		 * @param name the name of the worker
+		 * @param seed the seed
+		 * @param Q the shared Q table
+		 * @param episodeCount the episode count
+		 * @param start the start latch
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		public Worker(String name, long seed, QTable Q, int episodeCount, CountDownLatch start) throws IOException {
+			super();
+			File outputDir=new File(OUTPUT_DIR, name);
+			outputDir.mkdirs();
+			File logFile=new File(outputDir, "log");
+			ParallelRunner.redirectLogger(Logger.getLogger(World.class.getName()+"."+name), logFile);
+			ParallelRunner.redirectLogger(Logger.getLogger(Engine.class.getName()+"."+name), logFile);
+
+			SplittableRandom master=new SplittableRandom(seed);
+			this.world=new World(name, outputDir, master.split());
+			this.engine=new Engine(world, world.generateStartState(), Q, master.split());
+			this.episodeCount=episodeCount;
+			this.start=start;
+		}
+
+		/**
+		 * Runs the training.
+		 *
+		 * @return the last monthly average delay of each episode, and the time (in seconds since
+		 * the start) at which each episode finished
+		 * @throws Exception the exception
+		 */
+		@Override
+		public double[][] call() throws Exception {
+			double[] curve=new double[episodeCount];
+			double[] times=new double[episodeCount];
+			start.await();
+			long startTime=System.nanoTime();
+			try {
+				for(int i=0;i<episodeCount;i++)
+				{
+					world.resetEpisode();
+					engine.run();
+					world.logStatistics();
+					double[] monthlyAverage=world.getMonthlyAverage();
+					curve[i]=monthlyAverage[monthlyAverage.length-1];
+					times[i]=(System.nanoTime()-startTime)/1e9;
+				}
+			} finally {
+				engine.close();
+			}
+			return new double[][] {curve, times};
+		}
+	}
+
+	/**
+	 * Trains one policy with a number of threads.
+	 *
+	 * @param threads the number of threads
+	 * @param episodeCount the total number of episodes, split between the threads
+	 * @param mode the write mode of the shared table
+	 * @param seed the seed of the first worker
+	 * @return the convergence curve: the average delay of the workers after each round of episodes,
+	 * and the time at which the last worker finished the round
+	 * @throws InterruptedException the interrupted exception
+	 * @throws ExecutionException the execution exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static double[][] train(int threads, int episodeCount, SharedQTable.WriteMode mode, long seed)
+			throws InterruptedException, ExecutionException, IOException
+	{
+		int rounds=(episodeCount+threads-1)/threads;
+		SharedQTable Q=new SharedQTable(mode);
+		CountDownLatch start=new CountDownLatch(1);
+
+		ExecutorService pool=Executors.newFixedThreadPool(threads);
+		ArrayList<Future<double[][]>> results=new ArrayList<Future<double[][]>>(threads);
+		for(int i=0;i<threads;i++)
+			results.add(pool.submit(new Worker("threads_"+threads+"_worker"+i, seed+i, Q, rounds, start)));
+		start.countDown();
+
+		double[] curve=new double[rounds];
+		double[] times=new double[rounds];
+		for(int i=0;i<threads;i++)
+		{
+			double[][] result=results.get(i).get();
+			for(int r=0;r<rounds;r++)
+			{
+				curve[r]+=result[0][r]/threads;
+				times[r]=Math.max(times[r], result[1][r]);
+			}
+		}
+		pool.shutdown();
+		log.info(threads+" threads: "+rounds+" rounds in "+String.format("%.1f", times[rounds-1])+
+				"s. Final average delay: "+String.format("%.3f", curve[rounds-1])+". Visited states: "+Q.size());
+		return new double[][] {curve, times};
+	}
+
+	/**
+	 * Gets the time at which a curve first gets below a target delay.
+	 *
+	 * @param curve the curve
+	 * @param target the target delay
+	 * @return the time, or NaN if the target is never reached
+	 */
+	private static double getTimeToTarget(double[][] curve, double target)
+	{
+		for(int r=0;r<curve[0].length;r++)
+			if(curve[0][r]<=target)
+				return curve[1][r];
+		return Double.NaN;
+	}
+
+	/**
+	 * Writes the convergence curves of all the thread counts as an octave script, plotting the average
+	 * delay against the wall-clock time.
+	 *
+	 * @param threadCounts the thread counts
+	 * @param curves the curves
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writeCurves(int[] threadCounts, double[][][] curves) throws IOException
+	{
+		BufferedWriter out=new BufferedWriter(new FileWriter(new File(OUTPUT_DIR, "convergence")));
+		StringBuilder plot=new StringBuilder("plot(");
+		StringBuilder legend=new StringBuilder("legend(");
+		for(int i=0;i<threadCounts.length;i++)
+		{
+			out.write("t"+threadCounts[i]+"="+Arrays.toString(curves[i][1])+";\n");
+			out.write("d"+threadCounts[i]+"="+Arrays.toString(curves[i][0])+";\n");
+			plot.append((i>0?",":"")+"t"+threadCounts[i]+",d"+threadCounts[i]);
+			legend.append((i>0?",":"")+"'"+threadCounts[i]+" threads'");
+		}
+		out.write(plot+");\n");
+		out.write(legend+");");
+		out.close();
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 * @throws InterruptedException the interrupted exception
+	 * @throws ExecutionException the execution exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException, IOException
+	{
+		configureLogger();
+		if(args.length<1)
+		{
+			log.error("Usage: HogwildRunner threadCounts [episodeCount] [plain|atomic] [seed]");
+			return;
+		}
+		String[] counts=args[0].split(",");
+		int[] threadCounts=new int[counts.length];
+		for(int i=0;i<counts.length;i++)
+			threadCounts[i]=Integer.parseInt(counts[i]);
+		int episodeCount=args.length>1?Integer.parseInt(args[1]):World.EPISODE_COUNT;
+		SharedQTable.WriteMode mode=args.length>2?SharedQTable.WriteMode.valueOf(args[2].toUpperCase()):
+			SharedQTable.WriteMode.PLAIN;
+		long seed=args.length>3?Long.parseLong(args[3]):1;
+		new File(OUTPUT_DIR).mkdirs();
+		log.info("Training one policy for "+episodeCount+" episodes with "+Arrays.toString(threadCounts)+
+				" threads, using "+mode+" writes, on "+Runtime.getRuntime().availableProcessors()+" cores");
+
+		double[][][] curves=new double[threadCounts.length][][];
+		for(int i=0;i<threadCounts.length;i++)
+			curves[i]=train(threadCounts[i], episodeCount, mode, seed);
+
+		//Compare the runs with the final delay of the first one
+		double[] reference=curves[0][0];
+		double target=reference[reference.length-1]*(1+TARGET_TOLERANCE);
+		double referenceTime=getTimeToTarget(curves[0], target);
+		for(int i=0;i<threadCounts.length;i++)
+		{
+			double[] curve=curves[i][0];
+			double time=getTimeToTarget(curves[i], target);
+			log.info(threadCounts[i]+" threads: final delay "+String.format("%.3f", curve[curve.length-1])+
+					", time to delay "+String.format("%.3f", target)+": "+
+					(Double.isNaN(time)?"not reached":String.format("%.1fs (speedup %.2f)", time, referenceTime/time)));
+		}
+		writeCurves(threadCounts, curves);
+	}
+}
@@ -0,0 +1,445 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ml.metrics.ResultsStore;
+import ml.scenario.ScenarioCache;
+import ml.scenario.ScenarioStream;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class HyperparameterSweep that searches the {@link Hyperparameters} of the {@link Engine} with
+ * successive halving. The candidates are taken from a grid, or sampled randomly from ranges, and are
+ * trained in parallel, each with its own world and engine, on the same scenarios, read from the
+ * {@link ScenarioCache} ({@code runs/scenarios}), and with the same exploration seed, so they differ
+ * only by their hyperparameters.
+ * <p>
+ * The training is split in rungs: in rung r, every surviving candidate is trained up to
+ * rungEpisodes*eta^r episodes, and only the best 1/eta of them, by the last monthly average delay of
+ * their last episode, go on to the next rung. The sweep ends when a single candidate is left, or when
+ * maxEpisodes is reached. The results of all the candidates are written in a single summary table
+ * ({@code runs/sweep/summary}), and the learning curves of their episodes in a single results store
+ * ({@code runs/sweep/results.bin}).
+ * <p>
+ * Usage: HyperparameterSweep [key=value]... with the keys:
+ * <ul>
+ * <li> learning, attenuation, epsilon, annealing: the values of a hyperparameter, as a list
+ * (v1,v2,...) for a grid, or as a range (min:max) for a random search. The ranges whose ends are more
+ * than 100 times apart are sampled log-uniformly. Default: the value of the Engine.</li>
+ * <li> candidates: the number of candidates sampled, if any hyperparameter is a range (default 16)</li>
+ * <li> rung: the number of episodes of the first rung (default 2)</li>
+ * <li> eta: the factor by which the candidates are reduced in each rung (default 2)</li>
+ * <li> maxEpisodes: the largest number of episodes of a candidate (default World.EPISODE_COUNT)</li>
+ * <li> threads: the number of worker threads (default the number of processors)</li>
+ * <li> seed: the seed of the scenarios, of the exploration and of the sampling (default 1)</li>
+ * </ul>
+ */
+public class HyperparameterSweep {
+
+	/** The Constant OUTPUT_DIR that defines the directory in which the sweep is written. */
+	private static final File OUTPUT_DIR=new File(ParallelRunner.OUTPUT_DIR, "sweep");
+
+	/** The Constant LOG_UNIFORM_RATIO that defines the ratio between the ends of a range over which it
+	 * is sampled log-uniformly. */
+	private static final double LOG_UNIFORM_RATIO=100;
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(HyperparameterSweep.class);
+
+	/**
+	 * Configure logger.
+	 */
+	private static void configureLogger()
+	{
+		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+		ConsoleAppender appender=new ConsoleAppender(patternLayout);
+		log.addAppender(appender);
+		log.setLevel(Level.INFO);
+	}
+
+	/**
+	 * The Class Candidate that trains a world and an engine with given hyperparameters, over the shared
+	 * scenarios. It keeps its state between the rungs, so each rung continues the training.
+	 */
+	private static class Candidate implements Callable<Double> {
+
+		/** The id. */
+		private int id;
+
+		/** The hyperparameters. */
+		private Hyperparameters hyperparameters;
+
+		/** The world. */
+		private World world;
+
+		/** The engine. */
+		private Engine engine;
+
+		/** The scenarios of the episodes, shared by all the candidates. */
+		private ScenarioStream[] scenarios;
+
+		/** The number of episodes trained. */
+		private int episodes;
+
+		/** The number of episodes to train up to, in the current rung. */
+		private int targetEpisodes;
+
+		/** The metric at the end of each rung the candidate was trained in. */
+		private double[] rungMetrics;
+
+		/** The number of rungs the candidate was trained in. */
+		private int rungs;
+
+		/**
+		 * Instantiates a new candidate.
+		 *
+		 * @param id the id
+		 * @param hyperparameters the hyperparameters
+		 * @param scenarios the scenarios of the episodes
+		 * @param rungCount the largest number of rungs
+		 */
+		public Candidate(int id, Hyperparameters hyperparameters, ScenarioStream[] scenarios, int rungCount) {
+			super();
+			this.id=id;
+			this.hyperparameters=hyperparameters;
+			this.scenarios=scenarios;
+			this.rungMetrics=new double[rungCount];
+		}
+
+		/**
+		 * Creates the world and the engine of the candidate.
+		 *
+		 * @param seed the seed
+		 * @param results the results store shared by the candidates
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		private void initialize(long seed, ResultsStore results) throws IOException
+		{
+			String name="sweep"+id;
+			File outputDir=new File(OUTPUT_DIR, "candidate_"+id);
+			outputDir.mkdirs();
+			File logFile=new File(outputDir, "log");
+			ParallelRunner.redirectLogger(Logger.getLogger(World.class.getName()+"."+name), logFile);
+			ParallelRunner.redirectLogger(Logger.getLogger(Engine.class.getName()+"."+name), logFile);
+
+			//The same streams for every candidate
+			SplittableRandom master=new SplittableRandom(seed);
+			world=new World(name, outputDir, master.split());
+			world.setResultsStore(results);
+			engine=new Engine(world, world.generateStartState(), new DenseQTable(), master.split(), hyperparameters);
+			engine.setFastForward(Boolean.getBoolean(World.FAST_FORWARD_PROPERTY));
+		}
+
+		/**
+		 * Trains the candidate up to the target episodes of the rung.
+		 *
+		 * @return the metric: the last monthly average delay of the last episode
+		 * @throws Exception the exception
+		 */
+		@Override
+		public Double call() throws Exception {
+			double metric=Double.NaN;
+			for(;episodes<targetEpisodes;episodes++)
+			{
+				//Each world reads the shared scenario through its own cursor
+				world.resetEpisode(new ScenarioStream(scenarios[episodes]));
+				engine.run();
+				world.logStatistics();
+				double[] monthlyAverage=world.getMonthlyAverage();
+				metric=monthlyAverage[monthlyAverage.length-1];
+			}
+			rungMetrics[rungs++]=metric;
+			return metric;
+		}
+
+		/**
+		 * Gets the metric of the last rung the candidate was trained in.
+		 *
+		 * @return the metric
+		 */
+		public double getMetric() {
+			return rungMetrics[rungs-1];
+		}
+
+		/**
+		 * Releases the world and the engine, once the candidate was dropped or the sweep is finished.
+		 */
+		public void release()
+		{
+			engine.close();
+			world=null;
+			engine=null;
+		}
+	}
+
+	/**
+	 * Parses the values of a hyperparameter: a list or a range.
+	 *
+	 * @param value the value of the argument, or null for the default
+	 * @param defaultValue the default value
+	 * @return the values of the list, or {min, max} for a range
+	 */
+	private static double[] parseValues(String value, double defaultValue)
+	{
+		if(value==null)
+			return new double[] {defaultValue};
+		String[] parts=value.split(value.indexOf(':')>=0?":":",");
+		double[] values=new double[parts.length];
+		for(int i=0;i<parts.length;i++)
+			values[i]=Double.parseDouble(parts[i].trim());
+		return values;
+	}
+
+	/**
+	 * Samples a value from a range.
+	 *
+	 * @param range the range {min, max}
+	 * @param rand the random number generator
+	 * @return the value
+	 */
+	private static double sample(double[] range, SplittableRandom rand)
+	{
+		double min=range[0], max=range[1];
+		if(min>0 && max/min>=LOG_UNIFORM_RATIO)
+			return min*Math.exp(rand.nextDouble()*Math.log(max/min));
+		return min+rand.nextDouble()*(max-min);
+	}
+
+	/**
+	 * Creates the hyperparameters of the candidates: the grid of all the combinations of the lists, or
+	 * the given number of samples, if any hyperparameter is a range.
+	 *
+	 * @param space the values of each hyperparameter, in the order of the constructor of {@link Hyperparameters}
+	 * @param isRange whether the values of each hyperparameter are a range
+	 * @param candidateCount the number of candidates sampled
+	 * @param rand the random number generator
+	 * @return the hyperparameters
+	 */
+	private static ArrayList<Hyperparameters> createCandidates(double[][] space, boolean[] isRange,
+			int candidateCount, SplittableRandom rand)
+	{
+		ArrayList<Hyperparameters> candidates=new ArrayList<Hyperparameters>();
+		boolean random=false;
+		int gridSize=1;
+		for(int p=0;p<space.length;p++)
+		{
+			random|=isRange[p];
+			gridSize*=space[p].length;
+		}
+		int count=random?candidateCount:gridSize;
+		double[] values=new double[space.length];
+		for(int c=0;c<count;c++)
+		{
+			int index=c;
+			for(int p=0;p<space.length;p++)
+				if(isRange[p])
+					values[p]=sample(space[p], rand);
+				else
+				{
+					//Randomly sampled candidates pick the lists' values randomly, the grid enumerates them
+					values[p]=space[p][random?rand.nextInt(space[p].length):index%space[p].length];
+					index/=space[p].length;
+				}
+			candidates.add(new Hyperparameters(values[0], values[1], values[2], values[3]));
+		}
+		return candidates;
+	}
+
+	/**
+	 * Writes the summary table of the sweep, and logs it.
+	 *
+	 * @param candidates the candidates, ordered by their rank
+	 * @param rungCount the number of rungs
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writeSummary(ArrayList<Candidate> candidates, int rungCount) throws IOException
+	{
+		StringBuilder header=new StringBuilder(String.format("%-5s %-4s %-9s %-11s %-9s %-11s %-8s",
+				"rank", "id", "learning", "attenuation", "epsilon", "annealing", "episodes"));
+		for(int r=0;r<rungCount;r++)
+			header.append(String.format(" %-9s", "rung"+r));
+
+		BufferedWriter out=new BufferedWriter(new FileWriter(new File(OUTPUT_DIR, "summary")));
+		out.write(header.toString());
+		out.newLine();
+		log.info(header);
+		for(int i=0;i<candidates.size();i++)
+		{
+			Candidate candidate=candidates.get(i);
+			Hyperparameters h=candidate.hyperparameters;
+			StringBuilder line=new StringBuilder(String.format("%-5d %-4d %-9.4g %-11.4g %-9.4g %-11.4g %-8d",
+					i+1, candidate.id, h.getLearningFactor(), h.getAttenuationFactor(), h.getActionEpsilon(),
+					h.getAnnealingFactor(), candidate.episodes));
+			for(int r=0;r<rungCount;r++)
+				line.append(r<candidate.rungs?String.format(" %-9.4f", candidate.rungMetrics[r]):
+					String.format(" %-9s", "-"));
+			out.write(line.toString());
+			out.newLine();
+			log.info(line);
+		}
+		out.close();
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 * @throws InterruptedException the interrupted exception
+	 * @throws ExecutionException the execution exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException, IOException
+	{
+		configureLogger();
+		String[] keys={"learning", "attenuation", "epsilon", "annealing"};
+		double[] defaults={Engine.LEARNING_FACTOR, Engine.ATTENUATION_FACTOR, Engine.ACTION_EPSILON,
+				Engine.ANNEALING_FACTOR};
+		String[] spaceArgs=new String[keys.length];
+		int candidateCount=16, rungEpisodes=2, eta=2, maxEpisodes=World.EPISODE_COUNT;
+		int threads=Runtime.getRuntime().availableProcessors();
+		long seed=1;
+		for(String arg:args)
+		{
+			int eq=arg.indexOf('=');
+			String key=eq<0?arg:arg.substring(0, eq), value=eq<0?"":arg.substring(eq+1);
+			int p=Arrays.asList(keys).indexOf(key);
+			if(p>=0)
+				spaceArgs[p]=value;
+			else if(key.equals("candidates"))
+				candidateCount=Integer.parseInt(value);
+			else if(key.equals("rung"))
+				rungEpisodes=Integer.parseInt(value);
+			else if(key.equals("eta"))
+				eta=Integer.parseInt(value);
+			else if(key.equals("maxEpisodes"))
+				maxEpisodes=Integer.parseInt(value);
+			else if(key.equals("threads"))
+				threads=Integer.parseInt(value);
+			else if(key.equals("seed"))
+				seed=Long.parseLong(value);
+			else
+			{
+				log.error("Usage: HyperparameterSweep [learning|attenuation|epsilon|annealing=v1,v2,...|min:max] "+
+						"[candidates=N] [rung=episodes] [eta=N] [maxEpisodes=N] [threads=N] [seed=N]");
+				return;
+			}
+		}
+		if(rungEpisodes<1 || eta<2 || maxEpisodes<rungEpisodes)
+			throw new IllegalArgumentException("Expected rung>=1, eta>=2 and maxEpisodes>=rung");
+
+		//The search space and the candidates
+		double[][] space=new double[keys.length][];
+		boolean[] isRange=new boolean[keys.length];
+		for(int p=0;p<keys.length;p++)
+		{
+			space[p]=parseValues(spaceArgs[p], defaults[p]);
+			isRange[p]=spaceArgs[p]!=null && spaceArgs[p].indexOf(':')>=0;
+			if(isRange[p] && space[p].length!=2)
+				throw new IllegalArgumentException("A range must be min:max: "+spaceArgs[p]);
+		}
+		ArrayList<Hyperparameters> hyperparameters=createCandidates(space, isRange, candidateCount,
+				new SplittableRandom(seed));
+
+		//The rungs: the episodes of each candidate grow by eta, up to maxEpisodes
+		int rungCount=1;
+		for(long e=rungEpisodes, n=hyperparameters.size();e<maxEpisodes && n>1;e*=eta, n=(n+eta-1)/eta)
+			rungCount++;
+
+		//The scenarios of all the episodes, read once
+		ScenarioCache scenarioCache=new ScenarioCache(new File(ParallelRunner.OUTPUT_DIR, ScenarioCache.DEFAULT_DIR),
+				ScenarioCache.DEFAULT_CAPACITY);
+		ScenarioStream[] scenarios=new ScenarioStream[maxEpisodes];
+		for(int i=0;i<maxEpisodes;i++)
+			scenarios[i]=scenarioCache.getScenario(ScenarioCache.getEpisodeSeed(seed, i),
+					Building.DEFAULT.getFloorCount(), World.EPISODE_SIZE);
+		log.info(scenarioCache);
+
+		threads=Math.max(1, Math.min(threads, hyperparameters.size()));
+		log.info("Sweeping "+hyperparameters.size()+" candidates, in up to "+rungCount+" rungs of "+rungEpisodes+
+				"*"+eta+"^r episodes (at most "+maxEpisodes+"), on "+threads+" threads");
+		OUTPUT_DIR.mkdirs();
+		ResultsStore store=new ResultsStore(new File(OUTPUT_DIR, "results.bin"), World.RESULT_COLUMNS);
+		ArrayList<Candidate> all=new ArrayList<Candidate>();
+		for(int i=0;i<hyperparameters.size();i++)
+		{
+			Candidate candidate=new Candidate(i, hyperparameters.get(i), scenarios, rungCount);
+			candidate.initialize(seed, store);
+			all.add(candidate);
+			log.info("Candidate "+i+": "+hyperparameters.get(i));
+		}
+
+		//Successive halving
+		ExecutorService pool=Executors.newFixedThreadPool(threads);
+		ArrayList<Candidate> survivors=new ArrayList<Candidate>(all);
+		ArrayList<Candidate> dropped=new ArrayList<Candidate>();
+		Comparator<Candidate> byMetric=new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate c1, Candidate c2) {
+				return Double.compare(c1.getMetric(), c2.getMetric());
+			}
+		};
+		try {
+			int targetEpisodes=rungEpisodes;
+			for(int rung=0;rung<rungCount;rung++)
+			{
+				ArrayList<Future<Double>> results=new ArrayList<Future<Double>>(survivors.size());
+				for(Candidate candidate:survivors)
+				{
+					candidate.targetEpisodes=targetEpisodes;
+					results.add(pool.submit(candidate));
+				}
+				for(Future<Double> result:results)
+					result.get();
+
+				Collections.sort(survivors, byMetric);
+				int keep=rung==rungCount-1?survivors.size():(survivors.size()+eta-1)/eta;
+				log.info("Rung "+rung+" ("+targetEpisodes+" episodes): best "+survivors.get(0).id+" with "+
+						String.format("%.3f", survivors.get(0).getMetric())+", keeping "+keep+" of "+survivors.size());
+				//The dropped candidates of a later rung go before those of the earlier ones
+				for(int i=survivors.size()-1;i>=keep;i--)
+				{
+					Candidate candidate=survivors.remove(i);
+					candidate.release();
+					dropped.add(0, candidate);
+				}
+				targetEpisodes=(int) Math.min(maxEpisodes, (long) targetEpisodes*eta);
+			}
+		} finally {
+			//Also when a candidate failed, so that the threads do not keep the JVM alive
+			pool.shutdown();
+			store.close();
+		}
+		for(Candidate candidate:survivors)
+			candidate.release();
+
+		//The ranking: the survivors, then the dropped candidates, by the last rung they reached
+		ArrayList<Candidate> ranking=new ArrayList<Candidate>(survivors);
+		ranking.addAll(dropped);
+		writeSummary(ranking, rungCount);
+		log.info("Best hyperparameters: "+ranking.get(0).hyperparameters);
+	}
+}
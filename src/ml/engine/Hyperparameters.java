@@ -0,0 +1,145 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+/**
+ * The Class Hyperparameters that holds the learning parameters of a learner: the learning factor, the
+ * attenuation (discount) factor, and the initial exploration rate, that is annealed on each step by the
+ * annealing factor, down to half of its initial value. The instances are immutable, so they can be
+ * shared between learners.
+ */
+public class Hyperparameters {
+
+	/** The Constant DEFAULT hyperparameters of the tabular engine. */
+	public static final Hyperparameters DEFAULT=new Hyperparameters(Engine.LEARNING_FACTOR,
+			Engine.ATTENUATION_FACTOR, Engine.ACTION_EPSILON, Engine.ANNEALING_FACTOR);
+
+	/** The learning factor. */
+	private final double learningFactor;
+
+	/** The attenuation factor. */
+	private final double attenuationFactor;
+
+	/** The initial exploration rate. */
+	private final double actionEpsilon;
+
+	/** The annealing factor. */
+	private final double annealingFactor;
+
+	/**
+	 * Instantiates new hyperparameters.
+	 *
+	 * @param learningFactor the learning factor, in (0, 1]
+	 * @param attenuationFactor the attenuation factor, in [0, 1)
+	 * @param actionEpsilon the initial exploration rate, in [0, 1]
+	 * @param annealingFactor the annealing factor, in [0, 1)
+	 */
+	public Hyperparameters(double learningFactor, double attenuationFactor, double actionEpsilon,
+			double annealingFactor) {
+		super();
+		if(!(learningFactor>0 && learningFactor<=1))
+			throw new IllegalArgumentException("The learning factor must be in (0, 1]: "+learningFactor);
+		if(!(attenuationFactor>=0 && attenuationFactor<1))
+			throw new IllegalArgumentException("The attenuation factor must be in [0, 1): "+attenuationFactor);
+		if(!(actionEpsilon>=0 && actionEpsilon<=1))
+			throw new IllegalArgumentException("The exploration rate must be in [0, 1]: "+actionEpsilon);
+		if(!(annealingFactor>=0 && annealingFactor<1))
+			throw new IllegalArgumentException("The annealing factor must be in [0, 1): "+annealingFactor);
+		this.learningFactor=learningFactor;
+		this.attenuationFactor=attenuationFactor;
+		this.actionEpsilon=actionEpsilon;
+		this.annealingFactor=annealingFactor;
+	}
+
+	/**
+	 * Gets the learning factor.
+	 *
+	 * @return the learning factor
+	 */
+	public double getLearningFactor() {
+		return learningFactor;
+	}
+
+	/**
+	 * Gets the attenuation factor.
+	 *
+	 * @return the attenuation factor
+	 */
+	public double getAttenuationFactor() {
+		return attenuationFactor;
+	}
+
+	/**
+	 * Gets the initial exploration rate.
+	 *
+	 * @return the action epsilon
+	 */
+	public double getActionEpsilon() {
+		return actionEpsilon;
+	}
+
+	/**
+	 * Gets the annealing factor.
+	 *
+	 * @return the annealing factor
+	 */
+	public double getAnnealingFactor() {
+		return annealingFactor;
+	}
+
+	/**
+	 * Anneals an exploration rate for one step: it decreases by the annealing factor, while it is above
+	 * half of the initial exploration rate.
+	 *
+	 * @param epsilon the exploration rate
+	 * @return the annealed exploration rate
+	 */
+	public double anneal(double epsilon)
+	{
+		if(epsilon>actionEpsilon/2)
+			epsilon-=epsilon*annealingFactor;
+		return epsilon;
+	}
+
+	/**
+	 * Anneals an exploration rate over a number of steps, with the same result as annealing it on each
+	 * step.
+	 *
+	 * @param epsilon the exploration rate
+	 * @param steps the number of steps
+	 * @return the annealed exploration rate
+	 */
+	public double anneal(double epsilon, int steps)
+	{
+		if(epsilon<=actionEpsilon/2 || annealingFactor==0)
+			return epsilon;
+		//The number of steps after which the rate is no longer above the floor
+		double needed=Math.ceil(Math.log(actionEpsilon/2/epsilon)/Math.log(1-annealingFactor));
+		return epsilon*Math.pow(1-annealingFactor, Math.min(steps, needed));
+	}
+
+	/**
+	 * Gets the discount of the value of a state reached after a number of steps.
+	 *
+	 * @param steps the number of steps
+	 * @return the discount
+	 */
+	public double getDiscount(int steps)
+	{
+		return steps==1?attenuationFactor:Math.pow(attenuationFactor, steps);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("learning=%.4g attenuation=%.4g epsilon=%.4g annealing=%.4g", learningFactor,
+				attenuationFactor, actionEpsilon, annealingFactor);
+	}
+}
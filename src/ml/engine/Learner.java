@@ -0,0 +1,61 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+/**
+ * The Interface Learner that runs SARSA episodes in a world. The tabular {@link Engine} and the
+ * {@link LinearEngine} are learners; {@link Engine#createLearner(World, State)} chooses between
+ * them from the size of the building.
+ */
+public interface Learner {
+
+	/**
+	 * Runs an episode, until the scenario of the world is finished.
+	 */
+	public void run();
+
+	/**
+	 * Gets the number of steps performed by the learner.
+	 *
+	 * @return the time
+	 */
+	public int getTime();
+
+	/**
+	 * Logs the statistics of the learner.
+	 */
+	public void logStatistics();
+
+	/**
+	 * Sets the monitor that tracks the progress of the learning and stops the episodes on a plateau.
+	 *
+	 * @param convergence the convergence monitor, or null to run the episodes to the end
+	 */
+	public void setConvergenceMonitor(ConvergenceMonitor convergence);
+
+	/**
+	 * Sets whether the idle periods of the world, with no passenger in the system, are skipped in a
+	 * single macro-transition (see {@link World#fastForward(State)}).
+	 *
+	 * @param fastForward true, to skip the idle periods
+	 */
+	public void setFastForward(boolean fastForward);
+
+	/**
+	 * Gets the number of steps skipped in idle periods. They are included in {@link #getTime()}.
+	 *
+	 * @return the skipped steps
+	 */
+	public long getSkippedSteps();
+
+	/**
+	 * Closes the learner, once its training is finished: its metrics are unregistered from the
+	 * {@link ml.metrics.TrainingMetrics} of the process.
+	 */
+	public void close();
+}
@@ -0,0 +1,175 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.util.SplittableRandom;
+
+import ml.metrics.TrainingMetrics;
+
+/**
+ * The Class LinearEngine that learns with the same SARSA loop as the {@link Engine}, but keeps Q as a
+ * {@link LinearQFunction} over tile coded features instead of a table. Its memory is fixed by the size
+ * of the weight vector, and a step touches only the active features, so it can learn in buildings of
+ * any size, whose Q tables would not fit in the memory.
+ */
+public class LinearEngine extends SarsaLearner {
+
+	/** The Constant LEARNING_FACTOR. It is smaller than the one of the tabular engine, as an update
+	 * also moves the values of the states that share features. */
+	public static final double LEARNING_FACTOR=0.4;
+
+	/** The Constant DEFAULT_HYPERPARAMETERS, those of the tabular engine with a smaller learning factor. */
+	public static final Hyperparameters DEFAULT_HYPERPARAMETERS=new Hyperparameters(LEARNING_FACTOR,
+			Engine.ATTENUATION_FACTOR, Engine.ACTION_EPSILON, Engine.ANNEALING_FACTOR);
+
+	/** The annealed exploration rate. */
+	private double epsilon;
+
+	/** The Q function. */
+	private LinearQFunction Q;
+
+	/** The tile coder. */
+	private TileCoder coder;
+
+	/** The tiles of the current state. */
+	private int[] currentTiles;
+
+	/** The tiles of the next state. Swapped with the current tiles, like the states. */
+	private int[] newTiles;
+
+	/**
+	 * Instantiates a new linear engine, with 2^{@link LinearQFunction#DEFAULT_WEIGHT_BITS} weights.
+	 *
+	 * @param world the world
+	 * @param startState the start state
+	 */
+	public LinearEngine(World world, State startState) {
+		this(world, startState, new LinearQFunction(new TileCoder(world.getBuilding())), new SplittableRandom(),
+				DEFAULT_HYPERPARAMETERS);
+	}
+
+	/**
+	 * Instantiates a new linear engine.
+	 *
+	 * @param world the world
+	 * @param startState the start state
+	 * @param Q the Q function, for the building of the world
+	 * @param rand the random number generator used for exploration
+	 * @param hyperparameters the hyperparameters
+	 */
+	public LinearEngine(World world, State startState, LinearQFunction Q, SplittableRandom rand, Hyperparameters hyperparameters) {
+		super(world, startState, rand, hyperparameters);
+		if(Q.getCoder().getBuilding()!=world.getBuilding())
+			throw new IllegalArgumentException("The Q function is not for the building of the world");
+		this.Q=Q;
+		this.coder=Q.getCoder();
+
+		this.epsilon=hyperparameters.getActionEpsilon();
+		this.currentTiles=new int[coder.getTileCount()];
+		this.newTiles=new int[coder.getTileCount()];
+		//The function is not a table, so the metrics report no visited states for it
+		this.metrics=TrainingMetrics.getInstance().register(world.getName()==null?"engine":world.getName(), null,
+				world.getBuilding().getFloorCount());
+		log.info("Linear engine initialized for "+world.getBuilding()+", with "+Q.getWeightCount()+
+				" weights ("+(Q.getMemoryEstimate()>>20)+" MB) instead of "+
+				String.format("%.3g", world.getBuilding().getStateSpaceSize())+" states x "+
+				world.getBuilding().getActionCount()+" actions");
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.SarsaLearner#getEpsilon()
+	 */
+	@Override
+	protected double getEpsilon() {
+		return epsilon;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.SarsaLearner#setEpsilon(double)
+	 */
+	@Override
+	protected void setEpsilon(double epsilon) {
+		this.epsilon=epsilon;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.SarsaLearner#chooseAction(ml.engine.State, boolean)
+	 */
+	@Override
+	protected int chooseAction(State state, boolean next)
+	{
+		//The tiles of the state are computed once, when its action is chosen, and reused by the updates
+		int[] tiles=next?newTiles:currentTiles;
+		coder.getTiles(state, previousAction, tiles);
+		return getNextAction(state, tiles, previousAction, prevPreviousAction);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.SarsaLearner#update(ml.engine.State, int, double, ml.engine.State, int, double)
+	 */
+	@Override
+	protected double update(State state, int action, double reward, State newState, int newAction, double discount)
+	{
+		//Q(s,a) += learningFactor * (r + discount * Q(s',a') - Q(s,a)), over the tiles of the states
+		double change=hyperparameters.getLearningFactor()*(reward+discount*Q.getQValue(newTiles, newAction)-
+				Q.getQValue(currentTiles, action));
+		Q.update(currentTiles, action, change);
+		return change;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.SarsaLearner#stepFinished()
+	 */
+	@Override
+	protected void stepFinished()
+	{
+		int[] swap=currentTiles;
+		currentTiles=newTiles;
+		newTiles=swap;
+	}
+
+	/**
+	 * Gets the next action. Uses epsilon-greedy.
+	 *
+	 * @param state the state
+	 * @param tiles the tiles of the state
+	 * @param previousAction the previous action
+	 * @param prevPreviousAction the prev previous action
+	 * @return the next action
+	 */
+	private int getNextAction(State state, int[] tiles, int previousAction, int prevPreviousAction)
+	{
+		//Explore - Pick a random action
+		if(rand.nextDouble()<epsilon)
+		{
+			exploreCount++;
+			return World.getRandomAction(state, previousAction, prevPreviousAction, rand);
+		}
+		//Exploit - Get the BEST action
+		exploitCount++;
+		return Q.getBestAction(state, tiles, previousAction, prevPreviousAction);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.Learner#logStatistics()
+	 */
+	@Override
+	public void logStatistics()
+	{
+		log.info("Weights used: "+Q.getUsedWeightCount()+" of "+Q.getWeightCount());
+	}
+
+	/**
+	 * Gets the Q function.
+	 *
+	 * @return the Q function
+	 */
+	public LinearQFunction getQ() {
+		return Q;
+	}
+}
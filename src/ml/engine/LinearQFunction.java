@@ -0,0 +1,206 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+/**
+ * The Class LinearQFunction that approximates the Q values as a linear function of sparse binary
+ * features: Q(s,a) is the sum of the weights of the features active for the state s and the joint
+ * action a. A feature is a tile of the state ({@link TileCoder}) combined with the action of the car
+ * the tile belongs to, hashed in a weight vector of fixed size, so the memory does not depend on the
+ * size of the building.
+ * <p>
+ * As every feature depends on the action of a single car, Q(s,a) is a sum over the cars, and the best
+ * joint action is made of the best action of each car. It is found in CAR_ACTION_COUNT steps per car,
+ * instead of enumerating the joint actions.
+ */
+public class LinearQFunction {
+
+	/** The Constant DEFAULT_WEIGHT_BITS that defines the default size of the weight vector (8 MB). */
+	public static final int DEFAULT_WEIGHT_BITS=20;
+
+	/** The tile coder. */
+	private TileCoder coder;
+
+	/** The weights. */
+	private double[] weights;
+
+	/** The mask of the indexes in the weights. */
+	private int mask;
+
+	/**
+	 * Instantiates a new linear Q function, with 2^DEFAULT_WEIGHT_BITS weights.
+	 *
+	 * @param coder the tile coder
+	 */
+	public LinearQFunction(TileCoder coder) {
+		this(coder, DEFAULT_WEIGHT_BITS);
+	}
+
+	/**
+	 * Instantiates a new linear Q function.
+	 *
+	 * @param coder the tile coder
+	 * @param weightBits the log2 of the number of weights
+	 */
+	public LinearQFunction(TileCoder coder, int weightBits) {
+		super();
+		if(weightBits<1 || weightBits>30)
+			throw new IllegalArgumentException("The weight bits must be between 1 and 30: "+weightBits);
+		this.coder=coder;
+		this.weights=new double[1<<weightBits];
+		this.mask=weights.length-1;
+	}
+
+	/**
+	 * Gets the tile coder.
+	 *
+	 * @return the coder
+	 */
+	public TileCoder getCoder() {
+		return coder;
+	}
+
+	/**
+	 * Gets the index of the weight of a tile combined with the action of its car. The index is
+	 * scrambled with the finalizer of MurmurHash3, so close tiles do not collide.
+	 *
+	 * @param tile the tile
+	 * @param carAction the action of the car
+	 * @return the feature
+	 */
+	private int getFeature(int tile, int carAction)
+	{
+		int h=tile*Action.CAR_ACTION_COUNT+carAction;
+		h^=h>>>16;
+		h*=0x85ebca6b;
+		h^=h>>>13;
+		h*=0xc2b2ae35;
+		h^=h>>>16;
+		return h & mask;
+	}
+
+	/**
+	 * Gets the part of the Q value that depends on the action of a car.
+	 *
+	 * @param tiles the tiles of the state
+	 * @param car the car
+	 * @param carAction the action of the car
+	 * @return the value
+	 */
+	private double getCarValue(int[] tiles, int car, int carAction)
+	{
+		double value=0;
+		for(int i=car*TileCoder.TILING_COUNT, end=i+TileCoder.TILING_COUNT;i<end;i++)
+			value+=weights[getFeature(tiles[i], carAction)];
+		return value;
+	}
+
+	/**
+	 * Gets the Q value of a state and a joint action.
+	 *
+	 * @param tiles the tiles of the state
+	 * @param action the joint action
+	 * @return the Q value
+	 */
+	public double getQValue(int[] tiles, int action)
+	{
+		double value=0;
+		for(int car=coder.getBuilding().getCarCount()-1;car>=0;car--)
+		{
+			value+=getCarValue(tiles, car, action%Action.CAR_ACTION_COUNT);
+			action/=Action.CAR_ACTION_COUNT;
+		}
+		return value;
+	}
+
+	/**
+	 * Moves the Q value of a state and a joint action by a given amount, by spreading it evenly over
+	 * the weights of the active features. Only the active features are touched.
+	 *
+	 * @param tiles the tiles of the state
+	 * @param action the joint action
+	 * @param change the change of the Q value
+	 */
+	public void update(int[] tiles, int action, double change)
+	{
+		double step=change/coder.getTileCount();
+		for(int car=coder.getBuilding().getCarCount()-1;car>=0;car--)
+		{
+			int carAction=action%Action.CAR_ACTION_COUNT;
+			for(int i=car*TileCoder.TILING_COUNT, end=i+TileCoder.TILING_COUNT;i<end;i++)
+				weights[getFeature(tiles[i], carAction)]+=step;
+			action/=Action.CAR_ACTION_COUNT;
+		}
+	}
+
+	/**
+	 * Gets the joint action with the largest Q value in a state, among the possible actions. On ties,
+	 * the lowest action of each car is chosen.
+	 *
+	 * @param state the state
+	 * @param tiles the tiles of the state
+	 * @param previousAction the previous action
+	 * @param prevPreviousAction the prev previous action
+	 * @return the best action
+	 */
+	public int getBestAction(State state, int[] tiles, int previousAction, int prevPreviousAction)
+	{
+		Building building=coder.getBuilding();
+		int action=0;
+		for(int car=0;car<building.getCarCount();car++)
+		{
+			int carMask=World.getPossibleCarActions(state, car, previousAction, prevPreviousAction);
+			int bestAction=Integer.numberOfTrailingZeros(carMask);
+			double bestValue=-Double.MAX_VALUE;
+			for(int m=carMask;m!=0;m&=m-1)
+			{
+				int carAction=Integer.numberOfTrailingZeros(m);
+				double value=getCarValue(tiles, car, carAction);
+				if(bestValue<value)
+				{
+					bestValue=value;
+					bestAction=carAction;
+				}
+			}
+			action=Action.combineCarAction(action, car, bestAction, building);
+		}
+		return action;
+	}
+
+	/**
+	 * Gets the number of weights.
+	 *
+	 * @return the weight count
+	 */
+	public int getWeightCount() {
+		return weights.length;
+	}
+
+	/**
+	 * Gets the number of weights that are not 0, which were touched by the updates.
+	 *
+	 * @return the used weight count
+	 */
+	public int getUsedWeightCount()
+	{
+		int count=0;
+		for(int i=0;i<weights.length;i++)
+			if(weights[i]!=0)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Estimates the heap memory used by the function, in bytes.
+	 *
+	 * @return the memory estimate
+	 */
+	public long getMemoryEstimate() {
+		return 16+8L*weights.length;
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * The Class MappedQTable that reads the Q values directly from a memory mapped checkpoint file,
+ * written by {@link QTableCheckpoint}. Opening the table only maps the file, so no values are
+ * copied. The visited states are fixed: values can be changed only for visited states, and only
+ * if the table was opened for writing.
+ */
+public class MappedQTable implements QTable {
+	
+	/** The visited states, as a bitset indexed by the state index. */
+	private LongBuffer visited;
+	
+	/** The number of visited states before each word of the visited bitset. */
+	private IntBuffer ranks;
+	
+	/** The rows of values, split in chunks, as a single mapping is limited to 2GB. */
+	private ByteBuffer[] chunks;
+	
+	/** The number of rows in a chunk. */
+	private int rowsPerChunk;
+	
+	/** The number of visited states. */
+	private int size;
+	
+	/** The file size. */
+	private long fileSize;
+
+	/**
+	 * Opens a checkpoint file as a Q table.
+	 *
+	 * @param file the checkpoint file
+	 * @param writable whether the values can be changed (and written back to the file)
+	 * @throws IOException Signals that an I/O exception has occurred, or that the file is not a 
+	 * valid checkpoint for the current state encoding.
+	 */
+	public MappedQTable(File file, boolean writable) throws IOException {
+		super();
+		RandomAccessFile raf=new RandomAccessFile(file, writable?"rw":"r");
+		try {
+			FileChannel channel=raf.getChannel();
+			MapMode mode=writable?MapMode.READ_WRITE:MapMode.READ_ONLY;
+			fileSize=channel.size();
+			
+			//Header
+			ByteBuffer header=channel.map(MapMode.READ_ONLY, 0, QTableCheckpoint.HEADER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			int words=QTableCheckpoint.checkHeader(header);
+			size=header.getInt(QTableCheckpoint.ROW_COUNT_OFFSET);
+			
+			//Visited states and ranks
+			long offset=QTableCheckpoint.HEADER_SIZE;
+			visited=channel.map(MapMode.READ_ONLY, offset, (long)words*8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			offset+=(long)words*8;
+			ranks=channel.map(MapMode.READ_ONLY, offset, (long)words*4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			offset+=(long)words*4;
+			
+			//Rows
+			rowsPerChunk=Integer.MAX_VALUE/QTableCheckpoint.ROW_SIZE;
+			chunks=new ByteBuffer[(size+rowsPerChunk-1)/rowsPerChunk];
+			for(int i=0;i<chunks.length;i++)
+			{
+				int rows=Math.min(rowsPerChunk, size-i*rowsPerChunk);
+				chunks[i]=channel.map(mode, offset, (long)rows*QTableCheckpoint.ROW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				offset+=(long)rows*QTableCheckpoint.ROW_SIZE;
+			}
+			if(offset!=fileSize)
+				throw new IOException("Invalid checkpoint size: "+fileSize+" instead of "+offset);
+		} finally {
+			//The mappings remain valid after the channel is closed
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Checks if the state with the given index was visited.
+	 *
+	 * @param index the state index
+	 * @return true, if visited
+	 */
+	public boolean isVisited(int index)
+	{
+		return (visited.get(index>>>6) & (1L << index)) != 0;
+	}
+	
+	/**
+	 * Gets the row of a visited state.
+	 *
+	 * @param index the state index
+	 * @return the row
+	 */
+	private int getRow(int index)
+	{
+		int word=index>>>6;
+		return ranks.get(word)+Long.bitCount(visited.get(word) & ((1L << index)-1));
+	}
+	
+	/**
+	 * Gets the Q value corresponding to a state index and an action.
+	 *
+	 * @param index the state index
+	 * @param action the action
+	 * @return the Q value
+	 */
+	public double getQValue(int index, int action)
+	{
+		if(!isVisited(index))
+			return 0;
+		int row=getRow(index);
+		return chunks[row/rowsPerChunk].getDouble((row%rowsPerChunk)*QTableCheckpoint.ROW_SIZE+action*8);
+	}
+	
+	/**
+	 * Sets the Q value corresponding to a visited state index and an action.
+	 *
+	 * @param index the state index
+	 * @param action the action
+	 * @param val the value
+	 */
+	public void setQValue(int index, int action, double val)
+	{
+		if(!isVisited(index))
+			throw new UnsupportedOperationException("States cannot be added to a mapped Q table.");
+		int row=getRow(index);
+		chunks[row/rowsPerChunk].putDouble((row%rowsPerChunk)*QTableCheckpoint.ROW_SIZE+action*8, val);
+	}
+
+	/**
+	 * Gets the action with the largest Q value in a state, among the actions set in an action mask.
+	 *
+	 * @param index the state index
+	 * @param mask the action mask
+	 * @return the best action
+	 */
+	public int getBestAction(int index, int mask)
+	{
+		int maxAction=Integer.numberOfTrailingZeros(mask);
+		if(!isVisited(index))
+			return maxAction;
+		int row=getRow(index);
+		ByteBuffer chunk=chunks[row/rowsPerChunk];
+		int offset=(row%rowsPerChunk)*QTableCheckpoint.ROW_SIZE;
+		double maxQ=-Double.MAX_VALUE;
+		for(int m=mask;m!=0;m&=m-1)
+		{
+			int action=Integer.numberOfTrailingZeros(m);
+			double val=chunk.getDouble(offset+action*8);
+			if(maxQ<val)
+			{
+				maxQ=val;
+				maxAction=action;
+			}
+		}
+		return maxAction;
+	}
+	
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getBestAction(ml.engine.State, int)
+	 */
+	@Override
+	public int getBestAction(State state, int mask)
+	{
+		return getBestAction(state.getIndex(), mask);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getQValue(ml.engine.State, int)
+	 */
+	@Override
+	public double getQValue(State state, int action)
+	{
+		return getQValue(state.getIndex(), action);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#setQValue(ml.engine.State, int, double)
+	 */
+	@Override
+	public void setQValue(State state, int action, double val)
+	{
+		setQValue(state.getIndex(), action, val);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#isVisited(ml.engine.State)
+	 */
+	@Override
+	public boolean isVisited(State state)
+	{
+		return isVisited(state.getIndex());
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#size()
+	 */
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getMemoryEstimate()
+	 */
+	@Override
+	public long getMemoryEstimate()
+	{
+		//The values are not on the heap, but in the page cache
+		return fileSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getVisitedStates()
+	 */
+	@Override
+	public State[] getVisitedStates()
+	{
+		State[] states=new State[size];
+		int count=0;
+		for(int i=0;i<State.STATE_SPACE_SIZE;i++)
+			if(isVisited(i))
+				states[count++]=State.fromIndex(i);
+		return states;
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ml.metrics.ResultsStore;
+import ml.scenario.ScenarioCache;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.FileAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class ParallelRunner that trains independent {@link World} and {@link Engine} pairs, one for
+ * each random seed, on a pool of worker threads. Each pair has its own random number generators, split
+ * from a generator seeded with its seed, so a seed gives the same results at any thread count, and
+ * its own log file and its own output directory ({@code runs/seed_<seed>}). The scenarios of each seed
+ * are read from a shared {@link ScenarioCache} ({@code runs/scenarios}), so a seed can be run again on
+ * the same scenarios. The learning curves of the episodes of all the seeds are appended to a shared
+ * {@link ResultsStore} ({@code runs/results.bin}), and at the end they are aggregated.
+ * <p>
+ * Usage: ParallelRunner seedCount [episodeCount] [firstSeed]
+ */
+public class ParallelRunner {
+	
+	/** The Constant OUTPUT_DIR that defines the directory in which the runs are written. */
+	static final String OUTPUT_DIR="runs";
+	
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(ParallelRunner.class);
+	
+	/**
+	 * Configure logger.
+	 */
+	private static void configureLogger()
+	{
+		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+		ConsoleAppender appender=new ConsoleAppender(patternLayout);
+		log.addAppender(appender);
+		log.setLevel(Level.INFO);		
+	}
+	
+	/**
+	 * Redirects the output of a logger to a file.
+	 *
+	 * @param logger the logger
+	 * @param file the file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static void redirectLogger(Logger logger, File file) throws IOException
+	{
+		logger.addAppender(new FileAppender(new PatternLayout("%-3r [%-5p] %c - %m%n"), file.getPath()));
+		logger.setAdditivity(false);
+	}
+	
+	/**
+	 * The Class SeedRun that trains a world and an engine with a given seed.
+	 */
+	private static class SeedRun implements Callable<double[]> {
+		
+		/** The seed. */
+		private long seed;
+		
+		/** The episode count. */
+		private int episodeCount;
+		
+		/** The scenario cache. */
+		private ScenarioCache scenarioCache;
+		
+		/** The results store. */
+		private ResultsStore results;
+		
+		/**
+		 * Instantiates a new seed run.
+		 *
+		 * @param seed the seed
+		 * @param episodeCount the episode count
+		 * @param scenarioCache the scenario cache
+		 * @param results the results store
+		 */
+		public SeedRun(long seed, int episodeCount, ScenarioCache scenarioCache, ResultsStore results) {
+			super();
+			this.seed=seed;
+			this.episodeCount=episodeCount;
+			this.scenarioCache=scenarioCache;
+			this.results=results;
+		}
+
+		/**
+		 * Runs the training. 
+		 *
+		 * @return the learning curve: the last monthly average delay of each episode
+		 * @throws Exception the exception
+		 */
+		@Override
+		public double[] call() throws Exception {
+			String name="seed"+seed;
+			File outputDir=new File(OUTPUT_DIR, "seed_"+seed);
+			outputDir.mkdirs();
+			File logFile=new File(outputDir, "log");
+			redirectLogger(Logger.getLogger(World.class.getName()+"."+name), logFile);
+			redirectLogger(Logger.getLogger(Engine.class.getName()+"."+name), logFile);
+			
+			SplittableRandom master=new SplittableRandom(seed);
+			World world=new World(name, outputDir, master.split());
+			world.setScenarioCache(scenarioCache, seed);
+			world.setResultsStore(results);
+			Engine engine=new Engine(world, world.generateStartState(), new DenseQTable(), master.split());
+			
+			double[] curve=new double[episodeCount];
+			try {
+				for(int i=0;i<episodeCount;i++)
+				{
+					world.resetEpisode();
+					engine.run();
+					engine.logStatistics();
+					world.logStatistics();
+					double[] monthlyAverage=world.getMonthlyAverage();
+					curve[i]=monthlyAverage[monthlyAverage.length-1];
+				}
+			} finally {
+				engine.close();
+			}
+			log.info("Seed "+seed+" finished. Final average delay: "+curve[episodeCount-1]);
+			return curve;
+		}
+	}
+	
+	/**
+	 * Writes the learning curves of all the seeds, together with their mean and standard deviation
+	 * for each episode, as an octave script.
+	 *
+	 * @param curves the learning curves
+	 * @param mean the mean
+	 * @param std the standard deviation
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writeCurves(double[][] curves, double[] mean, double[] std) throws IOException
+	{
+		BufferedWriter out=new BufferedWriter(new FileWriter(new File(OUTPUT_DIR, "learning_curves")));
+		out.write("x=[1:"+mean.length+"];\n");
+		out.write("curves=[");
+		for(double[] curve:curves)
+			out.write(Arrays.toString(curve)+";\n");
+		out.write("];\n");
+		out.write("m="+Arrays.toString(mean)+";\n");
+		out.write("s="+Arrays.toString(std)+";\n");
+		out.write("errorbar(x,m,s);");
+		out.close();
+	}
+	
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 * @throws InterruptedException the interrupted exception
+	 * @throws ExecutionException the execution exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException, IOException
+	{
+		configureLogger();
+		if(args.length<1)
+		{
+			log.error("Usage: ParallelRunner seedCount [episodeCount] [firstSeed]");
+			return;
+		}
+		int seedCount=Integer.parseInt(args[0]);
+		int episodeCount=args.length>1?Integer.parseInt(args[1]):World.EPISODE_COUNT;
+		long firstSeed=args.length>2?Long.parseLong(args[2]):1;
+		int threads=Math.min(seedCount, Runtime.getRuntime().availableProcessors());
+		log.info("Training "+seedCount+" seeds for "+episodeCount+" episodes on "+threads+" threads");
+		
+		//Start the runs
+		ExecutorService pool=Executors.newFixedThreadPool(threads);
+		ScenarioCache scenarioCache=new ScenarioCache(new File(OUTPUT_DIR, ScenarioCache.DEFAULT_DIR),
+				ScenarioCache.DEFAULT_CAPACITY);
+		ResultsStore store=new ResultsStore(new File(OUTPUT_DIR, "results.bin"), World.RESULT_COLUMNS);
+		ArrayList<Future<double[]>> results=new ArrayList<Future<double[]>>(seedCount);
+		for(int i=0;i<seedCount;i++)
+			results.add(pool.submit(new SeedRun(firstSeed+i, episodeCount, scenarioCache, store)));
+		
+		//Aggregate the learning curves
+		double[][] curves=new double[seedCount][];
+		try {
+			for(int i=0;i<seedCount;i++)
+				curves[i]=results.get(i).get();
+		} finally {
+			//Also when a run failed, so that the threads do not keep the JVM alive
+			pool.shutdown();
+			store.close();
+		}
+		log.info(scenarioCache);
+		
+		double[] mean=new double[episodeCount];
+		double[] std=new double[episodeCount];
+		for(int e=0;e<episodeCount;e++)
+		{
+			for(int i=0;i<seedCount;i++)
+				mean[e]+=curves[i][e]/seedCount;
+			for(int i=0;i<seedCount;i++)
+				std[e]+=(curves[i][e]-mean[e])*(curves[i][e]-mean[e])/seedCount;
+			std[e]=Math.sqrt(std[e]);
+			log.info("Episode "+e+": average delay "+String.format("%.3f", mean[e])+" +- "+String.format("%.3f", std[e]));
+		}
+		writeCurves(curves, mean, std);
+	}
+}
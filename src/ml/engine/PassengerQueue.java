@@ -0,0 +1,152 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+/**
+ * The Class PassengerQueue that keeps the passengers waiting on a floor in a ring buffer of ints.
+ * Each passenger is stored as a record of RECORD_SIZE ints: the show up time and the packed start
+ * and stop floors. The capacity doubles when the buffer is full.
+ */
+public class PassengerQueue {
+	
+	/** The Constant RECORD_SIZE that defines the number of ints per passenger. */
+	private static final int RECORD_SIZE=2;
+	
+	/** The Constant INITIAL_CAPACITY that defines the initial number of passengers. Must be a power of 2. */
+	private static final int INITIAL_CAPACITY=16;
+	
+	/** The Constant FLOOR_BITS that defines the number of bits used for a floor in a record. */
+	private static final int FLOOR_BITS=16;
+	
+	/** The Constant FLOOR_MASK. */
+	private static final int FLOOR_MASK=(1<<FLOOR_BITS)-1;
+	
+	/** The records. */
+	private int[] buffer;
+	
+	/** The position of the first passenger. */
+	private int head;
+	
+	/** The number of passengers. */
+	private int size;
+	
+	/**
+	 * Instantiates a new passenger queue.
+	 */
+	public PassengerQueue() {
+		super();
+		buffer=new int[INITIAL_CAPACITY*RECORD_SIZE];
+		head=0;
+		size=0;
+	}
+	
+	/**
+	 * Gets the position in the buffer of the i-th passenger.
+	 *
+	 * @param i the number of the passenger, from the head of the queue
+	 * @return the position
+	 */
+	private int position(int i)
+	{
+		return ((head+i)&(buffer.length/RECORD_SIZE-1))*RECORD_SIZE;
+	}
+	
+	/**
+	 * Adds a passenger at the end of the queue.
+	 *
+	 * @param time the show up time
+	 * @param startFloor the start floor
+	 * @param stopFloor the stop floor
+	 */
+	public void add(int time, int startFloor, int stopFloor)
+	{
+		if(size*RECORD_SIZE==buffer.length)
+			grow();
+		int pos=position(size);
+		buffer[pos]=time;
+		buffer[pos+1]=(startFloor<<FLOOR_BITS)|stopFloor;
+		size++;
+	}
+	
+	/**
+	 * Doubles the capacity, moving the passengers at the beginning of the buffer.
+	 */
+	private void grow()
+	{
+		int[] newBuffer=new int[buffer.length*2];
+		for(int i=0;i<size;i++)
+		{
+			int pos=position(i);
+			newBuffer[i*RECORD_SIZE]=buffer[pos];
+			newBuffer[i*RECORD_SIZE+1]=buffer[pos+1];
+		}
+		buffer=newBuffer;
+		head=0;
+	}
+	
+	/**
+	 * Removes the first passenger.
+	 */
+	public void removeFirst()
+	{
+		head=(head+1)&(buffer.length/RECORD_SIZE-1);
+		size--;
+	}
+	
+	/**
+	 * Gets the show up time of the i-th passenger.
+	 *
+	 * @param i the number of the passenger, from the head of the queue
+	 * @return the time
+	 */
+	public int getTime(int i)
+	{
+		return buffer[position(i)];
+	}
+	
+	/**
+	 * Gets the start floor of the i-th passenger.
+	 *
+	 * @param i the number of the passenger, from the head of the queue
+	 * @return the start floor
+	 */
+	public int getStartFloor(int i)
+	{
+		return buffer[position(i)+1]>>>FLOOR_BITS;
+	}
+	
+	/**
+	 * Gets the stop floor of the i-th passenger.
+	 *
+	 * @param i the number of the passenger, from the head of the queue
+	 * @return the stop floor
+	 */
+	public int getStopFloor(int i)
+	{
+		return buffer[position(i)+1]&FLOOR_MASK;
+	}
+	
+	/**
+	 * Gets the number of passengers.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Removes all the passengers.
+	 */
+	public void clear()
+	{
+		head=0;
+		size=0;
+	}
+}
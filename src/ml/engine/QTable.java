@@ -0,0 +1,73 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+/**
+ * The Interface QTable that stores the Q values for every (state, action) pair.
+ */
+public interface QTable {
+
+	/**
+	 * Gets the Q value corresponding to a state and an action Q(s,a). Unvisited states have
+	 * all the values 0.
+	 *
+	 * @param state the state
+	 * @param action the action
+	 * @return the Q value
+	 */
+	public double getQValue(State state, int action);
+	
+	/**
+	 * Sets the Q value corresponding to a state and an action Q(s,a). The state is marked
+	 * as visited.
+	 *
+	 * @param state the state
+	 * @param action the action
+	 * @param val the value
+	 */
+	public void setQValue(State state, int action, double val);
+	
+	/**
+	 * Gets the action with the largest Q value in a state, among the actions set in an action mask.
+	 * On ties, the lowest action is chosen.
+	 *
+	 * @param state the state
+	 * @param mask the action mask, with bit i set if action i is allowed
+	 * @return the best action
+	 */
+	public int getBestAction(State state, int mask);
+	
+	/**
+	 * Checks if a Q value was ever set for the state.
+	 *
+	 * @param state the state
+	 * @return true, if the state was visited
+	 */
+	public boolean isVisited(State state);
+	
+	/**
+	 * Gets the number of visited states.
+	 *
+	 * @return the size
+	 */
+	public int size();
+	
+	/**
+	 * Estimates the heap memory used by the table, in bytes.
+	 *
+	 * @return the memory estimate
+	 */
+	public long getMemoryEstimate();
+	
+	/**
+	 * Gets all the visited states. Used only when dumping the table, as it allocates the states.
+	 *
+	 * @return the visited states
+	 */
+	public State[] getVisitedStates();
+}
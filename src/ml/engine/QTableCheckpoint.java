@@ -0,0 +1,189 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * The Class QTableCheckpoint that writes Q tables in a compact binary format, that can be memory
+ * mapped by {@link MappedQTable}. All the values are little endian. The file contains:
+ * <ul>
+ * <li> a header of HEADER_SIZE bytes: magic, format version, state encoding version, action count,
+ * state space size, number of visited states (rows) and number of words in the visited bitset</li>
+ * <li> the visited states, as a bitset of longs indexed by the state index</li>
+ * <li> the ranks, as an int for each word of the bitset: the number of visited states before it</li>
+ * <li> the rows, of ACTION_COUNT doubles each, for the visited states in the order of their index</li>
+ * </ul>
+ * <p>
+ * Usage: QTableCheckpoint checkpointFile textFile - exports a checkpoint in the text format of 
+ * {@link Engine#writeQToFile(String)}.
+ */
+public class QTableCheckpoint {
+	
+	/** The Constant MAGIC that identifies the checkpoint files ("ELQT"). */
+	public static final int MAGIC=0x54514C45;
+	
+	/** The Constant FORMAT_VERSION. */
+	public static final int FORMAT_VERSION=1;
+	
+	/** The Constant HEADER_SIZE, in bytes. */
+	public static final int HEADER_SIZE=64;
+	
+	/** The Constant ROW_SIZE, in bytes. */
+	public static final int ROW_SIZE=Action.ACTION_COUNT*8;
+	
+	/** The Constant ROW_COUNT_OFFSET that defines the position of the row count in the header. */
+	static final int ROW_COUNT_OFFSET=20;
+	
+	/** The Constant WORD_COUNT_OFFSET that defines the position of the word count in the header. */
+	static final int WORD_COUNT_OFFSET=24;
+	
+	/** The Constant WORD_COUNT that defines the number of words in the visited bitset. */
+	private static final int WORD_COUNT=(State.STATE_SPACE_SIZE+63)/64;
+	
+	/** The Constant CHUNK_SIZE that defines the size of the mappings used for writing the rows. */
+	private static final int CHUNK_SIZE=(Integer.MAX_VALUE/ROW_SIZE)*ROW_SIZE;
+	
+	/**
+	 * Checks that the header belongs to a checkpoint that is compatible with the current state
+	 * encoding and actions.
+	 *
+	 * @param header the header
+	 * @return the number of words in the visited bitset
+	 * @throws IOException Signals that the file is not a compatible checkpoint.
+	 */
+	static int checkHeader(ByteBuffer header) throws IOException
+	{
+		if(header.getInt(0)!=MAGIC)
+			throw new IOException("Not a Q table checkpoint.");
+		if(header.getInt(4)!=FORMAT_VERSION)
+			throw new IOException("Unsupported checkpoint format version: "+header.getInt(4));
+		if(header.getInt(8)!=State.ENCODING_VERSION)
+			throw new IOException("Checkpoint has state encoding version "+header.getInt(8)+
+					" instead of "+State.ENCODING_VERSION);
+		if(header.getInt(12)!=Action.ACTION_COUNT || header.getInt(16)!=State.STATE_SPACE_SIZE ||
+				header.getInt(WORD_COUNT_OFFSET)!=WORD_COUNT)
+			throw new IOException("Checkpoint has a different number of actions or states.");
+		return WORD_COUNT;
+	}
+	
+	/**
+	 * Writes a Q table in a checkpoint file.
+	 *
+	 * @param Q the Q table
+	 * @param file the file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void write(QTable Q, File file) throws IOException
+	{
+		//Find the visited states
+		long[] visited=new long[WORD_COUNT];
+		int[] ranks=new int[WORD_COUNT];
+		State state=new State();
+		int size=0;
+		for(int i=0;i<State.STATE_SPACE_SIZE;i++)
+		{
+			if((i&63)==0)
+				ranks[i>>>6]=size;
+			state.setIndex(i);
+			if(Q.isVisited(state))
+			{
+				visited[i>>>6] |= 1L << i;
+				size++;
+			}
+		}
+		
+		RandomAccessFile raf=new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel=raf.getChannel();
+			long indexSize=HEADER_SIZE+(long)WORD_COUNT*12;
+			raf.setLength(indexSize+(long)size*ROW_SIZE);
+			
+			//Header, visited states and ranks
+			ByteBuffer index=channel.map(MapMode.READ_WRITE, 0, indexSize).order(ByteOrder.LITTLE_ENDIAN);
+			index.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(State.ENCODING_VERSION);
+			index.putInt(Action.ACTION_COUNT).putInt(State.STATE_SPACE_SIZE).putInt(size).putInt(WORD_COUNT);
+			index.position(HEADER_SIZE);
+			index.asLongBuffer().put(visited);
+			index.position(HEADER_SIZE+WORD_COUNT*8);
+			index.asIntBuffer().put(ranks);
+			
+			//Rows
+			ByteBuffer rows=null;
+			long offset=indexSize;
+			for(int i=0;i<State.STATE_SPACE_SIZE;i++)
+			{
+				if((visited[i>>>6] & (1L << i))==0)
+					continue;
+				if(rows==null || !rows.hasRemaining())
+				{
+					long length=Math.min(CHUNK_SIZE, raf.length()-offset);
+					rows=channel.map(MapMode.READ_WRITE, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+					offset+=length;
+				}
+				state.setIndex(i);
+				for(int a=0;a<Action.ACTION_COUNT;a++)
+					rows.putDouble(Q.getQValue(state, a));
+			}
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Opens a checkpoint as a read-only, memory mapped Q table.
+	 *
+	 * @param file the file
+	 * @return the mapped Q table
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static MappedQTable open(File file) throws IOException
+	{
+		return new MappedQTable(file, false);
+	}
+	
+	/**
+	 * Reads a checkpoint in a {@link DenseQTable}, so that the training can be continued.
+	 *
+	 * @param file the file
+	 * @return the dense Q table
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static DenseQTable readDense(File file) throws IOException
+	{
+		MappedQTable mapped=open(file);
+		DenseQTable Q=new DenseQTable(Math.max(1, mapped.size()));
+		for(int i=0;i<State.STATE_SPACE_SIZE;i++)
+			if(mapped.isVisited(i))
+				for(int a=0;a<Action.ACTION_COUNT;a++)
+					Q.setQValue(i, a, mapped.getQValue(i, a));
+		return Q;
+	}
+	
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length<2)
+		{
+			System.err.println("Usage: QTableCheckpoint checkpointFile textFile");
+			return;
+		}
+		Engine.writeQToFile(open(new File(args[0])), args[1]);
+	}
+}
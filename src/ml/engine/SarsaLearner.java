@@ -0,0 +1,283 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.util.SplittableRandom;
+
+import ml.metrics.TrainingMetrics;
+import ml.scenario.ScenarioGenerator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The Class SarsaLearner that runs the SARSA loop shared by the learners: the step in the world, the
+ * fast-forward over the idle periods, the annealing, the bookkeeping of the previous actions and the
+ * convergence checks. The subclasses supply the representation of Q: how an action is chosen and how
+ * a step updates the Q values.
+ * <p>
+ * The action chosen in the new state is restricted by the previous actions as they were before the
+ * step, so it lags one step behind the action just performed, as in the original engine.
+ */
+public abstract class SarsaLearner implements Learner {
+
+	/** The Constant METRICS_INTERVAL_MASK that defines how often (in steps) the metrics are published. */
+	private static final int METRICS_INTERVAL_MASK=(1<<12)-1;
+
+	/** The hyperparameters. */
+	protected Hyperparameters hyperparameters;
+
+	/** A random number generator. */
+	protected SplittableRandom rand;
+
+	/** The world. */
+	protected World world;
+
+	/** The current state. */
+	protected State currentState;
+
+	/** The next state. Reused on every step, by swapping it with the current state. */
+	protected State newState;
+
+	/** The time. */
+	protected int time;
+
+	/** The previous action. */
+	protected int previousAction;
+
+	/** The previous before previous action. */
+	protected int prevPreviousAction;
+
+	/** The number of actions chosen randomly. */
+	protected long exploreCount;
+
+	/** The number of actions chosen greedily. */
+	protected long exploitCount;
+
+	/** The source in which the metrics of the learner are published. */
+	protected TrainingMetrics.Source metrics;
+
+	/** The monitor that stops the episodes on a plateau, or null. */
+	protected ConvergenceMonitor convergence;
+
+	/** Whether the idle periods of the world are skipped (see {@link World#fastForward(State)}). */
+	private boolean fastForward;
+
+	/** The action in which all the cars stop, that is performed during the skipped idle periods. */
+	private int stopAction;
+
+	/** The number of steps skipped in idle periods. */
+	private long skippedSteps;
+
+	/** The log. */
+	protected Logger log;
+
+	/**
+	 * Instantiates a new SARSA learner.
+	 *
+	 * @param world the world
+	 * @param startState the start state
+	 * @param rand the random number generator used for exploration
+	 * @param hyperparameters the hyperparameters
+	 */
+	protected SarsaLearner(World world, State startState, SplittableRandom rand, Hyperparameters hyperparameters) {
+		super();
+		this.world=world;
+		this.rand=rand;
+		this.hyperparameters=hyperparameters;
+		this.log=Engine.getLogger(world);
+		this.previousAction=this.prevPreviousAction=Action.NO_ACTION;
+		this.currentState=startState;
+		this.newState=new State(world.getBuilding());
+		this.stopAction=Action.getStopAction(world.getBuilding());
+	}
+
+	/**
+	 * Gets the annealed exploration rate.
+	 *
+	 * @return the exploration rate
+	 */
+	protected abstract double getEpsilon();
+
+	/**
+	 * Sets the annealed exploration rate.
+	 *
+	 * @param epsilon the exploration rate
+	 */
+	protected abstract void setEpsilon(double epsilon);
+
+	/**
+	 * Chooses the action to perform in a state, given the previous actions of the learner.
+	 *
+	 * @param state the state
+	 * @param next true for the new state of a step, false for the current state of the episode start
+	 * @return the action
+	 */
+	protected abstract int chooseAction(State state, boolean next);
+
+	/**
+	 * Updates the Q value of a state and an action, using the SARSA rule with a given discount of the
+	 * value of the new state.
+	 *
+	 * @param state the state
+	 * @param action the action
+	 * @param reward the reward obtained
+	 * @param newState the new state
+	 * @param newAction the action chosen in the new state
+	 * @param discount the discount
+	 * @return the change of the Q value
+	 */
+	protected abstract double update(State state, int action, double reward, State newState, int newAction, double discount);
+
+	/**
+	 * Called when an episode starts.
+	 */
+	protected void episodeStarted()
+	{
+	}
+
+	/**
+	 * Called when an action was performed in the current state, before the idle period that follows it
+	 * is skipped.
+	 *
+	 * @param action the action
+	 * @param reward the reward obtained
+	 */
+	protected void actionPerformed(int action, double reward)
+	{
+	}
+
+	/**
+	 * Called at the end of a step, after the new state became the current state.
+	 */
+	protected void stepFinished()
+	{
+	}
+
+	/**
+	 * Publishes the metrics of the learner.
+	 */
+	protected void publishMetrics()
+	{
+		metrics.update(time, exploreCount, exploitCount, getEpsilon(), world);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.Learner#run()
+	 */
+	@Override
+	public void run()
+	{
+		metrics.episodeStarted();
+		episodeStarted();
+		if(convergence!=null)
+			convergence.startEpisode();
+		int nextDayTime=(Math.max(world.getTime(), 0)/ScenarioGenerator.DAY_DURATION+1)*ScenarioGenerator.DAY_DURATION;
+
+		State swap;
+		int action=chooseAction(currentState, false);
+		int newAction;
+		double reward;
+		int skipped;
+		while(!world.isScenarioFinished())
+		{
+			setEpsilon(hyperparameters.anneal(getEpsilon()));
+			time++;
+			if((time & METRICS_INTERVAL_MASK)==0)
+				publishMetrics();
+
+			//Perform the action and get to the new state & the reward
+			world.getNextState(currentState, action, newState);
+			reward=world.getRewardForCurrentState();
+			actionPerformed(action, reward);
+
+			//Skip the idle period that follows, if any, as a macro-transition without reward in which
+			//the cars stop. The steps are counted, annealed and discounted as if they were performed
+			skipped=fastForward?world.fastForward(newState):0;
+			if(skipped>0)
+			{
+				time+=skipped;
+				skippedSteps+=skipped;
+				setEpsilon(hyperparameters.anneal(getEpsilon(), skipped));
+				this.previousAction=this.prevPreviousAction=stopAction;
+			}
+
+			//Choose next action
+			newAction=chooseAction(newState, true);
+
+			//Update Q
+			double change=update(this.currentState, action, reward, newState, newAction, hyperparameters.getDiscount(1+skipped));
+			if(convergence!=null)
+				convergence.recordUpdate(change);
+
+			//Update actions and state
+			if(skipped==0)
+			{
+				this.prevPreviousAction=previousAction;
+				this.previousAction=action;
+			}
+			action=newAction;
+			swap=this.currentState;
+			this.currentState=newState;
+			this.newState=swap;
+			stepFinished();
+
+			//Stop the episode on a plateau, after the step is complete, so the next episode continues from it
+			if(convergence!=null && world.getTime()>=nextDayTime)
+			{
+				nextDayTime+=ScenarioGenerator.DAY_DURATION;
+				if(convergence.endDay(world.getRunningAverageDelay()))
+				{
+					log.info("Episode stopped: "+convergence.getStopReason());
+					break;
+				}
+			}
+		}
+		publishMetrics();
+		metrics.episodeFinished();
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.Learner#getTime()
+	 */
+	@Override
+	public int getTime() {
+		return time;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.Learner#setConvergenceMonitor(ml.engine.ConvergenceMonitor)
+	 */
+	@Override
+	public void setConvergenceMonitor(ConvergenceMonitor convergence) {
+		this.convergence=convergence;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.Learner#setFastForward(boolean)
+	 */
+	@Override
+	public void setFastForward(boolean fastForward) {
+		this.fastForward=fastForward;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.Learner#getSkippedSteps()
+	 */
+	@Override
+	public long getSkippedSteps() {
+		return skippedSteps;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.Learner#close()
+	 */
+	@Override
+	public void close() {
+		TrainingMetrics.getInstance().unregister(metrics);
+	}
+}
@@ -0,0 +1,304 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The Class SharedQTable that can be read and updated by many {@link Engine}s at the same time,
+ * without locks (Hogwild style). Like the {@link DenseQTable}, it is addressed through the state
+ * index, but the rows are kept in fixed size chunks that are allocated on demand, so the table
+ * never has to be copied while other threads use it.
+ * <p>
+ * A row is claimed for a state with a compare-and-set, so every state gets exactly one row. The
+ * Q values themselves are not protected: concurrent updates of the same value may overwrite each
+ * other, which is accepted in exchange for the lack of synchronization. Depending on the
+ * {@link WriteMode}, the values are written with plain (racy) writes or with relaxed atomic writes.
+ */
+public class SharedQTable implements QTable {
+
+	/**
+	 * The Enum WriteMode.
+	 */
+	public enum WriteMode { /** Plain writes in a double array. Values might be seen late by other threads. */
+ PLAIN, /** Relaxed atomic writes (lazySet) in a long array. Values are never torn. */
+ ATOMIC };
+
+	/** The Constant CHUNK_BITS that defines the number of rows in a chunk (as a power of 2). */
+	private static final int CHUNK_BITS=16;
+
+	/** The Constant CHUNK_ROWS. */
+	private static final int CHUNK_ROWS=1<<CHUNK_BITS;
+
+	/** The Constant CHUNK_COUNT that is enough for all the states. */
+	private static final int CHUNK_COUNT=(State.STATE_SPACE_SIZE+CHUNK_ROWS-1)/CHUNK_ROWS;
+
+	/** The write mode. */
+	private final WriteMode mode;
+
+	/** The row of each state, plus 1. A value of 0 means the state was not visited. */
+	private final AtomicIntegerArray rows;
+
+	/** The number of rows claimed, including the ones lost in races. */
+	private final AtomicInteger rowCount;
+
+	/** The number of visited states. */
+	private final AtomicInteger size;
+
+	/** The chunks of Q values, used in the PLAIN mode. */
+	private final AtomicReferenceArray<double[]> plainChunks;
+
+	/** The chunks of Q values, as raw double bits, used in the ATOMIC mode. */
+	private final AtomicReferenceArray<AtomicLongArray> atomicChunks;
+
+	/**
+	 * Instantiates a new shared Q table, with plain writes.
+	 */
+	public SharedQTable() {
+		this(WriteMode.PLAIN);
+	}
+
+	/**
+	 * Instantiates a new shared Q table.
+	 *
+	 * @param mode the write mode
+	 */
+	public SharedQTable(WriteMode mode) {
+		super();
+		this.mode=mode;
+		this.rows=new AtomicIntegerArray(State.STATE_SPACE_SIZE);
+		this.rowCount=new AtomicInteger();
+		this.size=new AtomicInteger();
+		if(mode==WriteMode.PLAIN)
+		{
+			plainChunks=new AtomicReferenceArray<double[]>(CHUNK_COUNT);
+			atomicChunks=null;
+		}
+		else
+		{
+			plainChunks=null;
+			atomicChunks=new AtomicReferenceArray<AtomicLongArray>(CHUNK_COUNT);
+		}
+	}
+
+	/**
+	 * Gets the write mode.
+	 *
+	 * @return the write mode
+	 */
+	public WriteMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Makes sure the chunk that holds a row is allocated. If several threads allocate the same
+	 * chunk, only one of them is kept.
+	 *
+	 * @param row the row
+	 */
+	private void ensureChunk(int row)
+	{
+		int chunk=row>>>CHUNK_BITS;
+		if(mode==WriteMode.PLAIN)
+		{
+			if(plainChunks.get(chunk)==null)
+				plainChunks.compareAndSet(chunk, null, new double[CHUNK_ROWS*Action.ACTION_COUNT]);
+		}
+		else
+		{
+			if(atomicChunks.get(chunk)==null)
+				atomicChunks.compareAndSet(chunk, null, new AtomicLongArray(CHUNK_ROWS*Action.ACTION_COUNT));
+		}
+	}
+
+	/**
+	 * Gets the row of a state, claiming a new one if the state was not visited.
+	 *
+	 * @param index the state index
+	 * @return the row
+	 */
+	private int claimRow(int index)
+	{
+		int row=rows.get(index);
+		if(row!=0)
+			return row-1;
+
+		//The chunk is allocated before the row is published, so readers that see the row see the chunk
+		row=rowCount.getAndIncrement();
+		ensureChunk(row);
+		if(rows.compareAndSet(index, 0, row+1))
+		{
+			size.incrementAndGet();
+			return row;
+		}
+		//Another thread claimed a row for the state first. The row claimed here is lost.
+		return rows.get(index)-1;
+	}
+
+	/**
+	 * Gets a value from a row.
+	 *
+	 * @param row the row
+	 * @param action the action
+	 * @return the value
+	 */
+	private double getValue(int row, int action)
+	{
+		int offset=(row&(CHUNK_ROWS-1))*Action.ACTION_COUNT+action;
+		if(mode==WriteMode.PLAIN)
+			return plainChunks.get(row>>>CHUNK_BITS)[offset];
+		return Double.longBitsToDouble(atomicChunks.get(row>>>CHUNK_BITS).get(offset));
+	}
+
+	/**
+	 * Checks if the state with the given index was visited.
+	 *
+	 * @param index the state index
+	 * @return true, if visited
+	 */
+	public boolean isVisited(int index)
+	{
+		return rows.get(index)!=0;
+	}
+
+	/**
+	 * Gets the Q value corresponding to a state index and an action.
+	 *
+	 * @param index the state index
+	 * @param action the action
+	 * @return the Q value
+	 */
+	public double getQValue(int index, int action)
+	{
+		int row=rows.get(index);
+		if(row==0)
+			return 0;
+		return getValue(row-1, action);
+	}
+
+	/**
+	 * Sets the Q value corresponding to a state index and an action.
+	 *
+	 * @param index the state index
+	 * @param action the action
+	 * @param val the value
+	 */
+	public void setQValue(int index, int action, double val)
+	{
+		int row=claimRow(index);
+		int offset=(row&(CHUNK_ROWS-1))*Action.ACTION_COUNT+action;
+		if(mode==WriteMode.PLAIN)
+			plainChunks.get(row>>>CHUNK_BITS)[offset]=val;
+		else
+			atomicChunks.get(row>>>CHUNK_BITS).lazySet(offset, Double.doubleToRawLongBits(val));
+	}
+
+	/**
+	 * Gets the action with the largest Q value in a state, among the actions set in an action mask.
+	 *
+	 * @param index the state index
+	 * @param mask the action mask
+	 * @return the best action
+	 */
+	public int getBestAction(int index, int mask)
+	{
+		int row=rows.get(index);
+		if(row==0)
+			return Integer.numberOfTrailingZeros(mask);
+		row--;
+		if(mode==WriteMode.PLAIN)
+			return Action.getBestAction(plainChunks.get(row>>>CHUNK_BITS),
+					(row&(CHUNK_ROWS-1))*Action.ACTION_COUNT, mask);
+
+		int maxAction=Integer.numberOfTrailingZeros(mask);
+		double maxQ=-Double.MAX_VALUE;
+		for(int m=mask;m!=0;m&=m-1)
+		{
+			int action=Integer.numberOfTrailingZeros(m);
+			double val=getValue(row, action);
+			if(maxQ<val)
+			{
+				maxQ=val;
+				maxAction=action;
+			}
+		}
+		return maxAction;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getBestAction(ml.engine.State, int)
+	 */
+	@Override
+	public int getBestAction(State state, int mask)
+	{
+		return getBestAction(state.getIndex(), mask);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getQValue(ml.engine.State, int)
+	 */
+	@Override
+	public double getQValue(State state, int action)
+	{
+		return getQValue(state.getIndex(), action);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#setQValue(ml.engine.State, int, double)
+	 */
+	@Override
+	public void setQValue(State state, int action, double val)
+	{
+		setQValue(state.getIndex(), action, val);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#isVisited(ml.engine.State)
+	 */
+	@Override
+	public boolean isVisited(State state)
+	{
+		return isVisited(state.getIndex());
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#size()
+	 */
+	@Override
+	public int size()
+	{
+		return size.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getMemoryEstimate()
+	 */
+	@Override
+	public long getMemoryEstimate()
+	{
+		long chunks=((long)rowCount.get()+CHUNK_ROWS-1)/CHUNK_ROWS;
+		return (long)State.STATE_SPACE_SIZE*4 + chunks*CHUNK_ROWS*Action.ACTION_COUNT*8;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.engine.QTable#getVisitedStates()
+	 */
+	@Override
+	public State[] getVisitedStates()
+	{
+		State[] states=new State[size.get()];
+		int count=0;
+		for(int i=0;i<State.STATE_SPACE_SIZE && count<states.length;i++)
+			if(isVisited(i))
+				states[count++]=State.fromIndex(i);
+		return states;
+	}
+}
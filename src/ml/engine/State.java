@@ -7,10 +7,11 @@
  */
 package ml.engine;
 
-import ml.scenario.ScenarioGenerator;
+import java.util.Arrays;
 
 /**
- * The Class State.
+ * The Class State, stored as a bitfield of one or more longs, with the layout defined by its
+ * {@link Building}. States of the default building fit in a single long.
  */
 public class State {
 	
@@ -29,44 +30,22 @@ public class State {
 	/** The Constant DOWN. */
 	public static final int DOWN=0;
 	
-	/** The Constant DEST_E1_BIT for bitwise operations on {@literal value}. */
-	private static final int DEST_E1_BIT=0;
-	
-	/** The Constant DEST_E2_BIT for bitwise operations on {@literal value}. */
-	private static final int DEST_E2_BIT=3;
-	
-	/** The Constant WAITING_BIT for bitwise operations on {@literal value}. */
-	private static final int WAITING_BIT=6;
-	
 	/** The Constant WMANY_BIT bitwise operations on {@literal waitingMany}. */
 	private static final int WMANY_BIT=0;
+	
+	/** The Constant ENCODING_VERSION that identifies the way states are packed in indexes. It must be
+	 * changed whenever {@link #getIndex()} changes, so that old checkpoints are rejected. */
+	public static final int ENCODING_VERSION=1;
 
-	/** The Constant STATE_SPACE_SIZE. */
-	public static final int STATE_SPACE_SIZE=
-			(int) (ScenarioGenerator.FLOOR_COUNT*
-					ScenarioGenerator.FLOOR_COUNT*
-					Math.pow(2, 10)*
-					Math.pow(2, 3)*
-					Math.pow(2, 3)*
-					6);
-							
-	/** The elevators' floors. In the first 4 bits, the floor for E1 is stored,
-	 * and in the next 4 bits, the floor for E2 is stored. */
-	private byte elevatorFloor;
-	
-	/** Some boolean values are being stored as bits, in the following field. They can be accessed using
-	 * the constants defined: 
-	 * <ul>
-	 * <li> WAITING_BIT - If people are waiting on each of the floor (first dimension), going either
-	 * UP or DOWN (second dimension). Access: floor*2+direction</li>
-	 * <li> DEST_E1_BIT - If people from elevator 1 are going to the floors above, below, current. Access: +direction </li>
-	 * <li> DEST_E2_BIT -  If people from elevator 2 are going to the floors above, below, current. Access: +direction </li>
-	 * </ul>*/
-	private short value;
-	
-	/** The time interval, as a number from 0-11 (2 hour intervals). */
-	private byte timeInterval;
+	/** The Constant STATE_SPACE_SIZE of the default building. */
+	public static final int STATE_SPACE_SIZE=Building.DEFAULT.getDenseStateSpaceSize();
 	
+	/** The building, that defines the layout of the bits. */
+	private Building building;
+	
+	/** The bits of the state: the destinations of the cars and the waiting flags of the floors, from
+	 * bit 0, then the floors of the cars and the time interval (see {@link Building}). */
+	private long[] words;
 	
 	/** BONUS - Byte in which we store a bit value which says if there are more than WAITING_THRESHOLD people
 	 * waiting in front of the elevator. Same structure as value above, but with the constant WMANY_BIT */
@@ -79,7 +58,7 @@ public class State {
 	 */
 	private void setBit(int bit)
 	{
-		value |= 1 << bit;
+		words[bit>>>6] |= 1L << bit;
 	}
 	
 	/**
@@ -89,7 +68,7 @@ public class State {
 	 */
 	private void clearBit(int bit)
 	{
-		value &= ~(1 << bit);
+		words[bit>>>6] &= ~(1L << bit);
 	}
 	
 	/**
@@ -100,7 +79,96 @@ public class State {
 	 */
 	private boolean getBit(int bit)
 	{
-		return (value & (1 << bit)) != 0;
+		return (words[bit>>>6] & (1L << bit)) != 0;
+	}
+	
+	/**
+	 * Gets a field of several bits, that does not span two longs.
+	 *
+	 * @param bit the position of the field
+	 * @param bits the size of the field
+	 * @return the value
+	 */
+	private int getField(int bit, int bits)
+	{
+		return (int) (words[bit>>>6] >>> bit) & ((1<<bits)-1);
+	}
+	
+	/**
+	 * Sets a field of several bits, that does not span two longs.
+	 *
+	 * @param bit the position of the field
+	 * @param bits the size of the field
+	 * @param value the value
+	 */
+	private void setField(int bit, int bits, int value)
+	{
+		long mask=((1L<<bits)-1) << bit;
+		words[bit>>>6] = (words[bit>>>6] & ~mask) | (((long)value << bit) & mask);
+	}
+	
+	/**
+	 * Gets the building.
+	 *
+	 * @return the building
+	 */
+	public Building getBuilding() {
+		return building;
+	}
+	
+	/**
+	 * Gets the floor of a car.
+	 *
+	 * @param car the car, from 0
+	 * @return the floor
+	 */
+	public int getCarFloor(int car) {
+		return getField(building.getFloorBit(car), building.getFloorBits());
+	}
+	
+	/**
+	 * Sets the floor of a car.
+	 *
+	 * @param car the car, from 0
+	 * @param floor the floor
+	 */
+	public void setCarFloor(int car, int floor) {
+		setField(building.getFloorBit(car), building.getFloorBits(), floor);
+	}
+	
+	/**
+	 * Gets the destinations of a car. If people want to go Above, Below or on the current floor.
+	 *
+	 * @param car the car, from 0
+	 * @param direction the direction
+	 * @return the destination
+	 */
+	public boolean getDestination(int car, int direction) {
+		return getBit(building.getDestinationBit(car, direction));
+	}
+	
+	/**
+	 * Sets the destinations of a car.
+	 *
+	 * @param car the car, from 0
+	 * @param direction the direction
+	 * @param destination the destination
+	 */
+	public void setDestination(int car, int direction, boolean destination) {
+		if(destination)
+			setBit(building.getDestinationBit(car, direction));
+		else
+			clearBit(building.getDestinationBit(car, direction));
+	}
+	
+	/**
+	 * Sets all the destinations of a car.
+	 *
+	 * @param car the car, from 0
+	 * @param directions the destinations, as a mask with bit i set if people want to go in direction i
+	 */
+	public void setDestinations(int car, int directions) {
+		setField(building.getDestinationBit(car, 0), 3, directions);
 	}
 	
 	/**
@@ -109,7 +177,7 @@ public class State {
 	 * @return the elevator1 floor
 	 */
 	public int getElevator1Floor() {
-		return elevatorFloor & 0x0f;
+		return getCarFloor(0);
 	}
 
 	/**
@@ -118,7 +186,7 @@ public class State {
 	 * @param elevator1Floor the new elevator1 floor
 	 */
 	public void setElevator1Floor(int elevator1Floor) {
-		this.elevatorFloor = (byte) ((this.elevatorFloor & 0xf0) + elevator1Floor);
+		setCarFloor(0, elevator1Floor);
 	}
 
 	/**
@@ -127,7 +195,7 @@ public class State {
 	 * @return the elevator2 floor
 	 */
 	public int getElevator2Floor() {
-		return ((elevatorFloor & 0xf0)>>4);
+		return getCarFloor(1);
 	}
 
 	/**
@@ -136,7 +204,7 @@ public class State {
 	 * @param elevator2Floor the new elevator2 floor
 	 */
 	public void setElevator2Floor(int elevator2Floor) {
-		this.elevatorFloor = (byte) ((this.elevatorFloor & 0x0f) + (elevator2Floor<<4));
+		setCarFloor(1, elevator2Floor);
 	}
 
 	
@@ -177,7 +245,7 @@ public class State {
 	 * @return true, if anyone waiting
 	 */
 	public boolean getWaiting(int floor, int direction) {
-		return getBit(WAITING_BIT + floor*2+direction);
+		return getBit(building.getWaitingBit(floor, direction));
 	}
 
 	/**
@@ -189,9 +257,22 @@ public class State {
 	 */
 	public void setWaiting(int floor, int direction, boolean waiting) {
 		if(waiting)
-			setBit(WAITING_BIT + floor*2+direction);
+			setBit(building.getWaitingBit(floor, direction));
 		else
-			clearBit(WAITING_BIT + floor*2+direction);
+			clearBit(building.getWaitingBit(floor, direction));
+	}
+
+	/**
+	 * Copies the waiting info of all the floors from another state, of the same building.
+	 *
+	 * @param other the other state
+	 */
+	public void copyWaiting(State other) {
+		for(int i=0;i<words.length;i++)
+		{
+			long mask=building.getWaitingMask(i);
+			words[i]=(words[i] & ~mask) | (other.words[i] & mask);
+		}
 	}
 
 	/**
@@ -201,7 +282,7 @@ public class State {
 	 * @return the destinations for elevator 1
 	 */
 	public boolean getDestinationsE1(int direction) {
-		return getBit(DEST_E1_BIT+direction);
+		return getDestination(0, direction);
 	}
 
 	/**
@@ -211,10 +292,7 @@ public class State {
 	 * @param destinationE1 the destination e1
 	 */
 	public void setDestinationE1(int direction, boolean destinationE1) {
-		if(destinationE1)
-			setBit(DEST_E1_BIT+direction);
-		else
-			clearBit(DEST_E1_BIT+direction);
+		setDestination(0, direction, destinationE1);
 	}
 
 	/**
@@ -224,7 +302,7 @@ public class State {
 	 * @return the destinations for elevator 2
 	 */
 	public boolean getDestinationsE2(int direction) {
-		return getBit(DEST_E2_BIT+direction);
+		return getDestination(1, direction);
 	}
 
 	/**
@@ -234,10 +312,7 @@ public class State {
 	 * @param destinationE2 the destination e2
 	 */
 	public void setDestinationE2(int direction, boolean destinationE2) {
-		if(destinationE2)
-			setBit(DEST_E2_BIT+direction);
-		else
-			clearBit(DEST_E2_BIT+direction);
+		setDestination(1, direction, destinationE2);
 	}
 
 	/**
@@ -246,7 +321,7 @@ public class State {
 	 * @return the time interval
 	 */
 	public byte getTimeInterval() {
-		return timeInterval;
+		return (byte) getField(building.getTimeBit(), Building.TIME_BITS);
 	}
 
 	/**
@@ -255,7 +330,7 @@ public class State {
 	 * @param i the new time interval
 	 */
 	public void setTimeInterval(int i) {
-		this.timeInterval = (byte) i;
+		setField(building.getTimeBit(), Building.TIME_BITS, i);
 	}
 	
 	/**
@@ -281,12 +356,12 @@ public class State {
 	@Override
 	public String toString() {
 		StringBuilder outp=new StringBuilder();
-		outp.append("State [" + timeInterval);
-		outp.append(", [E1: " + getElevator1Floor() + " - "	+ bitsToString(DEST_E1_BIT, 3));
-		outp.append("], [E2: " + getElevator2Floor() + " - "	+ bitsToString(DEST_E2_BIT, 3));
-		outp.append("], waiting=[");
-		for(int i=0;i<ScenarioGenerator.FLOOR_COUNT;i++)
-			outp.append(bitsToString(WAITING_BIT+2*i, 2)+" ");
+		outp.append("State [" + getTimeInterval());
+		for(int i=0;i<building.getCarCount();i++)
+			outp.append(", [E"+(i+1)+": " + getCarFloor(i) + " - " + bitsToString(building.getDestinationBit(i, 0), 3)+"]");
+		outp.append(", waiting=[");
+		for(int i=0;i<building.getFloorCount();i++)
+			outp.append(bitsToString(building.getWaitingBit(i, 0), 2)+" ");
 		outp.append("]");
 		return outp.toString();
 	}
@@ -298,10 +373,8 @@ public class State {
 	public int hashCode() {
 		final int prime = 67;
 		int result = 1;
-		result = prime * result + elevatorFloor;
-		result = prime * result + timeInterval;
-		result = prime * result + value;
-		//result = prime * result + waitingMany;
+		for(int i=0;i<words.length;i++)
+			result = prime * result + (int) (words[i] ^ (words[i] >>> 32));
 		return result;
 	}
 
@@ -315,33 +388,135 @@ public class State {
 		if (obj == null)
 			return false;
 		State other = (State) obj;
-		if (elevatorFloor != other.elevatorFloor)
-			return false;
-		if (timeInterval != other.timeInterval)
-			return false;
-		if (value != other.value)
-			return false;
-//		if (waitingMany != other.waitingMany)
-//			return false;
-		return true;
+		return Arrays.equals(words, other.words);
 	}
 
 	/**
-	 * Instantiates a new state.
+	 * Instantiates a new state, in the default building.
 	 */
 	public State() {
+		this(Building.DEFAULT);
+	}
+	
+	/**
+	 * Instantiates a new state.
+	 *
+	 * @param building the building
+	 */
+	public State(Building building) {
 		super();
-		this.value=0;
+		this.building=building;
+		this.words=new long[building.getWordCount()];
+	}
+	
+	/**
+	 * Instantiates a new state, as a copy of another state.
+	 *
+	 * @param other the other state
+	 */
+	public State(State other) {
+		this(other.building);
+		copyFrom(other);
+	}
+	
+	/**
+	 * Copies all the fields from another state, of the same building.
+	 *
+	 * @param other the other state
+	 */
+	public void copyFrom(State other)
+	{
+		if(words.length==1)
+			words[0]=other.words[0];
+		else
+			System.arraycopy(other.words, 0, words, 0, words.length);
+	}
+	
+	/**
+	 * Clears the state, so it can be reused.
+	 */
+	public void clear()
+	{
+		if(words.length==1)
+			words[0]=0;
+		else
+			Arrays.fill(words, 0);
+	}
+	
+	/**
+	 * Gets the index of the state. The index is a dense number in [0, STATE_SPACE_SIZE), obtained
+	 * by packing the time interval, the elevators' floors and the flags. Only the states of the
+	 * buildings that are {@link Building#isDense()} have indexes.
+	 *
+	 * @return the index
+	 */
+	public int getIndex()
+	{
+		int flagBits=building.getFlagBits();
+		int flags=(int) words[0] & ((1<<flagBits)-1);
+		int[] table=building.getFieldsToIndex();
+		if(table!=null)
+			return (table[(int) (words[0]>>>building.getFloorBit(0)) & (table.length-1)]<<flagBits) | flags;
+		
+		int index=getTimeInterval();
+		for(int i=0;i<building.getCarCount();i++)
+			index=index*building.getFloorCount()+getCarFloor(i);
+		return (index<<flagBits) | flags;
+	}
+	
+	/**
+	 * Builds the state of the default building corresponding to an index obtained with {@link #getIndex()}.
+	 *
+	 * @param index the index
+	 * @return the state
+	 */
+	public static State fromIndex(int index)
+	{
+		State state=new State();
+		state.setIndex(index);
+		return state;
+	}
+	
+	/**
+	 * Sets all the fields of the state from an index obtained with {@link #getIndex()}.
+	 *
+	 * @param index the index
+	 */
+	public void setIndex(int index)
+	{
+		int flagBits=building.getFlagBits();
+		words[0]=index & ((1<<flagBits)-1);
+		index>>>=flagBits;
+		int[] table=building.getIndexToFields();
+		if(table!=null)
+		{
+			words[0]|=(long) table[index]<<building.getFloorBit(0);
+			return;
+		}
+		
+		for(int i=building.getCarCount()-1;i>=0;i--)
+		{
+			setCarFloor(i, index%building.getFloorCount());
+			index/=building.getFloorCount();
+		}
+		setTimeInterval(index);
 	}
 	
 	/**
-	 * Flush state. Efficient string to be written to file.
+	 * Flush state. Efficient string to be written to file: the time interval, the floors of the
+	 * elevators (4 bits each) and the flags.
 	 *
 	 * @return the string
 	 */
 	public String flushState()
 	{
-		return this.timeInterval+" "+this.elevatorFloor+" "+this.value;
+		long floors=0;
+		for(int i=building.getCarCount()-1;i>=0;i--)
+			floors=(floors<<4)+getCarFloor(i);
+		long flags=words[0] & ((1L<<Math.min(building.getFlagBits(), 63))-1);
+		if(building.isDefault())
+			return getTimeInterval()+" "+(byte) floors+" "+(short) flags;
+		return getTimeInterval()+" "+floors+" "+flags;
 	}
 
 	
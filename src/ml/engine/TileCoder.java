@@ -0,0 +1,126 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+/**
+ * The Class TileCoder that describes a state with sparse binary features, for the {@link LinearQFunction}.
+ * Each car has TILING_COUNT tiles, and each tile is a small group of the state fields, seen from the
+ * car: a tile is active when its fields have a given value. The tilings are:
+ * <ul>
+ * <li> the floor of the car, its destinations and the time interval</li>
+ * <li> the floor of the car, the waiting flags of its floor, its destinations and its previous action</li>
+ * <li> the floor of the car, the distance to the nearest floors with waiting passengers above and below,
+ * its destinations and its previous action</li>
+ * <li> the floor of the car, the other cars on the same floor, above and below, and whether passengers
+ * are waiting above and below</li>
+ * <li> the time interval alone, a bias for each time of the day</li>
+ * </ul>
+ * The previous action of the car is not in the state, but it tells whether the car loads or unloads
+ * passengers when it stops. The tiles do not include the car, so all the cars share the same weights. A tile is an int, with the
+ * tiling in the high bits, that is combined with the action of the car and hashed in the weights.
+ */
+public class TileCoder {
+
+	/** The Constant TILING_COUNT that defines the number of tiles of each car. */
+	public static final int TILING_COUNT=5;
+
+	/** The Constant TILING_SHIFT that defines the position of the tiling in a tile. */
+	private static final int TILING_SHIFT=24;
+
+	/** The Constant MAX_DISTANCE of the distances (in floors) that are told apart. */
+	private static final int MAX_DISTANCE=3;
+
+	/** The Constant MAX_CARS of the number of other cars that are told apart. */
+	private static final int MAX_CARS=2;
+
+	/** The building. */
+	private Building building;
+
+	/**
+	 * Instantiates a new tile coder.
+	 *
+	 * @param building the building of the states
+	 */
+	public TileCoder(Building building) {
+		super();
+		this.building=building;
+	}
+
+	/**
+	 * Gets the number of tiles of a state, which are all active.
+	 *
+	 * @return the tile count
+	 */
+	public int getTileCount() {
+		return building.getCarCount()*TILING_COUNT;
+	}
+
+	/**
+	 * Gets the building.
+	 *
+	 * @return the building
+	 */
+	public Building getBuilding() {
+		return building;
+	}
+
+	/**
+	 * Gets the tiles of a state. The tiles of car c are stored from index c*TILING_COUNT.
+	 *
+	 * @param state the state
+	 * @param previousAction the action that led to the state
+	 * @param tiles the array in which the tiles are stored, of size at least {@link #getTileCount()}
+	 */
+	public void getTiles(State state, int previousAction, int[] tiles)
+	{
+		//The floors with waiting passengers, in either direction
+		long waiting=0;
+		for(int floor=0;floor<building.getFloorCount();floor++)
+			if(state.getWaiting(floor, State.UP) || state.getWaiting(floor, State.DOWN))
+				waiting|=1L<<floor;
+		int time=state.getTimeInterval();
+
+		for(int car=0;car<building.getCarCount();car++)
+		{
+			int floor=state.getCarFloor(car);
+			int previous=Action.getCarAction(previousAction, car, building)+1;
+			int destinations=0;
+			for(int direction=State.BELOW;direction<=State.ABOVE;direction++)
+				if(state.getDestination(car, direction))
+					destinations|=1<<direction;
+			int floorWaiting=(state.getWaiting(floor, State.UP)?2:0) | (state.getWaiting(floor, State.DOWN)?1:0);
+			long above=floor+1<64?waiting>>>(floor+1):0;
+			long below=waiting & ((1L<<floor)-1);
+			int distanceAbove=above==0?0:Math.min(Long.numberOfTrailingZeros(above)+1, MAX_DISTANCE);
+			int distanceBelow=below==0?0:Math.min(floor-(63-Long.numberOfLeadingZeros(below)), MAX_DISTANCE);
+
+			//The other cars
+			int same=0, carsAbove=0, carsBelow=0;
+			for(int other=0;other<building.getCarCount();other++)
+				if(other!=car)
+				{
+					int otherFloor=state.getCarFloor(other);
+					if(otherFloor==floor)
+						same=1;
+					else if(otherFloor>floor)
+						carsAbove=Math.min(carsAbove+1, MAX_CARS);
+					else
+						carsBelow=Math.min(carsBelow+1, MAX_CARS);
+				}
+
+			int i=car*TILING_COUNT;
+			tiles[i]=(0<<TILING_SHIFT) | (floor<<8) | (destinations<<3) | time;
+			tiles[i+1]=(1<<TILING_SHIFT) | (floor<<8) | (previous<<5) | (floorWaiting<<3) | destinations;
+			tiles[i+2]=(2<<TILING_SHIFT) | (floor<<10) | (previous<<7) | (distanceAbove<<5) | (distanceBelow<<3) |
+					destinations;
+			tiles[i+3]=(3<<TILING_SHIFT) | (floor<<8) | (same<<6) | (carsAbove<<4) | (carsBelow<<2) |
+					(above!=0?2:0) | (below!=0?1:0);
+			tiles[i+4]=(4<<TILING_SHIFT) | time;
+		}
+	}
+}
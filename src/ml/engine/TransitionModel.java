@@ -0,0 +1,454 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.engine;
+
+import java.util.Arrays;
+
+/**
+ * The Class TransitionModel that learns, from the steps of the world, a compact model of the observed
+ * transitions, so the learner can replay them without simulating the world (see {@link DynaPlanner}).
+ * For each observed (state, action) pair, the model keeps the number of observations, the mean reward
+ * and the mean discount of the transitions (the discount is smaller for the macro-transitions over the
+ * idle periods), and the last (next state, next action) pair that followed it. The world is stochastic,
+ * and the states do not hold the passengers, so the last successor is a sample of the successors, as
+ * in Dyna-Q with a sample model.
+ * <p>
+ * The pairs are entries in primitive arrays, found through an open addressing hash table keyed by
+ * (state index, action). The entries that lead to the same next pair are linked in a list, so the
+ * predecessors of a pair can be visited when its Q value changes. The arrays grow with the observed
+ * pairs, up to a given capacity; once the model is full, only the known pairs are updated.
+ */
+public class TransitionModel {
+
+	/** The Constant DEFAULT_CAPACITY that defines the default largest number of pairs. */
+	public static final int DEFAULT_CAPACITY=1<<22;
+
+	/** The Constant INITIAL_CAPACITY. */
+	private static final int INITIAL_CAPACITY=1<<16;
+
+	/** The Constant NONE that marks the absent entries. */
+	public static final int NONE=-1;
+
+	/** The Constant EMPTY_KEY that marks the empty slots of the predecessor lists. */
+	private static final long EMPTY_KEY=-1;
+
+	/** The Constant HASH_MIX used to spread the keys (the golden ratio). */
+	private static final long HASH_MIX=0x9E3779B97F4A7C15L;
+
+	/** The largest number of pairs. */
+	private int capacity;
+
+	/** The number of pairs. */
+	private int size;
+
+	/** The key of each entry: state index * ACTION_COUNT + action. */
+	private long[] keys;
+
+	/** The key of the last next pair of each entry. */
+	private long[] nextKeys;
+
+	/** The sum of the rewards of each entry. */
+	private double[] rewardSums;
+
+	/** The sum of the discounts of each entry. */
+	private double[] discountSums;
+
+	/** The number of observations of each entry. */
+	private int[] counts;
+
+	/** The next entry in the list of the predecessors of the same next pair, or NONE. */
+	private int[] predecessorNext;
+
+	/** The previous entry in the list of the predecessors of the same next pair, or NONE. */
+	private int[] predecessorPrevious;
+
+	/** The hash table of the entries: entry+1 for each slot, or 0 for the empty slots. */
+	private int[] slots;
+
+	/** The hash table of the predecessor lists: the key of the next pair of each slot, or EMPTY_KEY. */
+	private long[] headKeys;
+
+	/** The hash table of the predecessor lists: the first entry of each slot. An emptied list keeps its
+	 * slot, with the head NONE. */
+	private int[] heads;
+
+	/** The number of used slots in the hash table of the predecessor lists. */
+	private int headCount;
+
+	/** The number of observations that were not recorded, as the model was full. */
+	private long droppedCount;
+
+	/**
+	 * Instantiates a new transition model, with the default capacity.
+	 */
+	public TransitionModel() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new transition model.
+	 *
+	 * @param capacity the largest number of (state, action) pairs
+	 */
+	public TransitionModel(int capacity) {
+		super();
+		if(capacity<1)
+			throw new IllegalArgumentException("The capacity must be at least 1: "+capacity);
+		this.capacity=capacity;
+		int initial=Math.min(capacity, INITIAL_CAPACITY);
+		keys=new long[initial];
+		nextKeys=new long[initial];
+		rewardSums=new double[initial];
+		discountSums=new double[initial];
+		counts=new int[initial];
+		predecessorNext=new int[initial];
+		predecessorPrevious=new int[initial];
+		slots=new int[Integer.highestOneBit(initial)*4];
+		headKeys=new long[slots.length];
+		heads=new int[slots.length];
+		Arrays.fill(headKeys, EMPTY_KEY);
+	}
+
+	/**
+	 * Gets the key of a pair.
+	 *
+	 * @param stateIndex the state index
+	 * @param action the action
+	 * @return the key
+	 */
+	private static long getKey(int stateIndex, int action)
+	{
+		return (long) stateIndex*Action.ACTION_COUNT+action;
+	}
+
+	/**
+	 * Gets the first slot of a key in a hash table.
+	 *
+	 * @param key the key
+	 * @param length the length of the table, a power of 2
+	 * @return the slot
+	 */
+	private static int getSlot(long key, int length)
+	{
+		return (int) ((key*HASH_MIX)>>>32) & (length-1);
+	}
+
+	/**
+	 * Finds the entry of a pair.
+	 *
+	 * @param stateIndex the state index
+	 * @param action the action
+	 * @return the entry, or NONE if the pair was not observed
+	 */
+	public int find(int stateIndex, int action)
+	{
+		return find(getKey(stateIndex, action));
+	}
+
+	/**
+	 * Finds the entry of a key.
+	 *
+	 * @param key the key
+	 * @return the entry, or NONE
+	 */
+	private int find(long key)
+	{
+		for(int slot=getSlot(key, slots.length);slots[slot]!=0;slot=(slot+1) & (slots.length-1))
+			if(keys[slots[slot]-1]==key)
+				return slots[slot]-1;
+		return NONE;
+	}
+
+	/**
+	 * Finds the slot of the predecessor list of a next pair.
+	 *
+	 * @param nextKey the key of the next pair
+	 * @return the slot, either used by the key or the empty slot where it should be added
+	 */
+	private int findHead(long nextKey)
+	{
+		int slot=getSlot(nextKey, heads.length);
+		while(headKeys[slot]!=EMPTY_KEY && headKeys[slot]!=nextKey)
+			slot=(slot+1) & (headKeys.length-1);
+		return slot;
+	}
+
+	/**
+	 * Records an observed transition.
+	 *
+	 * @param stateIndex the index of the state
+	 * @param action the action
+	 * @param reward the reward
+	 * @param discount the discount of the value of the next pair
+	 * @param nextStateIndex the index of the next state
+	 * @param nextAction the action chosen in the next state
+	 * @return the entry of the pair, or NONE if the model is full
+	 */
+	public int record(int stateIndex, int action, double reward, double discount, int nextStateIndex, int nextAction)
+	{
+		long key=getKey(stateIndex, action);
+		long nextKey=getKey(nextStateIndex, nextAction);
+		int entry=find(key);
+		if(entry==NONE)
+		{
+			if(size==capacity)
+			{
+				droppedCount++;
+				return NONE;
+			}
+			if(size==keys.length)
+				grow();
+			entry=size++;
+			keys[entry]=key;
+			rewardSums[entry]=discountSums[entry]=counts[entry]=0;
+			int slot=getSlot(key, slots.length);
+			while(slots[slot]!=0)
+				slot=(slot+1) & (slots.length-1);
+			slots[slot]=entry+1;
+			link(entry, nextKey);
+		}
+		else if(nextKeys[entry]!=nextKey)
+		{
+			unlink(entry);
+			link(entry, nextKey);
+		}
+		rewardSums[entry]+=reward;
+		discountSums[entry]+=discount;
+		counts[entry]++;
+		return entry;
+	}
+
+	/**
+	 * Adds an entry at the start of the predecessor list of a next pair.
+	 *
+	 * @param entry the entry
+	 * @param nextKey the key of the next pair
+	 */
+	private void link(int entry, long nextKey)
+	{
+		nextKeys[entry]=nextKey;
+		int slot=findHead(nextKey);
+		if(headKeys[slot]==EMPTY_KEY)
+		{
+			headKeys[slot]=nextKey;
+			heads[slot]=NONE;
+			headCount++;
+		}
+		int head=heads[slot];
+		predecessorPrevious[entry]=NONE;
+		predecessorNext[entry]=head;
+		if(head!=NONE)
+			predecessorPrevious[head]=entry;
+		heads[slot]=entry;
+		//The slots of the emptied lists are kept, so the table of the lists grows with its slots
+		if(2*headCount>headKeys.length)
+			rehashHeads(headKeys.length*2);
+	}
+
+	/**
+	 * Removes an entry from the predecessor list of its next pair.
+	 *
+	 * @param entry the entry
+	 */
+	private void unlink(int entry)
+	{
+		int previous=predecessorPrevious[entry];
+		int next=predecessorNext[entry];
+		if(previous!=NONE)
+			predecessorNext[previous]=next;
+		else
+			heads[findHead(nextKeys[entry])]=next;
+		if(next!=NONE)
+			predecessorPrevious[next]=previous;
+	}
+
+	/**
+	 * Doubles the arrays of the entries, and the hash table of the entries.
+	 */
+	private void grow()
+	{
+		int length=(int) Math.min(capacity, 2L*keys.length);
+		keys=Arrays.copyOf(keys, length);
+		nextKeys=Arrays.copyOf(nextKeys, length);
+		rewardSums=Arrays.copyOf(rewardSums, length);
+		discountSums=Arrays.copyOf(discountSums, length);
+		counts=Arrays.copyOf(counts, length);
+		predecessorNext=Arrays.copyOf(predecessorNext, length);
+		predecessorPrevious=Arrays.copyOf(predecessorPrevious, length);
+		if(2*length>slots.length)
+		{
+			slots=new int[Integer.highestOneBit(length)*4];
+			for(int entry=0;entry<size;entry++)
+			{
+				int slot=getSlot(keys[entry], slots.length);
+				while(slots[slot]!=0)
+					slot=(slot+1) & (slots.length-1);
+				slots[slot]=entry+1;
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the hash table of the predecessor lists with a given length.
+	 *
+	 * @param length the length, a power of 2
+	 */
+	private void rehashHeads(int length)
+	{
+		long[] oldKeys=headKeys;
+		int[] oldHeads=heads;
+		headKeys=new long[length];
+		heads=new int[length];
+		Arrays.fill(headKeys, EMPTY_KEY);
+		for(int i=0;i<oldKeys.length;i++)
+			if(oldKeys[i]!=EMPTY_KEY)
+			{
+				int slot=findHead(oldKeys[i]);
+				headKeys[slot]=oldKeys[i];
+				heads[slot]=oldHeads[i];
+			}
+	}
+
+	/**
+	 * Gets the first of the entries whose last next pair is a given pair.
+	 *
+	 * @param stateIndex the state index of the next pair
+	 * @param action the action of the next pair
+	 * @return the entry, or NONE
+	 */
+	public int getFirstPredecessor(int stateIndex, int action)
+	{
+		int slot=findHead(getKey(stateIndex, action));
+		return headKeys[slot]==EMPTY_KEY?NONE:heads[slot];
+	}
+
+	/**
+	 * Gets the entry that follows an entry in the list of the predecessors of its next pair.
+	 *
+	 * @param entry the entry
+	 * @return the next predecessor, or NONE
+	 */
+	public int getNextPredecessor(int entry)
+	{
+		return predecessorNext[entry];
+	}
+
+	/**
+	 * Gets the state index of an entry.
+	 *
+	 * @param entry the entry
+	 * @return the state index
+	 */
+	public int getState(int entry)
+	{
+		return (int) (keys[entry]/Action.ACTION_COUNT);
+	}
+
+	/**
+	 * Gets the action of an entry.
+	 *
+	 * @param entry the entry
+	 * @return the action
+	 */
+	public int getAction(int entry)
+	{
+		return (int) (keys[entry]%Action.ACTION_COUNT);
+	}
+
+	/**
+	 * Gets the state index of the last next pair of an entry.
+	 *
+	 * @param entry the entry
+	 * @return the next state index
+	 */
+	public int getNextState(int entry)
+	{
+		return (int) (nextKeys[entry]/Action.ACTION_COUNT);
+	}
+
+	/**
+	 * Gets the action of the last next pair of an entry.
+	 *
+	 * @param entry the entry
+	 * @return the next action
+	 */
+	public int getNextAction(int entry)
+	{
+		return (int) (nextKeys[entry]%Action.ACTION_COUNT);
+	}
+
+	/**
+	 * Gets the mean reward of an entry.
+	 *
+	 * @param entry the entry
+	 * @return the mean reward
+	 */
+	public double getMeanReward(int entry)
+	{
+		return rewardSums[entry]/counts[entry];
+	}
+
+	/**
+	 * Gets the mean discount of an entry.
+	 *
+	 * @param entry the entry
+	 * @return the mean discount
+	 */
+	public double getMeanDiscount(int entry)
+	{
+		return discountSums[entry]/counts[entry];
+	}
+
+	/**
+	 * Gets the number of observations of an entry.
+	 *
+	 * @param entry the entry
+	 * @return the count
+	 */
+	public int getCount(int entry)
+	{
+		return counts[entry];
+	}
+
+	/**
+	 * Gets the number of observed pairs.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the number of observations that were not recorded, as the model was full.
+	 *
+	 * @return the dropped count
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Estimates the heap memory used by the model, in bytes.
+	 *
+	 * @return the memory estimate
+	 */
+	public long getMemoryEstimate()
+	{
+		return (long) keys.length*(8+8+8+8+4+4+4)+slots.length*4L+heads.length*(8L+4);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "TransitionModel [pairs="+size+", dropped="+droppedCount+", memory="+(getMemoryEstimate()>>20)+" MB]";
+	}
+}
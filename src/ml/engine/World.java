@@ -11,13 +11,18 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.SplittableRandom;
 
+import ml.metrics.JourneyStatistics;
+import ml.metrics.ResultsStore;
+import ml.metrics.RollingAverage;
+import ml.scenario.ScenarioCache;
 import ml.scenario.ScenarioEvent;
 import ml.scenario.ScenarioGenerator;
+import ml.scenario.ScenarioStream;
+import ml.trace.TraceReader;
+import ml.trace.TraceRecorder;
 
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Level;
@@ -29,8 +34,6 @@ import org.apache.log4j.PatternLayout;
  */
 public class World {
 	
-	/** The WORL d_ run. */
-	private static int WORLD_RUN=0;
 	
 	/** The Constant REWARD_TIME_LIMIT that defines the number of delay time units that are
 	 * still positively rewarded. After that, the reward gets strictly negative. */
@@ -40,10 +43,36 @@ public class World {
 	private static final int REWARD_PER_UNIT=-1;
 	
 	/** The Constant EPISODE_SIZE that defines the number of identical "days" in an episode. */
-	private static final int EPISODE_SIZE=2000;
+	static final int EPISODE_SIZE=2000;
+	
+	/** The Constant RESULT_COLUMNS that names the columns of the results of an episode. */
+	public static final String[] RESULT_COLUMNS=new String[2+JourneyStatistics.COLUMNS.length];
+	
+	static {
+		RESULT_COLUMNS[0]="daily";
+		RESULT_COLUMNS[1]="rolling";
+		System.arraycopy(JourneyStatistics.COLUMNS, 0, RESULT_COLUMNS, 2, JourneyStatistics.COLUMNS.length);
+	}
+	
+	/** The Constant TRACE_PROPERTY that defines the system property with the file in which the main
+	 * method traces the steps. */
+	public static final String TRACE_PROPERTY="ml.trace";
+	
+	/** The Constant FAST_FORWARD_PROPERTY that defines the system property that enables, if true, the
+	 * skipping of the idle periods in the main method. */
+	public static final String FAST_FORWARD_PROPERTY="ml.fastforward";
+	
+	/** The Constant SCENARIO_CACHE_PROPERTY that defines the system property with the directory of the
+	 * {@link ScenarioCache} used by the main method. */
+	public static final String SCENARIO_CACHE_PROPERTY="ml.scenarios";
+	
+	/** The Constant SEED_PROPERTY that defines the system property with the master seed of the main
+	 * method, from which the random number generators of the world and of the learner are split, and
+	 * with which the scenarios are cached (default 1). Without it, the runs are not reproducible. */
+	public static final String SEED_PROPERTY="ml.seed";
 	
 	/** The Constant EPISODE_COUNT. */
-	private static final int EPISODE_COUNT=150;
+	public static final int EPISODE_COUNT=150;
 	
 	/** The Constant DAY_AVERAGE_START that defines the day moment when the average computation starts. */
 	private static final int DAY_AVERAGE_START=60*12; //12 o'clock in the middle of the day
@@ -58,168 +87,383 @@ public class World {
 	 * waitingMany to be enabled on the state. */
 	private static final int WAITING_THRESHOLD=3;
 	
-	/** The previous action. */
-	private int previousAction;
+	/** The Constant VALIDATE_REWARD that enables checking the incremental delay accounting against
+	 * the delays of all the passengers, on every step. Enabled with -Dml.validateReward=true. */
+	private static final boolean VALIDATE_REWARD=Boolean.getBoolean("ml.validateReward");
+	
+	/** The action of each car, in the current step. */
+	private int[] carActions;
+	
+	/** The previous action of each car. */
+	private int[] previousCarActions;
 	
-	/** The previous to previous action. */
-	private int prevPreviousAction;
+	/** The previous to previous action of each car. */
+	private int[] prevPreviousCarActions;
 	
-	/** The events. */
-	private ArrayList<ScenarioEvent> events;
+	/** The events, read through the stream's cursor. */
+	private ScenarioStream events;
 	
-	/** The current event index. */
-	private int currentEventIndex;
+	/** The event read from the scenario stream. Reused for every event. */
+	private ScenarioEvent incoming;
 	
 	/** The scenario generator. */
 	private ScenarioGenerator sg;
 	
-	/** The people waiting. */
-	private ArrayList<LinkedList<ScenarioEvent>> peopleWaiting;	
+	/** The people waiting, on each floor. */
+	private PassengerQueue[] peopleWaiting;	
 	
-	/** The people in e1. */
-	private LinkedList<ScenarioEvent> peopleInE1;
+	/** The building. */
+	private Building building;
 	
-	/** The people in e2. */
-	private LinkedList<ScenarioEvent> peopleInE2;
+	/** The people in each elevator. */
+	private ElevatorCar[] cars;
 	
 	/** The time. */
 	private int time;
 	
+	/** The number of passengers in the system (waiting or in the elevators). */
+	private int passengerCount;
+	
+	/** The number of passengers that showed up in the last step. */
+	private int stepInjected;
+	
+	/** The number of passengers that got in the elevators in the last step. */
+	private int stepBoarded;
+	
+	/** The number of passengers that got out of the elevators in the last step. */
+	private int stepAlighted;
+	
+	/** The sum of the show up times of the passengers in the system. */
+	private long sumShowUpTime;
+	
+	/** The sum of the distances (|start - stop|) of the passengers in the system. */
+	private long sumDistance;
+	
 	/** The daily average. */
 	private double dailyAverage;
 	
-	/** The monthly average. */
+	/** The monthly average: for each day, the average of the daily averages of the last
+	 * MONTH_AVERAGE_INTERVAL days. */
 	private double[] monthlyAverage;
 	
+	/** The daily averages of the days of the episode, with their rolling average over MONTH_AVERAGE_INTERVAL days. */
+	private RollingAverage dailyAverages;
+	
+	/** The percentiles of the wait time, ride time and delay of the completed journeys of the episode. */
+	private JourneyStatistics journeys;
+	
+	/** The columns of the results of an episode: the daily averages, their rolling averages and the
+	 * journey statistics of the days. */
+	private double[][] resultColumns;
+	
+	/** The store in which the results of the episodes are appended, opened on the first use if not set. */
+	private ResultsStore results;
+	
 	/** The average output. */
 	private BufferedWriter averageOutput; 
 	
-	/** The Constant log. */
-	private static final Logger log=Logger.getLogger(World.class);
+	/** The number of the current episode (run). */
+	private int worldRun;
+	
+	/** The name of the world, used to distinguish between worlds that run in parallel. Can be null. */
+	private String name;
+	
+	/** The directory in which the output files are written. */
+	private File outputDir;
+	
+	/** The cache that provides the scenarios of the episodes, or null if they are generated. */
+	private ScenarioCache scenarioCache;
+	
+	/** The seed of the scenarios of the episodes, if they are cached. */
+	private long scenarioSeed;
+	
+	/** The log. */
+	private Logger log;
 	
 	/**
-	 * Configure logger.
+	 * Configure logger. The console appender is added only once, to the logger of the class, and 
+	 * named worlds log through child loggers.
 	 */
 	private void configureLogger()
 	{
-		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
-		ConsoleAppender appender=new ConsoleAppender(patternLayout);
-		log.addAppender(appender);
-		log.setLevel(Level.INFO);		
+		Logger classLog=Logger.getLogger(World.class);
+		if(!classLog.getAllAppenders().hasMoreElements())
+		{
+			PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+			ConsoleAppender appender=new ConsoleAppender(patternLayout);
+			classLog.addAppender(appender);
+			classLog.setLevel(Level.INFO);
+		}
+		log=name==null?classLog:Logger.getLogger(World.class.getName()+"."+name);
 	}
 	
 	/**
 	 * Gets the delay time: TDestination − TShowUp − |StartFloor − StopFloor|.
 	 *
-	 * @param ev the event
+	 * @param showUpTime the show up time
+	 * @param startFloor the start floor
+	 * @param stopFloor the stop floor
 	 * @param stopTime the stop time
 	 * @return the delay (negative number)
 	 */
-	private int getDelay(ScenarioEvent ev, int stopTime)
+	private int getDelay(int showUpTime, int startFloor, int stopFloor, int stopTime)
 	{
-		if(ev.stopFloor>ev.startFloor)
-			return stopTime-ev.time-(ev.stopFloor-ev.startFloor);
+		if(stopFloor>startFloor)
+			return stopTime-showUpTime-(stopFloor-startFloor);
 		else
-			return stopTime-ev.time-(ev.startFloor-ev.stopFloor);
+			return stopTime-showUpTime-(startFloor-stopFloor);
+	}
+	
+	/** The Constant ACTION_MASKS that contains the possible actions in the default building, as masks,
+	 * for all the combinations of previous action, previous to previous action, E1 floor and E2 floor. */
+	private static final short[] ACTION_MASKS=buildActionMasks();
+	
+	/**
+	 * Builds the action masks table, using {@link #getPossibleActions(State, int, int, int[])}.
+	 *
+	 * @return the action masks
+	 */
+	private static short[] buildActionMasks()
+	{
+		short[] masks=new short[(Action.ACTION_COUNT+1)*(Action.ACTION_COUNT+1)*
+		                        ScenarioGenerator.FLOOR_COUNT*ScenarioGenerator.FLOOR_COUNT];
+		int[] actions=new int[Action.ACTION_COUNT];
+		State state=new State();
+		for(int previous=Action.NO_ACTION;previous<Action.ACTION_COUNT;previous++)
+			for(int prevPrevious=Action.NO_ACTION;prevPrevious<Action.ACTION_COUNT;prevPrevious++)
+				for(int e1=0;e1<ScenarioGenerator.FLOOR_COUNT;e1++)
+					for(int e2=0;e2<ScenarioGenerator.FLOOR_COUNT;e2++)
+					{
+						state.setElevator1Floor(e1);
+						state.setElevator2Floor(e2);
+						int count=getPossibleActions(state, previous, prevPrevious, actions);
+						int mask=0;
+						for(int i=0;i<count;i++)
+							mask|=1<<actions[i];
+						masks[getActionMaskIndex(e1, e2, previous, prevPrevious)]=(short) mask;
+					}
+		return masks;
 	}
 	
 	/**
-	 * Gets an array with the all the possible action starting from a given state.
+	 * Gets the index in the action masks table.
+	 *
+	 * @param e1Floor the E1 floor
+	 * @param e2Floor the E2 floor
+	 * @param previousAction the previous action
+	 * @param prevPreviousAction the prev previous action
+	 * @return the index
+	 */
+	private static int getActionMaskIndex(int e1Floor, int e2Floor, int previousAction, int prevPreviousAction)
+	{
+		return (((previousAction+1)*(Action.ACTION_COUNT+1)+prevPreviousAction+1)*ScenarioGenerator.FLOOR_COUNT+
+				e1Floor)*ScenarioGenerator.FLOOR_COUNT+e2Floor;
+	}
+	
+	/**
+	 * Gets the time interval of the day (0-5) in which a moment falls, as used in the states.
+	 *
+	 * @param time the time, in minutes
+	 * @return the time interval
+	 */
+	public static int getTimeInterval(int time)
+	{
+		int hour=(time%ScenarioGenerator.DAY_DURATION)/60;
+		if(hour<=6)
+			return 0;
+		else if(hour<=10)
+			return 1;
+		else if(hour<=12)
+			return 2;
+		else if(hour<=16)
+			return 3;
+		else if(hour<=19)
+			return 4;
+		else
+			return 5;
+	}
+	
+	/**
+	 * Gets all the possible actions starting from a given state of the default building, as a mask with
+	 * bit i set if action i is possible. The mask is read from a precomputed table. In other buildings,
+	 * the possible actions are obtained with {@link #getPossibleCarActions(State, int, int, int)}.
 	 *
 	 * @param state the state
 	 * @param previousAction the previous action
 	 * @param prevPreviousAction the prev previous action
-	 * @return the possible actions
+	 * @return the possible actions mask
+	 */
+	public static int getPossibleActionsMask(State state, int previousAction, int prevPreviousAction)
+	{
+		return ACTION_MASKS[getActionMaskIndex(state.getElevator1Floor(), state.getElevator2Floor(),
+				previousAction, prevPreviousAction)];
+	}
+	
+	/**
+	 * Gets the possible actions of a car, starting from a given state, as a mask with bit i set if the
+	 * car action i (Action.CAR_DOWN, CAR_STOP or CAR_UP) is possible. The cars are independent, so the
+	 * possible joint actions are all the combinations of the possible actions of the cars.
+	 *
+	 * @param state the state
+	 * @param car the car, from 0
+	 * @param previousAction the previous (joint) action
+	 * @param prevPreviousAction the prev previous (joint) action
+	 * @return the possible car actions mask
 	 */
-	public ArrayList<Integer> getPossibleActions(State state, Integer previousAction, Integer prevPreviousAction)
+	public static int getPossibleCarActions(State state, int car, int previousAction, int prevPreviousAction)
 	{
-		ArrayList<Integer> a=new ArrayList<Integer>();
-		boolean e1up, e2up, e1down, e2down;
-		e1up=e2up=e1down=e2down=true;
-		int e1a, e2a;
-		e1a=Action.getE1Action(previousAction);
-		e2a=Action.getE1Action(previousAction);
+		Building building=state.getBuilding();
+		int mask=(1<<Action.CAR_ACTION_COUNT)-1;
+		int previous=Action.getCarAction(previousAction, car, building);
+		int prevPrevious=Action.getCarAction(prevPreviousAction, car, building);
 		
 		//If elevator just stopped -> it can't move for 2 units
-		if(e1a==Action.E1_STOP && 
-				(Action.getE1Action(prevPreviousAction)==Action.E1_UP || 
-				 Action.getE1Action(prevPreviousAction)==Action.E1_DOWN))
-			e1up=e1down=false;
-		if(e2a==Action.E2_STOP &&
-				(Action.getE2Action(prevPreviousAction)==Action.E2_UP || 
-				 Action.getE2Action(prevPreviousAction)==Action.E2_DOWN))
-			e2up=e2down=false;
+		if(previous==Action.CAR_STOP && (prevPrevious==Action.CAR_UP || prevPrevious==Action.CAR_DOWN))
+			return 1<<Action.CAR_STOP;
 		
 		//If elevator is at top, it can't move up
-		if(state.getElevator1Floor()==ScenarioGenerator.MAX_FLOOR)
-			e1up=false;
-		if(state.getElevator2Floor()==ScenarioGenerator.MAX_FLOOR)
-			e2up=false;
+		int floor=state.getCarFloor(car);
+		if(floor==building.getMaxFloor())
+			mask&=~(1<<Action.CAR_UP);
 		
-		//If elevator is at bottom, it can't move up
-		if(state.getElevator1Floor()==ScenarioGenerator.MIN_FLOOR)
-			e1down=false;
-		if(state.getElevator2Floor()==ScenarioGenerator.MIN_FLOOR)
-			e2down=false;
+		//If elevator is at bottom, it can't move down
+		if(floor==ScenarioGenerator.MIN_FLOOR)
+			mask&=~(1<<Action.CAR_DOWN);
 		
-		//Generate actions
-		if(e1up)
-		{
-			a.add(Action.combine(Action.E1_UP, Action.E2_STOP));
-			if(e2up) a.add(Action.combine(Action.E1_UP, Action.E2_UP));
-			if(e2down) a.add(Action.combine(Action.E1_UP, Action.E2_DOWN));
-		}
-		if(e1down)
+		return mask;
+	}
+	
+	/**
+	 * Fills an array with the all the possible action starting from a given state.
+	 *
+	 * @param state the state
+	 * @param previousAction the previous action
+	 * @param prevPreviousAction the prev previous action
+	 * @param a the array in which the possible actions are stored, of size at least
+	 * {@link Building#getActionCount()}
+	 * @return the number of possible actions
+	 */
+	public static int getPossibleActions(State state, int previousAction, int prevPreviousAction, int[] a)
+	{
+		Building building=state.getBuilding();
+		int count=1;
+		a[0]=0;
+		
+		//Combine the actions of the previous cars with each of the actions of the car. The combinations
+		//are built from the last one, so they don't overwrite the ones not yet combined
+		for(int car=0;car<building.getCarCount();car++)
 		{
-			a.add(Action.combine(Action.E1_DOWN, Action.E2_STOP));
-			if(e2up) a.add(Action.combine(Action.E1_DOWN, Action.E2_UP));
-			if(e2down) a.add(Action.combine(Action.E1_DOWN, Action.E2_DOWN));
+			int mask=getPossibleCarActions(state, car, previousAction, prevPreviousAction);
+			int carCount=Integer.bitCount(mask);
+			for(int i=count-1;i>=0;i--)
+			{
+				int combined=a[i];
+				int j=i*carCount;
+				for(int m=mask;m!=0;m&=m-1)
+					a[j++]=Action.combineCarAction(combined, car, Integer.numberOfTrailingZeros(m), building);
+			}
+			count*=carCount;
 		}
-		//The elevator can stop at any time
-		a.add(Action.combine(Action.E1_STOP, Action.E2_STOP));
-		if(e2up) a.add(Action.combine(Action.E1_STOP, Action.E2_UP));
-		if(e2down) a.add(Action.combine(Action.E1_STOP, Action.E2_DOWN));
-	
 		
-		return a;
+		return count;
 	}
 	
 	/**
-	 * Instantiates a new world.
+	 * Gets a random action, uniformly distributed among the possible actions starting from a given state.
+	 * The action of each car is chosen independently, so the joint actions are not enumerated.
+	 *
+	 * @param state the state
+	 * @param previousAction the previous action
+	 * @param prevPreviousAction the prev previous action
+	 * @param rand the random number generator
+	 * @return the action
+	 */
+	public static int getRandomAction(State state, int previousAction, int prevPreviousAction, SplittableRandom rand)
+	{
+		Building building=state.getBuilding();
+		int action=0;
+		for(int car=0;car<building.getCarCount();car++)
+			action=Action.combineCarAction(action, car, Action.getRandomAction(
+					getPossibleCarActions(state, car, previousAction, prevPreviousAction), rand), building);
+		return action;
+	}
+	
+	/**
+	 * Instantiates a new world, that writes its output in the current directory.
 	 */
 	public World() {
+		this(null, new File("."), new SplittableRandom());
+	}
+	
+	/**
+	 * Instantiates a new world.
+	 *
+	 * @param name the name of the world, used for the logger. Can be null.
+	 * @param outputDir the directory in which the output files are written
+	 * @param rand the random number generator used for generating the scenarios
+	 */
+	public World(String name, File outputDir, SplittableRandom rand) {
+		this(name, outputDir, rand, Building.DEFAULT);
+	}
+	
+	/**
+	 * Instantiates a new world, in a given building.
+	 *
+	 * @param name the name of the world, used for the logger. Can be null.
+	 * @param outputDir the directory in which the output files are written
+	 * @param rand the random number generator used for generating the scenarios
+	 * @param building the building
+	 */
+	public World(String name, File outputDir, SplittableRandom rand, Building building) {
 		//Config the logger
+		this.name=name;
+		this.outputDir=outputDir;
 		configureLogger();
 		
 		//Init file for average output
 		try {
-			averageOutput = new BufferedWriter(new FileWriter("out_averages"));
-			new File("octave").mkdir();
+			averageOutput = new BufferedWriter(new FileWriter(new File(outputDir, "out_averages")));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		
 		//Init the scenario & events
-		sg=new ScenarioGenerator();
+		this.building=building;
+		sg=new ScenarioGenerator(rand, building.getFloorCount());
+		worldRun=0;
 		time=-1;
 		
-		peopleInE1=new LinkedList<ScenarioEvent>();
-		peopleInE2=new LinkedList<ScenarioEvent>();
-		peopleWaiting=new ArrayList<LinkedList<ScenarioEvent>>(ScenarioGenerator.FLOOR_COUNT);
-		for(int i=0;i<ScenarioGenerator.FLOOR_COUNT;i++)
-			peopleWaiting.add(new LinkedList<ScenarioEvent>());		
+		cars=new ElevatorCar[building.getCarCount()];
+		for(int i=0;i<cars.length;i++)
+			cars[i]=new ElevatorCar(building.getFloorCount());
+		peopleWaiting=new PassengerQueue[building.getFloorCount()];
+		for(int i=0;i<peopleWaiting.length;i++)
+			peopleWaiting[i]=new PassengerQueue();		
 		
 		//Generate episode 
-		events=sg.generateScenarioIdenticalDays(EPISODE_SIZE);
-		currentEventIndex=0;
-		previousAction=Action.NO_ACTION;
-		prevPreviousAction=Action.NO_ACTION;
+		events=sg.generateScenarioStream(EPISODE_SIZE);
+		incoming=new ScenarioEvent();
+		carActions=new int[building.getCarCount()];
+		previousCarActions=new int[building.getCarCount()];
+		prevPreviousCarActions=new int[building.getCarCount()];
+		Arrays.fill(previousCarActions, Action.NO_ACTION);
+		Arrays.fill(prevPreviousCarActions, Action.NO_ACTION);
 		this.monthlyAverage=new double[EPISODE_SIZE];
+		this.dailyAverages=new RollingAverage(MONTH_AVERAGE_INTERVAL, EPISODE_SIZE);
+		int[] intervalOfMinute=new int[ScenarioGenerator.DAY_DURATION];
+		for(int m=0;m<intervalOfMinute.length;m++)
+			intervalOfMinute[m]=getTimeInterval(m);
+		this.journeys=new JourneyStatistics(building.getFloorCount(), intervalOfMinute,
+				Building.TIME_INTERVAL_COUNT, EPISODE_SIZE);
+		this.resultColumns=new double[RESULT_COLUMNS.length][];
+		resultColumns[0]=new double[EPISODE_SIZE];
+		resultColumns[1]=new double[EPISODE_SIZE];
+		System.arraycopy(journeys.getColumns(), 0, resultColumns, 2, JourneyStatistics.COLUMNS.length);
 		
 		//Logging
 		log.info("Generated scenario with "+events.size()+" events.");
 		if(log.isDebugEnabled())
-			for(ScenarioEvent ev:events)
+			for(ScenarioEvent ev:events.getDayEvents())
 				log.debug(ev);
 		log.info("World initialized.");		
 	}
@@ -229,8 +473,8 @@ public class World {
 	 *
 	 * @return the state
 	 */
-	private State generateStartState() {
-		State state=new State();
+	public State generateStartState() {
+		State state=new State(building);
 		state.setTimeInterval((byte) 0);
 		return state;
 	}
@@ -244,18 +488,25 @@ public class World {
 	 */
 	public State getNextState(State currentState, int action)
 	{
-		assert(this.peopleInE1.size()<10);
-		assert(this.peopleInE2.size()<10);
-		for(LinkedList<ScenarioEvent> l:this.peopleWaiting)
-			assert(l.size()<100);
-		State state=new State();
+		State state=new State(building);
+		getNextState(currentState, action, state);
+		return state;
+	}
+	
+	/**
+	 * Gets the next state, storing it in a given state object, so no allocation is done.
+	 *
+	 * @param currentState the current state
+	 * @param action the action
+	 * @param state the state in which the next state is stored. Must not be {@code currentState}.
+	 */
+	public void getNextState(State currentState, int action, State state)
+	{
+		state.clear();
+		stepInjected=stepBoarded=stepAlighted=0;
 	
 		//Update people waiting
-		for(int i=0;i<ScenarioGenerator.FLOOR_COUNT;i++)
-		{
-			state.setWaiting(i,State.UP,currentState.getWaiting(i,State.UP));
-			state.setWaiting(i,State.DOWN,currentState.getWaiting(i,State.DOWN));
-		}
+		state.copyWaiting(currentState);
 
 		//Update the world data
 		time++;
@@ -263,36 +514,15 @@ public class World {
 		
 		//Time interval
 		//state.setTimeInterval((byte) (time/60/2));
-		int hour=(time%ScenarioGenerator.DAY_DURATION)/60;
-		if(hour<=6)
-			state.setTimeInterval(0);
-		else if(hour<=10)
-			state.setTimeInterval(1);
-		else if(hour<=12)
-			state.setTimeInterval(2);
-		else if(hour<=16)
-			state.setTimeInterval(3);
-		else if(hour<=19)
-			state.setTimeInterval(4);
-		else
-			state.setTimeInterval(5);
+		state.setTimeInterval(getTimeInterval(time));
 			
 
 		//Next elevator positions
-		switch(Action.getE1Action(action))
-		{
-		case Action.E1_UP: 		state.setElevator1Floor((byte) (currentState.getElevator1Floor()+1)); break;
-		case Action.E1_STOP: 	state.setElevator1Floor((byte) (currentState.getElevator1Floor())); break;
-		case Action.E1_DOWN: 	state.setElevator1Floor((byte) (currentState.getElevator1Floor()-1)); break;
-		default: log.fatal("Illegal action for E1: "+action);
-		}
-		switch(Action.getE2Action(action))
-		{
-		case Action.E2_UP: 		state.setElevator2Floor((byte) (currentState.getElevator2Floor()+1)); break;
-		case Action.E2_STOP: 	state.setElevator2Floor((byte) (currentState.getElevator2Floor())); break;
-		case Action.E2_DOWN: 	state.setElevator2Floor((byte) (currentState.getElevator2Floor()-1)); break;
-		default: log.fatal("Illegal action for E2: "+action);
-		}
+		if(action<0 || action>=building.getActionCount())
+			log.fatal("Illegal action: "+action);
+		Action.getCarActions(action, building, carActions);
+		for(int car=0;car<cars.length;car++)
+			state.setCarFloor(car, currentState.getCarFloor(car)+carActions[car]-Action.CAR_STOP);
 		
 		/** Update the people waiting, in the elevators and update the destinations in the state
 		 * 
@@ -301,184 +531,151 @@ public class World {
 		 * 
 		 * If the current action is to move, just update the destinations for the people inside
 		 */
-		/* Case 1 - Elevator is stopped - Elevator 1 */
-		if(Action.getE1Action(action)==Action.E1_STOP)
+		for(int car=0;car<cars.length;car++)
+		{
+			ElevatorCar people=cars[car];
+			int floor=state.getCarFloor(car);
+			int previous=previousCarActions[car];
 			
-			/* CASE 1.1
-			 * If the elevator just stopped, the people inside should get out 
-			 */
-			if(Action.getE1Action(previousAction)==Action.E1_DOWN || 
-					Action.getE1Action(previousAction)==Action.E1_UP)
-			{
-				Iterator<ScenarioEvent> it=peopleInE1.iterator();
-				// See which passengers should go out and also update the destinations
-				while(it.hasNext())
+			/* Case 1 - Elevator is stopped */
+			if(carActions[car]==Action.CAR_STOP)
+				
+				/* CASE 1.1
+				 * If the elevator just stopped, the people inside should get out 
+				 */
+				if(previous==Action.CAR_DOWN || previous==Action.CAR_UP)
 				{
-					ScenarioEvent ev=it.next();
-					//If the passenger's destination is current floor, get out 
-					if(ev.stopFloor==state.getElevator1Floor())
-					{
-						//log.debug("Passenger from E1 reached destination: "+ev);
-						//Remove from elevator
-						it.remove();
-					}
-					else
-						//Going up
-						if(ev.startFloor>ev.stopFloor)
-							state.setDestinationE1(State.ABOVE,true);
-						//Going down
-						else 
-							state.setDestinationE1(State.BELOW,true);					
+					//The passengers whose destination is the current floor get out
+					unloadPassengers(people, floor);
+					//Update destinations for the people who remain
+					updateDestinations(state, car, people);
 				}
-			}
-			
-		
-			/* CASE 1.2
-			 * If the elevator stopped the previous step (was already stopped), the people outside should get in 
-			 */
-			else
-			{
-				Iterator<ScenarioEvent> it=peopleWaiting.get(state.getElevator1Floor()).iterator();
-				boolean moreWaiting=false;
 				
-				//Update destinations for people who are in the elevator
-				updateDestinations(state, 1, peopleInE1);
-				
-				//See which passengers want to use the elevator and also update the destinations for people going in 
-				while(it.hasNext())
+				/* CASE 1.2
+				 * If the elevator stopped the previous step (was already stopped), the people outside should get in 
+				 */
+				else
 				{
-					ScenarioEvent ev=it.next();
-					//If the passenger wants to go in the same direction as the elevator was going, hop in
-					if(personShouldGoIn(Action.getE1Action(prevPreviousAction), ev))
-					{
-						//Check if the elevator is full
-						if(peopleInE1.size()>=ScenarioGenerator.ELEVATOR_CAPACITY)
+					int prevPrevious=prevPreviousCarActions[car];
+					boolean moreWaiting=loadPassengers(people, floor, prevPrevious);
+					
+					//Update destinations for people who are in the elevator, including the ones that got in
+					updateDestinations(state, car, people);
+					
+					//Mark if no more people are waiting on this floor to go in the same direction as the elevator
+					if(!moreWaiting)
+						if(prevPrevious==Action.CAR_UP)
+							state.setWaiting(floor, State.UP, false);
+						else if(prevPrevious==Action.CAR_DOWN)
+							state.setWaiting(floor, State.DOWN, false);
+						else
 						{
-							//log.debug("E1 is full");
-							moreWaiting=true;
-							break;
+							state.setWaiting(floor, State.UP, false);
+							state.setWaiting(floor, State.DOWN, false);
 						}
-						//log.debug("Passenger going in E1:"+ev);
-						//Remove from waiting
-						it.remove();
-						//Add in elevator
-						peopleInE1.add(ev);
-						//Update destinations
-						if(ev.startFloor>ev.stopFloor)
-							state.setDestinationE1(State.BELOW,true);
-						else
-							state.setDestinationE1(State.ABOVE,true);
-					}
 				}
-				//Mark if no more people are waiting on this floor to go in the same direction as the elevator
-				if(!moreWaiting)
-					if(Action.getE1Action(prevPreviousAction)==Action.E1_UP)
-						state.setWaiting(state.getElevator1Floor(), State.UP, false);
-					else if(Action.getE1Action(prevPreviousAction)==Action.E1_DOWN)
-						state.setWaiting(state.getElevator1Floor(), State.DOWN, false);
-					else
-					{
-						state.setWaiting(state.getElevator1Floor(), State.UP, false);
-						state.setWaiting(state.getElevator1Floor(), State.DOWN, false);
-					}
+			/* CASE 2 - Elevator is moving */
+			else
+			{
+				updateDestinations(state, car, people);
 			}
-		/* CASE 2 - Elevator is moving - Elevator 1*/
-		else
-		{
-			updateDestinations(state, 1, peopleInE1);
 		}
+			
+		//Update actions
+		int[] swap=prevPreviousCarActions;
+		prevPreviousCarActions=previousCarActions;
+		previousCarActions=carActions;
+		carActions=swap;
+	}
+	
+	/**
+	 * Fast-forwards the world over an idle period: if no passenger is in the system, the time jumps to
+	 * the minute before the next event, so the following step injects it. The skipped steps are a
+	 * macro-transition in which the cars stay stopped on their floors, so they have no reward (there is
+	 * no delay) and the cars are seen as stopped for long. The minutes in which the daily average delay
+	 * is computed are never skipped, so the averages are the same as without skipping.
+	 *
+	 * @param state the state reached by the last step, whose time interval is updated
+	 * @return the number of skipped steps, 0 if the world is not idle
+	 */
+	public int fastForward(State state)
+	{
+		if(passengerCount>0 || !events.hasNext())
+			return 0;
+		int target=events.peekTime()-1;
 		
+		//Stop before the next minute in which the average is computed
+		int dayStart=(time+1)/ScenarioGenerator.DAY_DURATION*ScenarioGenerator.DAY_DURATION;
+		int averageStart=dayStart+DAY_AVERAGE_START;
+		if(time+1>dayStart+DAY_AVERAGE_END)
+			averageStart+=ScenarioGenerator.DAY_DURATION;
+		target=Math.min(target, averageStart-1);
+		if(target<=time)
+			return 0;
 		
-		/* Case 1 - Elevator is stopped - Elevator 2 */
-		if(Action.getE2Action(action)==Action.E2_STOP)
-
-			/* CASE 1.1
-			 * If the elevator just stopped, the people inside should get out 
-			 */
-			if(Action.getE1Action(previousAction)==Action.E2_DOWN || 
-				Action.getE2Action(previousAction)==Action.E2_UP)
-			{
-				Iterator<ScenarioEvent> it=peopleInE2.iterator();
-				// See which passengers should go up and also update the destinations
-				while(it.hasNext())
-				{
-					ScenarioEvent ev=it.next();
-					//If the passenger's destination is current floor, get out 
-					if(ev.stopFloor==state.getElevator2Floor())
-					{
-						//log.debug("Passenger from E2 reached destination: "+ev);
-						//Remove from elevator
-						it.remove();
-					}
-					else
-						//Going up
-						if(ev.startFloor>ev.stopFloor)
-							state.setDestinationE2(State.ABOVE, true);
-						//Going down
-						else 
-							state.setDestinationE2(State.ABOVE, false);							
-				}
-			}
+		int skipped=target-time;
+		time=target;
+		state.setTimeInterval(getTimeInterval(time));
+		Arrays.fill(previousCarActions, Action.CAR_STOP);
+		Arrays.fill(prevPreviousCarActions, Action.CAR_STOP);
+		stepInjected=stepBoarded=stepAlighted=0;
+		return skipped;
+	}
+	
+	/**
+	 * Unloads all the passengers in an elevator that reached their destination.
+	 *
+	 * @param car the elevator
+	 * @param floor the current floor of the elevator
+	 */
+	private void unloadPassengers(ElevatorCar car, int floor)
+	{
+		passengerCount-=car.getCount(floor);
+		stepAlighted+=car.getCount(floor);
+		sumShowUpTime-=car.getSumShowUpTime(floor);
+		sumDistance-=car.getSumDistance(floor);
+		car.unload(floor, time, journeys);
+	}
+	
+	/**
+	 * Loads in an elevator the passengers waiting on its floor that want to use it, until it is full.
+	 * The passengers that don't get in keep their order in the queue.
+	 *
+	 * @param car the elevator
+	 * @param floor the current floor of the elevator
+	 * @param prevDirection the direction in which the elevator was going, if any
+	 * @return true, if passengers that wanted to get in were left waiting, as the elevator is full
+	 */
+	private boolean loadPassengers(ElevatorCar car, int floor, int prevDirection)
+	{
+		PassengerQueue waiting=peopleWaiting[floor];
+		boolean moreWaiting=false;
 		
-			/* CASE 1.2
-			 * If the elevator stopped the previous step (was already stopped), the people outside should get in 
-			 */
-			else
+		//Every passenger is taken from the head of the queue and either gets in, or is added back at the end 
+		int count=waiting.size();
+		for(int i=0;i<count;i++)
+		{
+			int showUpTime=waiting.getTime(0);
+			int startFloor=waiting.getStartFloor(0);
+			int stopFloor=waiting.getStopFloor(0);
+			waiting.removeFirst();
+			
+			//If the passenger wants to go in the same direction as the elevator was going, hop in
+			if(!moreWaiting && personShouldGoIn(prevDirection, startFloor, stopFloor))
 			{
-				Iterator<ScenarioEvent> it=peopleWaiting.get(state.getElevator2Floor()).iterator();
-				boolean moreWaiting=false;
-				//Update destinations for people who are in the elevator
-				updateDestinations(state, 2, peopleInE2);
-				
-				//See which passengers want to use the elevator and also update the destinations for people going in 
-				while(it.hasNext())
+				//Check if the elevator is full
+				if(car.size()>=ScenarioGenerator.ELEVATOR_CAPACITY)
+					moreWaiting=true;
+				else
 				{
-					ScenarioEvent ev=it.next();
-					//If the passenger wants to go in the same direction as the elevator was going, hop in
-					if(personShouldGoIn(Action.getE1Action(prevPreviousAction), ev))
-					{
-						//Check if the elevator is full
-						if(peopleInE2.size()>=ScenarioGenerator.ELEVATOR_CAPACITY)
-						{
-							//log.debug("E2 is full");
-							moreWaiting=true;
-							break;
-						}
-						//log.debug("Passenger going in E2:"+ev);
-						//Remove from waiting
-						it.remove();
-						//Add in elevator
-						peopleInE2.add(ev);
-						//Update destinations
-						if(ev.startFloor>ev.stopFloor)
-							state.setDestinationE2(State.BELOW, true);
-						else
-							state.setDestinationE2(State.ABOVE, true);
-					}
+					car.board(showUpTime, startFloor, stopFloor, time);
+					stepBoarded++;
+					continue;
 				}
-				//Mark if no more people are waiting on this floor to go in the same direction as the elevator
-				if(!moreWaiting)
-					if(Action.getE2Action(prevPreviousAction)==Action.E2_UP)
-						state.setWaiting(state.getElevator2Floor(), State.UP, false);
-					else if(Action.getE2Action(prevPreviousAction)==Action.E2_DOWN)
-						state.setWaiting(state.getElevator2Floor(), State.DOWN, false);
-					else
-					{
-						state.setWaiting(state.getElevator2Floor(), State.UP, false);
-						state.setWaiting(state.getElevator2Floor(), State.DOWN, false);
-					}
 			}
-		/* CASE 2 - Elevator is moving - Elevator 2*/
-		else
-		{
-			updateDestinations(state, 2, peopleInE2);
+			waiting.add(showUpTime, startFloor, stopFloor);
 		}
-			
-		//Update actions
-		prevPreviousAction=previousAction;
-		previousAction=action;			
-		
-		return state;
+		return moreWaiting;
 	}
 	
 	/**
@@ -491,26 +688,49 @@ public class World {
 	 * 
 	 * @return the reward for current state
 	 */
-	public Double getRewardForCurrentState()
+	public double getRewardForCurrentState()
 	{
-		int delay=0;
+		//delay = sum(time - showUp - |start - stop|) over all the passengers in the system
+		long delay=passengerCount*(long)this.time-sumShowUpTime-sumDistance;
+		if(VALIDATE_REWARD)
+			validateDelay(delay);
+		
+		//Nobody in the building has no delay
+		computeAverage(passengerCount==0?0:(double)delay/passengerCount);
+		
+		return (double) (delay*REWARD_PER_UNIT);
+	}
+	
+	/**
+	 * Checks the incrementally computed delay and passenger count against the ones obtained by
+	 * iterating through all the passengers waiting and all the destination floors of the elevators.
+	 *
+	 * @param delay the incrementally computed delay
+	 */
+	private void validateDelay(long delay)
+	{
+		long bruteDelay=0;
 		int pplCount=0;
-		for(ScenarioEvent passenger:peopleInE1)
-			delay+=this.getDelay(passenger, this.time);
-		for(ScenarioEvent passenger:peopleInE2)
-			delay+=this.getDelay(passenger, this.time);
-		for(int i=0;i<ScenarioGenerator.FLOOR_COUNT;i++)
+		for(int i=0;i<peopleWaiting.length;i++)
 		{
-			for(ScenarioEvent passenger:peopleWaiting.get(i))
-				delay+=this.getDelay(passenger, this.time);
-			pplCount+=peopleWaiting.get(i).size();
+			PassengerQueue waiting=peopleWaiting[i];
+			for(int j=0;j<waiting.size();j++)
+				bruteDelay+=this.getDelay(waiting.getTime(j), waiting.getStartFloor(j), waiting.getStopFloor(j), this.time);
+			pplCount+=waiting.size();
+			
+			//The passengers in the elevators are only known grouped by destination floor
+			for(ElevatorCar car:cars)
+				bruteDelay+=(long)car.getCount(i)*this.time-car.getSumShowUpTime(i)-car.getSumDistance(i);
 		}
-		pplCount+=peopleInE1.size();
-		pplCount+=peopleInE2.size();
+		for(ElevatorCar car:cars)
+			pplCount+=car.size();
 		
-		computeAverage((double)delay/pplCount);
-		
-		return (double) (delay*REWARD_PER_UNIT);
+		if(bruteDelay!=delay || pplCount!=passengerCount)
+		{
+			log.fatal("Incremental delay "+delay+" for "+passengerCount+" passengers differs from "+
+					bruteDelay+" for "+pplCount+" passengers at time "+time);
+			throw new IllegalStateException("Incremental delay accounting is inconsistent.");
+		}
 	}
 	
 	/**
@@ -531,20 +751,23 @@ public class World {
 			
 			dailyAverage+=delayAverage;
 		
-			//If it's the daily average end, put the average in the "monthly" averages
-			//that it influences. 
+			//If it's the daily average end, the "monthly" average of the day is the rolling
+			//average that ends with it
 			if(dailyInterval==DAY_AVERAGE_END)
 			{
 				dailyAverage/=(DAY_AVERAGE_END-DAY_AVERAGE_START+1);
-				for(int i=0;i<MONTH_AVERAGE_INTERVAL && day+i<EPISODE_SIZE;i++)
-					monthlyAverage[i+day]+=dailyAverage;
+				dailyAverages.add(dailyAverage);
+				monthlyAverage[day]=dailyAverages.getAverage();
 			}
 		}		
 	}
 	
 	/**
-	 * Log statistics regarding average delays for the episode.
-	 * The value of the average will be the average in the days in intervals like this: <br/>
+	 * Log statistics regarding average delays for the episode: the daily averages and the monthly
+	 * averages are appended to the results store (by default, results.bin in the output directory),
+	 * with the percentiles of the journeys of each day, and the percentiles of the journeys of the
+	 * episode are logged.
+	 * The value of the monthly average is the average in the days in intervals like this: <br/>
 	 * 1 <- [1..1] <br/>
 	 * 2 <- [1..2] <br/>
 	 * 3 <- [1..3] <br/>
@@ -554,63 +777,193 @@ public class World {
 	 */
 	public void logStatistics()
 	{
-		//Update monthly average
-		for(int i=0;i<MONTH_AVERAGE_INTERVAL;i++)
-			monthlyAverage[i]/=(i+1);
-		for(int i=MONTH_AVERAGE_INTERVAL;i<EPISODE_SIZE;i++)
-			monthlyAverage[i]/=MONTH_AVERAGE_INTERVAL;
+		int days=dailyAverages.size();
+		journeys.finishEpisode(days);
+		journeys.logStatistics(log);
+		for(int i=0;i<days;i++)
+		{
+			resultColumns[0][i]=dailyAverages.get(i);
+			resultColumns[1][i]=dailyAverages.getAverage(i);
+		}
 		try {
-			BufferedWriter out=new BufferedWriter(new FileWriter("octave/average_run_"+WORLD_RUN));
-			out.write("x=[1:"+EPISODE_SIZE+"];\n");
-			out.write("y="+Arrays.toString(monthlyAverage)+";\n");
-			out.write("plot(x,y);");
-			out.close();
+			if(results==null)
+				results=new ResultsStore(new File(outputDir, "results.bin"), RESULT_COLUMNS);
+			results.append(name, worldRun, days, resultColumns);
 		} catch (IOException e) {
-			e.printStackTrace();
+			log.error("Could not write the results of episode "+worldRun, e);
 		}
-
+	}
+	
+	/**
+	 * Sets the store in which the results of the episodes are appended, that can be shared with other
+	 * worlds.
+	 *
+	 * @param results the results store
+	 */
+	public void setResultsStore(ResultsStore results) {
+		this.results=results;
+	}
+	
+	/**
+	 * Gets the statistics of the completed journeys of the current episode.
+	 *
+	 * @return the journey statistics
+	 */
+	public JourneyStatistics getJourneyStatistics() {
+		return journeys;
 	}
 
 	/**
 	 * Update destinations array for the people in the elevator.
 	 *
 	 * @param state the state
-	 * @param elevator the elevator (as 1 or 2)
-	 * @param peopleInE the people in elevator
+	 * @param car the elevator, from 0
+	 * @param people the people in elevator
 	 */
-	private void updateDestinations(State state, int elevator,
-			LinkedList<ScenarioEvent> peopleInE) {
-		
-		if(elevator==1)
-		{
-			state.setDestinationE1(State.ABOVE, false);
-			state.setDestinationE1(State.BELOW, false);
-			state.setDestinationE1(State.CURRENT, false);
-		}
-		else
-		{
-			state.setDestinationE2(State.ABOVE, false);
-			state.setDestinationE2(State.BELOW, false);
-			state.setDestinationE2(State.CURRENT, false);
-		}
-			
-		
-		for(ScenarioEvent ev: peopleInE)
-			if(ev.startFloor>ev.stopFloor)
-				if(elevator==1)
-					state.setDestinationE1(State.BELOW,true);		
-				else
-					state.setDestinationE2(State.BELOW,true);
-			else if(ev.startFloor<ev.stopFloor)
-				if(elevator==1)
-					state.setDestinationE1(State.ABOVE,true);		
-				else
-					state.setDestinationE2(State.ABOVE,true);
-			else
-				if(elevator==1)
-					state.setDestinationE1(State.CURRENT,true);		
-				else
-					state.setDestinationE2(State.CURRENT,true);
+	private void updateDestinations(State state, int car, ElevatorCar people) {
+		state.setDestinations(car, people.getDirections());
+	}
+
+	
+	/**
+	 * Gets the monthly averages of the delay, for the current episode. The value of a day is set
+	 * at the end of the averaging interval of the day.
+	 *
+	 * @return the monthly averages
+	 */
+	public double[] getMonthlyAverage() {
+		return monthlyAverage;
+	}
+	
+	/**
+	 * Gets the running average delay: the average of the daily averages of the last
+	 * MONTH_AVERAGE_INTERVAL days of the episode, as in the monthly averages.
+	 *
+	 * @return the running average delay, or 0 if no day was completed in the episode
+	 */
+	public double getRunningAverageDelay() {
+		return dailyAverages.getAverage();
+	}
+	
+	/**
+	 * Gets the number of passengers that showed up in the last step.
+	 *
+	 * @return the injected count
+	 */
+	public int getStepInjected() {
+		return stepInjected;
+	}
+	
+	/**
+	 * Gets the number of passengers that got in the elevators in the last step.
+	 *
+	 * @return the boarded count
+	 */
+	public int getStepBoarded() {
+		return stepBoarded;
+	}
+	
+	/**
+	 * Gets the number of passengers that got out of the elevators in the last step.
+	 *
+	 * @return the alighted count
+	 */
+	public int getStepAlighted() {
+		return stepAlighted;
+	}
+	
+	/**
+	 * Gets the number of passengers waiting on a floor.
+	 *
+	 * @param floor the floor
+	 * @return the waiting count
+	 */
+	public int getWaitingCount(int floor) {
+		return peopleWaiting[floor].size();
+	}
+	
+	/**
+	 * Gets the number of passengers in the system (waiting or in the elevators).
+	 *
+	 * @return the passenger count
+	 */
+	public int getPassengerCount() {
+		return passengerCount;
+	}
+	
+	/**
+	 * Gets the current time, in minutes since the start of the episode.
+	 *
+	 * @return the time
+	 */
+	public int getTime() {
+		return time;
+	}
+	
+	/**
+	 * Gets the car calls of an elevator: the floors to which its passengers are going.
+	 *
+	 * @param elevator the elevator (from 1 to the number of cars)
+	 * @return the car calls, as a mask with bit i set if a passenger is going to floor i
+	 */
+	public long getCarCalls(int elevator) {
+		ElevatorCar car=cars[elevator-1];
+		long calls=0;
+		for(int i=0;i<peopleWaiting.length;i++)
+			if(car.getCount(i)>0)
+				calls|=1L<<i;
+		return calls;
+	}
+	
+	/**
+	 * Gets the directions in which the passengers of an elevator are going, from their start floors to
+	 * their stop floors, as in the destinations of the state.
+	 *
+	 * @param elevator the elevator (from 1 to the number of cars)
+	 * @return the directions, as a mask with bit i set if any passenger is going in direction i
+	 */
+	public int getCarDirections(int elevator) {
+		return cars[elevator-1].getDirections();
+	}
+	
+	/**
+	 * Gets the number of passengers in an elevator that are going to a floor.
+	 *
+	 * @param elevator the elevator (from 1 to the number of cars)
+	 * @param floor the floor
+	 * @return the count
+	 */
+	public int getCarCallCount(int elevator, int floor) {
+		return cars[elevator-1].getCount(floor);
+	}
+	
+	/**
+	 * Gets the building.
+	 *
+	 * @return the building
+	 */
+	public Building getBuilding() {
+		return building;
+	}
+	
+	/**
+	 * Sets the cache that provides the scenarios of the next episodes.
+	 *
+	 * @param scenarioCache the scenario cache, or null to generate the scenarios
+	 * @param seed the seed of the scenarios of the run
+	 */
+	public void setScenarioCache(ScenarioCache scenarioCache, long seed) {
+		this.scenarioCache=scenarioCache;
+		this.scenarioSeed=seed;
+	}
+	
+	/**
+	 * Gets the name of the world.
+	 *
+	 * @return the name, or null if the world is not named
+	 */
+	public String getName() {
+		return name;
 	}
 	
 	/**
@@ -620,14 +973,13 @@ public class World {
 	 */
 	public boolean isScenarioFinished()
 	{
-		if(currentEventIndex>=events.size())
+		if(!events.hasNext())
 		{
-			if(this.peopleInE1.size()>0)
-				return false;
-			if(this.peopleInE2.size()>0)
-				return false;
-			for(LinkedList<ScenarioEvent> l:peopleWaiting)
-				if(l.size()>0)
+			for(ElevatorCar car:cars)
+				if(car.size()>0)
+					return false;
+			for(int i=0;i<peopleWaiting.length;i++)
+				if(peopleWaiting[i].size()>0)
 					return false;
 			
 			return true;
@@ -644,17 +996,21 @@ public class World {
 	private void injectEventsInWorld(State state)
 	{
 		//While there are more events at the current time, inject them in the system
-		while(currentEventIndex<events.size() && events.get(currentEventIndex).time<=time)
+		while(events.hasNext() && events.peekTime()<=time)
 		{
-			ScenarioEvent ev=events.get(currentEventIndex);
-			peopleWaiting.get(ev.startFloor).add(ev);
+			ScenarioEvent ev=incoming;
+			events.next(ev);
+			peopleWaiting[ev.startFloor].add(ev.time, ev.startFloor, ev.stopFloor);
+			passengerCount++;
+			stepInjected++;
+			sumShowUpTime+=ev.time;
+			sumDistance+=Math.abs(ev.stopFloor-ev.startFloor);
 			//going UP
 			if(ev.stopFloor>ev.startFloor)
 				state.setWaiting(ev.startFloor, State.UP, true);
 			//going DOWN
 			else if(ev.startFloor > ev.stopFloor)
 				state.setWaiting(ev.startFloor, State.DOWN, true);
-			currentEventIndex++;
 		}
 	}
 	
@@ -663,68 +1019,153 @@ public class World {
 	 * given direction, if any.
 	 *
 	 * @param prevDirection the previous direction
-	 * @param ev the event/person
+	 * @param startFloor the start floor of the person
+	 * @param stopFloor the stop floor of the person
 	 * @return true, if successful
 	 */
-	private boolean personShouldGoIn(int prevDirection, ScenarioEvent ev)
+	private boolean personShouldGoIn(int prevDirection, int startFloor, int stopFloor)
 	{
 		//Going down or no action/stopped for long or top floor
-		if(ev.stopFloor-ev.startFloor>0)
-			if(prevDirection==Action.NO_ACTION || prevDirection==Action.E1_DOWN || prevDirection==Action.E2_DOWN ||
-					prevDirection==Action.E1_STOP || prevDirection==Action.E2_STOP)
+		if(stopFloor-startFloor>0)
+			if(prevDirection==Action.NO_ACTION || prevDirection==Action.CAR_DOWN || prevDirection==Action.CAR_STOP)
 				return true;
 		
 		//Going up
-		if(ev.stopFloor-ev.startFloor<0)
-			if(prevDirection==Action.NO_ACTION || prevDirection==Action.E1_UP || prevDirection==Action.E2_UP ||
-					prevDirection==Action.E1_STOP || prevDirection==Action.E2_STOP)
+		if(stopFloor-startFloor<0)
+			if(prevDirection==Action.NO_ACTION || prevDirection==Action.CAR_UP || prevDirection==Action.CAR_STOP)
 				return true;
 		
 		return true;
 	}
 	
 	/**
-	 * Resets an episode.
+	 * Resets an episode, with a new scenario. If the world has a scenario cache, the scenario is the
+	 * one of the seed of the episode (see {@link ScenarioCache#getEpisodeSeed(long, int)}), so it is
+	 * the same in every run; otherwise, it is generated.
 	 */
 	public void resetEpisode()
 	{
-		this.peopleInE1.clear();
-		this.peopleInE2.clear();
-		for(int i=0;i<ScenarioGenerator.FLOOR_COUNT;i++)
-			this.peopleWaiting.get(i).clear();
+		if(scenarioCache!=null)
+			try {
+				resetEpisode(scenarioCache.getScenario(ScenarioCache.getEpisodeSeed(scenarioSeed, worldRun),
+						building.getFloorCount(), EPISODE_SIZE));
+				return;
+			} catch (IOException e) {
+				log.error("Could not read the cached scenario, generating a new one that is not reproducible", e);
+			}
+		resetEpisode(sg.generateScenarioStream(EPISODE_SIZE));
+	}
+	
+	/**
+	 * Resets an episode, with a given scenario, for the building of the world. The scenario is read
+	 * through its cursor, so it should not be shared with other worlds (see
+	 * {@link ScenarioStream#ScenarioStream(ScenarioStream)}).
+	 *
+	 * @param scenario the scenario
+	 */
+	public void resetEpisode(ScenarioStream scenario)
+	{
+		for(ElevatorCar car:cars)
+			car.clear();
+		for(int i=0;i<peopleWaiting.length;i++)
+			this.peopleWaiting[i].clear();
+		
+		passengerCount=0;
+		sumShowUpTime=sumDistance=0;
 		
 		time=-1;
-		events=sg.generateScenarioIdenticalDays(EPISODE_SIZE);
+		events=scenario;
 		this.monthlyAverage=new double[EPISODE_SIZE];
-		currentEventIndex=0;
-		previousAction=Action.NO_ACTION;
-		prevPreviousAction=Action.NO_ACTION;
-		World.WORLD_RUN++;
+		dailyAverages.reset();
+		journeys.reset();
+		Arrays.fill(previousCarActions, Action.NO_ACTION);
+		Arrays.fill(prevPreviousCarActions, Action.NO_ACTION);
+		worldRun++;
 		
 		log.info("World resetted. New Episode of size: "+events.size());
 	}
 	
 	/**
-	 * The main method.
+	 * The main method. The optional argument is the building, as carsxfloors (for example 4x20); the
+	 * learner is chosen with {@link Engine#createLearner(World, State)}. If the system property ml.trace
+	 * is set, the steps of the tabular engine are traced in the file it names (see {@link TraceReader}).
+	 * If the system property ml.convergence is true, the episodes are stopped on a plateau, and the
+	 * training once the episodes stop improving (see {@link ConvergenceMonitor}). If the system property
+	 * ml.fastforward is true, the idle periods are skipped (see {@link #fastForward(State)}); this changes
+	 * the learning problem, as the cars are stopped during the skipped periods.
+	 * If the system property ml.seed is set, the run is reproducible: the random number generators are
+	 * split from a generator with that seed. If the system property ml.scenarios is set, the scenarios
+	 * of the seed are read from the {@link ScenarioCache} in the directory it names. If the system
+	 * property ml.lambda is set, the tabular engine learns with SARSA(&lambda;), with that &lambda;
+	 * (see {@link EligibilityTraces}). If the system property ml.planning is set, each step of the tabular
+	 * engine is followed by that number of planning updates, by priority if the system property
+	 * ml.prioritized is true (see {@link DynaPlanner}).
 	 *
 	 * @param args the arguments
+	 * @throws IOException Signals that the trace could not be written.
 	 */
-	public static void main(String[] args)
+	public static void main(String[] args) throws IOException
 	{
-		World world = new World();
+		Building building=Building.DEFAULT;
+		if(args.length>0)
+		{
+			String[] size=args[0].split("x");
+			building=new Building(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+		}
+		Long seed=Long.getLong(SEED_PROPERTY);
+		SplittableRandom master=seed==null?new SplittableRandom():new SplittableRandom(seed);
+		World world = new World(null, new File("."), master.split(), building);
+		String scenarioDir=System.getProperty(SCENARIO_CACHE_PROPERTY);
+		if(scenarioDir!=null)
+			world.setScenarioCache(new ScenarioCache(new File(scenarioDir), ScenarioCache.DEFAULT_CAPACITY),
+					seed==null?1:seed);
 		State startState=world.generateStartState();
-		Engine engine=new Engine(world,startState);
+		Learner engine=Engine.createLearner(world,startState,master.split());
+		String traceFile=System.getProperty(TRACE_PROPERTY);
+		TraceRecorder trace=null;
+		if(traceFile!=null && engine instanceof Engine)
+		{
+			trace=new TraceRecorder(new File(traceFile));
+			((Engine) engine).setTraceRecorder(trace);
+		}
+		engine.setFastForward(Boolean.getBoolean(FAST_FORWARD_PROPERTY));
+		String lambda=System.getProperty(EligibilityTraces.PROPERTY);
+		if(lambda!=null && engine instanceof Engine)
+			((Engine) engine).setEligibilityTraces(new EligibilityTraces(Double.parseDouble(lambda)));
+		Integer planningSteps=Integer.getInteger(DynaPlanner.PROPERTY);
+		if(planningSteps!=null && engine instanceof Engine)
+			((Engine) engine).setPlanner(new DynaPlanner(planningSteps,
+					Boolean.getBoolean(DynaPlanner.PRIORITIZED_PROPERTY), master.split()));
+		ConvergenceMonitor convergence=null;
+		if(Boolean.getBoolean(ConvergenceMonitor.PROPERTY))
+		{
+			convergence=new ConvergenceMonitor();
+			engine.setConvergenceMonitor(convergence);
+		}
 
 		for(int i=0;i<EPISODE_COUNT;i++)
 		{
-			log.info("Run "+i);
+			world.log.info("Run "+i);
 			world.resetEpisode();
 			engine.run();
 			engine.logStatistics();
 			world.logStatistics();
+			world.log.info("Steps: "+engine.getTime()+", skipped in idle periods: "+engine.getSkippedSteps());
+			if(convergence!=null && convergence.endEpisode(world.getRunningAverageDelay()))
+			{
+				world.log.info("Training stopped after "+(i+1)+" episodes: "+convergence.getStopReason());
+				break;
+			}
 		}
 		
-		engine.writeQToFile("out_Q");		
+		if(engine instanceof Engine)
+			((Engine) engine).writeQCheckpoint(new File("out_Q.bin"));		
+		engine.close();
+		if(trace!=null)
+		{
+			trace.close();
+			world.log.info("Traced "+trace.getRecordCount()+" steps in "+traceFile);
+		}
 
 	}
 
@@ -0,0 +1,157 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.metrics;
+
+/**
+ * The Class Histogram that records non-negative values, in any unit, in log-linear buckets, so
+ * percentiles can be read with a relative error of at most 1/SUB_BUCKETS. Recording a value does
+ * not allocate. It holds, for example, the decision latencies of a dispatcher, in nanoseconds. The range of the buckets can be bounded, so histograms of small values (like the
+ * minutes of the journeys of the passengers) stay small enough to remain in the cache.
+ */
+public class Histogram {
+
+	/** The Constant SUB_BITS that defines the number of linear buckets in each power of 2. */
+	private static final int SUB_BITS=5;
+
+	/** The Constant SUB_BUCKETS. */
+	private static final int SUB_BUCKETS=1<<SUB_BITS;
+
+	/** The Constant BUCKET_COUNT that covers all the positive long values. */
+	private static final int BUCKET_COUNT=(64-SUB_BITS)*SUB_BUCKETS;
+
+	/** The counts for each bucket. */
+	private long[] counts;
+
+	/** The number of recorded values. */
+	private long total;
+
+	/** The largest recorded value. */
+	private long max;
+
+	/**
+	 * Instantiates a new histogram.
+	 */
+	public Histogram() {
+		super();
+		counts=new long[BUCKET_COUNT];
+	}
+
+	/**
+	 * Instantiates a new histogram with buckets up to a highest value. The larger values are
+	 * counted in the last bucket, but the max remains exact.
+	 *
+	 * @param highestValue the highest value that has its own bucket
+	 */
+	public Histogram(long highestValue) {
+		super();
+		counts=new long[getBucket(Math.max(highestValue, 0))+1];
+	}
+
+	/**
+	 * Gets the bucket of a value. Values below 2*SUB_BUCKETS have their own buckets, and the larger
+	 * ones share buckets of width 2^(magnitude-SUB_BITS).
+	 *
+	 * @param value the value
+	 * @return the bucket
+	 */
+	private static int getBucket(long value)
+	{
+		if(value<2*SUB_BUCKETS)
+			return (int) value;
+		int shift=63-Long.numberOfLeadingZeros(value)-SUB_BITS;
+		return (shift+1)*SUB_BUCKETS+(int) (value>>>shift)-SUB_BUCKETS;
+	}
+
+	/**
+	 * Gets the lowest value that falls in a bucket.
+	 *
+	 * @param bucket the bucket
+	 * @return the value
+	 */
+	private static long getBucketValue(int bucket)
+	{
+		if(bucket<2*SUB_BUCKETS)
+			return bucket;
+		int shift=bucket/SUB_BUCKETS-1;
+		return (long) (bucket%SUB_BUCKETS+SUB_BUCKETS)<<shift;
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value the value; the negative values are recorded as 0
+	 */
+	public void record(long value)
+	{
+		if(value<0)
+			value=0;
+		counts[Math.min(getBucket(value), counts.length-1)]++;
+		total++;
+		if(value>max)
+			max=value;
+	}
+
+	/**
+	 * Gets the value below which a fraction of the recorded values fall.
+	 *
+	 * @param fraction the fraction, in [0, 1]
+	 * @return the value (the lowest value of its bucket), or 0 if nothing was recorded
+	 */
+	public long getPercentile(double fraction)
+	{
+		long rank=(long) Math.ceil(fraction*total);
+		long seen=0;
+		for(int i=0;i<counts.length;i++)
+		{
+			seen+=counts[i];
+			if(seen>=rank && seen>0)
+				return getBucketValue(i);
+		}
+		return 0;
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 *
+	 * @return the count
+	 */
+	public long getCount()
+	{
+		return total;
+	}
+
+	/**
+	 * Gets the largest recorded value.
+	 *
+	 * @return the max
+	 */
+	public long getMax()
+	{
+		return max;
+	}
+
+	/**
+	 * Removes all the recorded values.
+	 */
+	public void clear()
+	{
+		for(int i=0;i<counts.length;i++)
+			counts[i]=0;
+		total=0;
+		max=0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "count="+total+", p50="+getPercentile(0.5)+", p99="+getPercentile(0.99)+", p99.9="+
+				getPercentile(0.999)+", max="+max;
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.metrics;
+
+import java.util.Arrays;
+
+import ml.scenario.ScenarioGenerator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The Class JourneyStatistics that records the completed journeys of the passengers in histograms of
+ * fixed size ({@link Histogram}, bounded to a week), so the tail of the service can be followed, not only the mean
+ * delay of the middle of the day. For each journey, three metrics are recorded, in minutes: the wait
+ * time (from showing up to boarding), the ride time (from boarding to arriving) and the delay (the
+ * time to arrive, beyond the time needed to travel the distance).
+ * <p>
+ * The metrics are kept for the whole episode, by start floor and by the time interval of the day in
+ * which the passengers showed up, and for each day. The percentiles of each day (p50, p95, p99 and
+ * max of each metric) are stored as columns, one value per day, so they can be appended to a
+ * {@link ResultsStore}. Recording a journey does not allocate.
+ */
+public class JourneyStatistics {
+
+	/** The Constant WAIT that identifies the wait time metric. */
+	public static final int WAIT=0;
+
+	/** The Constant RIDE that identifies the ride time metric. */
+	public static final int RIDE=1;
+
+	/** The Constant DELAY that identifies the delay metric. */
+	public static final int DELAY=2;
+
+	/** The Constant METRIC_NAMES. */
+	private static final String[] METRIC_NAMES={"wait", "ride", "delay"};
+
+	/** The Constant PERCENTILES that are reported, before the max. */
+	private static final double[] PERCENTILES={0.5, 0.95, 0.99};
+
+	/** The Constant STAT_NAMES that name the percentiles and the max. */
+	private static final String[] STAT_NAMES={"p50", "p95", "p99", "max"};
+
+	/** The Constant COLUMNS that name the columns of the days: the statistics of each metric. */
+	public static final String[] COLUMNS=new String[METRIC_NAMES.length*STAT_NAMES.length];
+
+	static {
+		for(int m=0;m<METRIC_NAMES.length;m++)
+			for(int s=0;s<STAT_NAMES.length;s++)
+				COLUMNS[m*STAT_NAMES.length+s]=METRIC_NAMES[m]+"_"+STAT_NAMES[s];
+	}
+
+	/** The Constant HIGHEST_VALUE that defines the range of the buckets of the histograms, in minutes
+	 * (a week); longer journeys are counted in the last bucket. */
+	private static final int HIGHEST_VALUE=7*ScenarioGenerator.DAY_DURATION;
+
+	/** The time interval of each minute of the day. */
+	private int[] intervalOfMinute;
+
+	/** The histograms of each metric, for the current day. */
+	private Histogram[] day;
+
+	/** The histograms of each metric, for the episode. */
+	private Histogram[] episode;
+
+	/** The histograms of each metric, for each start floor. Access: [metric][floor] */
+	private Histogram[][] byFloor;
+
+	/** The histograms of each metric, for each time interval of the show up. Access: [metric][interval] */
+	private Histogram[][] byInterval;
+
+	/** The statistics of each day, by column. Access: [column][day] */
+	private double[][] columns;
+
+	/** The current day. */
+	private int currentDay;
+
+	/**
+	 * Instantiates new journey statistics.
+	 *
+	 * @param floorCount the number of floors
+	 * @param intervalOfMinute the time interval of each minute of the day
+	 * @param intervalCount the number of time intervals
+	 * @param dayCount the largest number of days of an episode
+	 */
+	public JourneyStatistics(int floorCount, int[] intervalOfMinute, int intervalCount, int dayCount) {
+		super();
+		this.intervalOfMinute=intervalOfMinute;
+		day=new Histogram[METRIC_NAMES.length];
+		episode=new Histogram[METRIC_NAMES.length];
+		byFloor=new Histogram[METRIC_NAMES.length][floorCount];
+		byInterval=new Histogram[METRIC_NAMES.length][intervalCount];
+		for(int m=0;m<METRIC_NAMES.length;m++)
+		{
+			day[m]=new Histogram(HIGHEST_VALUE);
+			episode[m]=new Histogram(HIGHEST_VALUE);
+			for(int f=0;f<floorCount;f++)
+				byFloor[m][f]=new Histogram(HIGHEST_VALUE);
+			for(int i=0;i<intervalCount;i++)
+				byInterval[m][i]=new Histogram(HIGHEST_VALUE);
+		}
+		columns=new double[COLUMNS.length][dayCount];
+	}
+
+	/**
+	 * Records a completed journey. The days before the one of the arrival are closed.
+	 *
+	 * @param startFloor the start floor
+	 * @param stopFloor the stop floor
+	 * @param showUpTime the show up time
+	 * @param boardTime the boarding time
+	 * @param arrivalTime the arrival time
+	 */
+	public void record(int startFloor, int stopFloor, int showUpTime, int boardTime, int arrivalTime)
+	{
+		int arrivalDay=arrivalTime/ScenarioGenerator.DAY_DURATION;
+		while(currentDay<arrivalDay)
+			endDay();
+		int interval=intervalOfMinute[showUpTime%ScenarioGenerator.DAY_DURATION];
+		record(WAIT, startFloor, interval, boardTime-showUpTime);
+		record(RIDE, startFloor, interval, arrivalTime-boardTime);
+		record(DELAY, startFloor, interval, arrivalTime-showUpTime-Math.abs(stopFloor-startFloor));
+	}
+
+	/**
+	 * Records the value of a metric in its histograms.
+	 *
+	 * @param metric the metric
+	 * @param startFloor the start floor
+	 * @param interval the time interval
+	 * @param value the value
+	 */
+	private void record(int metric, int startFloor, int interval, int value)
+	{
+		day[metric].record(value);
+		episode[metric].record(value);
+		byFloor[metric][startFloor].record(value);
+		byInterval[metric][interval].record(value);
+	}
+
+	/**
+	 * Closes the current day: its statistics are stored in the columns, and its histograms cleared.
+	 */
+	private void endDay()
+	{
+		if(currentDay<columns[0].length)
+			for(int m=0;m<METRIC_NAMES.length;m++)
+			{
+				for(int s=0;s<PERCENTILES.length;s++)
+					columns[m*STAT_NAMES.length+s][currentDay]=day[m].getPercentile(PERCENTILES[s]);
+				columns[m*STAT_NAMES.length+PERCENTILES.length][currentDay]=day[m].getMax();
+			}
+		for(int m=0;m<METRIC_NAMES.length;m++)
+			day[m].clear();
+		currentDay++;
+	}
+
+	/**
+	 * Closes the days of the episode, up to a given number of days.
+	 *
+	 * @param dayCount the number of days of the episode
+	 */
+	public void finishEpisode(int dayCount)
+	{
+		while(currentDay<dayCount)
+			endDay();
+	}
+
+	/**
+	 * Removes all the recorded journeys, for a new episode.
+	 */
+	public void reset()
+	{
+		for(int m=0;m<METRIC_NAMES.length;m++)
+		{
+			day[m].clear();
+			episode[m].clear();
+			for(Histogram histogram:byFloor[m])
+				histogram.clear();
+			for(Histogram histogram:byInterval[m])
+				histogram.clear();
+		}
+		for(double[] column:columns)
+			Arrays.fill(column, 0);
+		currentDay=0;
+	}
+
+	/**
+	 * Gets the statistics of the closed days, by column (see COLUMNS).
+	 *
+	 * @return the columns
+	 */
+	public double[][] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Gets the histogram of a metric, for the episode.
+	 *
+	 * @param metric the metric (WAIT, RIDE or DELAY)
+	 * @return the histogram
+	 */
+	public Histogram getEpisodeHistogram(int metric) {
+		return episode[metric];
+	}
+
+	/**
+	 * Formats the percentiles of a histogram.
+	 *
+	 * @param histogram the histogram
+	 * @return the text
+	 */
+	private static String format(Histogram histogram)
+	{
+		return String.format("p50=%d p95=%d p99=%d max=%d", histogram.getPercentile(0.5),
+				histogram.getPercentile(0.95), histogram.getPercentile(0.99), histogram.getMax());
+	}
+
+	/**
+	 * Logs the statistics of the episode: for each metric, overall, by start floor and by time interval.
+	 *
+	 * @param log the log
+	 */
+	public void logStatistics(Logger log)
+	{
+		for(int m=0;m<METRIC_NAMES.length;m++)
+		{
+			log.info("Journeys "+METRIC_NAMES[m]+" (minutes, "+episode[m].getCount()+" passengers): "+format(episode[m]));
+			StringBuilder floors=new StringBuilder();
+			for(int f=0;f<byFloor[m].length;f++)
+				if(byFloor[m][f].getCount()>0)
+					floors.append(" [").append(f).append(": ").append(format(byFloor[m][f])).append(']');
+			log.info("  by start floor:"+floors);
+			StringBuilder intervals=new StringBuilder();
+			for(int i=0;i<byInterval[m].length;i++)
+				if(byInterval[m][i].getCount()>0)
+					intervals.append(" [").append(i).append(": ").append(format(byInterval[m][i])).append(']');
+			log.info("  by time interval:"+intervals);
+		}
+	}
+}
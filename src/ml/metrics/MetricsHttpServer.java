@@ -0,0 +1,122 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The Class MetricsHttpServer that serves the training metrics on a local HTTP endpoint,
+ * {@code /metrics}, in the Prometheus text format. The requests are served one at a time, on a
+ * daemon thread, so the server never keeps the process alive after the training.
+ */
+public class MetricsHttpServer implements Runnable {
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(MetricsHttpServer.class);
+
+	/** The metrics. */
+	private TrainingMetrics metrics;
+
+	/** The server socket. */
+	private ServerSocket server;
+
+	/**
+	 * Instantiates a new metrics http server.
+	 *
+	 * @param metrics the metrics
+	 * @param server the server socket
+	 */
+	private MetricsHttpServer(TrainingMetrics metrics, ServerSocket server) {
+		super();
+		this.metrics=metrics;
+		this.server=server;
+	}
+
+	/**
+	 * Starts serving the metrics on a local port.
+	 *
+	 * @param metrics the metrics
+	 * @param port the port
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void start(TrainingMetrics metrics, int port) throws IOException
+	{
+		ServerSocket server=new ServerSocket();
+		server.bind(new InetSocketAddress("localhost", port));
+		Thread thread=new Thread(new MetricsHttpServer(metrics, server), "metrics-http");
+		thread.setDaemon(true);
+		thread.start();
+		log.info("Serving metrics on http://"+server.getInetAddress().getHostAddress()+":"+port+"/metrics");
+	}
+
+	/**
+	 * Answers a request.
+	 *
+	 * @param client the client
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void answer(Socket client) throws IOException
+	{
+		BufferedReader in=new BufferedReader(new InputStreamReader(client.getInputStream(), "US-ASCII"));
+		String request=in.readLine();
+		String line;
+		while((line=in.readLine())!=null && line.length()>0)
+			;
+
+		String status;
+		String body;
+		if(request!=null && request.startsWith("GET /metrics"))
+		{
+			status="200 OK";
+			body=metrics.toPrometheusText();
+		}
+		else
+		{
+			status="404 Not Found";
+			body="Not found. Use /metrics.\n";
+		}
+		byte[] content=body.getBytes("UTF-8");
+		OutputStream out=client.getOutputStream();
+		out.write(("HTTP/1.0 "+status+"\r\nContent-Type: text/plain; version=0.0.4; charset=utf-8\r\n"+
+				"Content-Length: "+content.length+"\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+		out.write(content);
+		out.flush();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while(true)
+		{
+			Socket client=null;
+			try {
+				client=server.accept();
+				answer(client);
+			} catch (IOException e) {
+				log.warn("Metrics request failed: "+e.getMessage());
+			} finally {
+				if(client!=null)
+					try {
+						client.close();
+					} catch (IOException e) {
+						//Nothing to do
+					}
+			}
+		}
+	}
+}
@@ -0,0 +1,428 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The Class ResultsStore that appends the learning curves of the episodes of any number of runs to a
+ * single binary file, through one buffered channel, instead of writing a file for each episode. The
+ * store can be shared by the worlds that run in parallel.
+ * <p>
+ * The file has a header of HEADER_SIZE bytes (magic, format version, column count, length of the
+ * column names), followed by the names of the columns (as UTF-8 bytes, separated by commas), and then
+ * by a block for each episode: the size of the block in bytes, the episode, the number of days, the
+ * name of the run (as a length and UTF-8 bytes), and then the columns of the episode, each as little
+ * endian doubles, one for each day (for the worlds, see {@link ml.engine.World#RESULT_COLUMNS}: the
+ * daily average delay, its rolling average, and the percentiles of the journeys of the day).
+ * <p>
+ * Usage, to export a file: ResultsStore file csv|octave [outputFile]
+ */
+public class ResultsStore {
+
+	/** The Constant MAGIC that identifies the results files ("ELRS"). */
+	public static final int MAGIC=0x53524C45;
+
+	/** The Constant FORMAT_VERSION. */
+	public static final int FORMAT_VERSION=2;
+
+	/** The Constant HEADER_SIZE, in bytes. */
+	public static final int HEADER_SIZE=16;
+
+	/** The Constant BUFFER_SIZE, in bytes. */
+	private static final int BUFFER_SIZE=1<<16;
+
+	/**
+	 * The Class Episode that holds the learning curve of an episode, read from a results file.
+	 */
+	public static class Episode {
+
+		/** The name of the run, or an empty string. */
+		public final String name;
+
+		/** The episode. */
+		public final int episode;
+
+		/** The columns, with a value for each day. Access: [column][day] */
+		public final double[][] columns;
+
+		/**
+		 * Instantiates a new episode.
+		 *
+		 * @param name the name of the run
+		 * @param episode the episode
+		 * @param columns the columns
+		 */
+		public Episode(String name, int episode, double[][] columns) {
+			super();
+			this.name=name;
+			this.episode=episode;
+			this.columns=columns;
+		}
+
+		/**
+		 * Gets the number of days.
+		 *
+		 * @return the day count
+		 */
+		public int getDayCount() {
+			return columns.length==0?0:columns[0].length;
+		}
+	}
+
+	/**
+	 * The Class Results that holds the column names and the episodes read from a results file.
+	 */
+	public static class Results {
+
+		/** The names of the columns. */
+		public final String[] columnNames;
+
+		/** The episodes, in the order in which they were appended. */
+		public final ArrayList<Episode> episodes;
+
+		/**
+		 * Instantiates new results.
+		 *
+		 * @param columnNames the column names
+		 * @param episodes the episodes
+		 */
+		public Results(String[] columnNames, ArrayList<Episode> episodes) {
+			super();
+			this.columnNames=columnNames;
+			this.episodes=episodes;
+		}
+
+		/**
+		 * Gets the index of a column.
+		 *
+		 * @param columnName the column name
+		 * @return the index, or -1 if there is no such column
+		 */
+		public int getColumn(String columnName)
+		{
+			return Arrays.asList(columnNames).indexOf(columnName);
+		}
+	}
+
+	/** The file. */
+	private File file;
+
+	/** The file, open for appending. */
+	private RandomAccessFile raf;
+
+	/** The channel. */
+	private FileChannel channel;
+
+	/** The buffer in which the blocks are written before the channel. */
+	private ByteBuffer buffer;
+
+	/** The names of the columns. */
+	private String[] columnNames;
+
+	/** The number of episodes appended. */
+	private long episodeCount;
+
+	/**
+	 * Opens a results file for appending, creating it if it does not exist. An existing file must have
+	 * the same columns.
+	 *
+	 * @param file the file
+	 * @param columnNames the names of the columns
+	 * @throws IOException Signals that an I/O exception has occurred, or that the file is not a
+	 * results file with these columns.
+	 */
+	public ResultsStore(File file, String[] columnNames) throws IOException {
+		super();
+		this.file=file;
+		this.columnNames=columnNames.clone();
+		this.raf=new RandomAccessFile(file, "rw");
+		this.channel=raf.getChannel();
+		this.buffer=ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		if(channel.size()==0)
+		{
+			byte[] names=join(columnNames).getBytes(StandardCharsets.UTF_8);
+			buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(columnNames.length).putInt(names.length).put(names);
+			flush();
+		}
+		else
+		{
+			String[] existing=readHeader(channel.map(MapMode.READ_ONLY, 0, channel.size())
+					.order(ByteOrder.LITTLE_ENDIAN), file);
+			if(!Arrays.equals(existing, columnNames))
+			{
+				raf.close();
+				throw new IOException("The results file "+file+" has the columns "+join(existing)+
+						" instead of "+join(columnNames));
+			}
+			channel.position(channel.size());
+		}
+	}
+
+	/**
+	 * Joins the names of the columns, separated by commas.
+	 *
+	 * @param columnNames the column names
+	 * @return the text
+	 */
+	private static String join(String[] columnNames)
+	{
+		StringBuilder text=new StringBuilder();
+		for(int i=0;i<columnNames.length;i++)
+			text.append(i==0?"":",").append(columnNames[i]);
+		return text.toString();
+	}
+
+	/**
+	 * Reads the header of a results file, leaving the buffer positioned at the first block.
+	 *
+	 * @param in the contents of the file
+	 * @param file the file
+	 * @return the names of the columns
+	 * @throws IOException Signals that the file is not a results file of this version.
+	 */
+	private static String[] readHeader(ByteBuffer in, File file) throws IOException
+	{
+		if(in.limit()<HEADER_SIZE || in.getInt(0)!=MAGIC)
+			throw new IOException("Not a results file: "+file);
+		if(in.getInt(4)!=FORMAT_VERSION)
+			throw new IOException("Unsupported results format version: "+in.getInt(4));
+		int columnCount=in.getInt(8);
+		int length=in.getInt(12);
+		if(length<0 || HEADER_SIZE+(long) length>in.limit())
+			throw new IOException("Invalid results header in "+file);
+		byte[] names=new byte[length];
+		in.position(HEADER_SIZE);
+		in.get(names);
+		String[] columnNames=columnCount==0?new String[0]:new String(names, StandardCharsets.UTF_8).split(",", -1);
+		if(columnNames.length!=columnCount)
+			throw new IOException("Invalid results header in "+file+": "+columnCount+" columns named "+
+					new String(names, StandardCharsets.UTF_8));
+		return columnNames;
+	}
+
+	/**
+	 * Makes room in the buffer for a number of bytes, by writing it to the channel if needed.
+	 *
+	 * @param bytes the number of bytes
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void ensureRemaining(int bytes) throws IOException
+	{
+		if(buffer.remaining()<bytes)
+			flush();
+	}
+
+	/**
+	 * Writes the buffer to the channel.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Appends the results of an episode. The block is written to the file before returning.
+	 *
+	 * @param name the name of the run, or null
+	 * @param episode the episode
+	 * @param days the number of days of the episode
+	 * @param columns the columns, in the order of the column names, each with at least days values
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void append(String name, int episode, int days, double[][] columns) throws IOException
+	{
+		if(columns.length!=columnNames.length)
+			throw new IllegalArgumentException("Expected "+columnNames.length+" columns instead of "+columns.length);
+		byte[] nameBytes=(name==null?"":name).getBytes(StandardCharsets.UTF_8);
+		ensureRemaining(14+nameBytes.length);
+		buffer.putInt(14+nameBytes.length+columns.length*8*days).putInt(episode).putInt(days);
+		buffer.putShort((short) nameBytes.length).put(nameBytes);
+		for(double[] column:columns)
+			for(int i=0;i<days;i++)
+			{
+				ensureRemaining(8);
+				buffer.putDouble(column[i]);
+			}
+		flush();
+		episodeCount++;
+	}
+
+	/**
+	 * Gets the number of episodes appended since the store was opened.
+	 *
+	 * @return the episode count
+	 */
+	public synchronized long getEpisodeCount() {
+		return episodeCount;
+	}
+
+	/**
+	 * Gets the names of the columns.
+	 *
+	 * @return the column names
+	 */
+	public String[] getColumnNames() {
+		return columnNames.clone();
+	}
+
+	/**
+	 * Gets the file.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void close() throws IOException
+	{
+		raf.close();
+	}
+
+	/**
+	 * Reads the column names and all the episodes of a results file.
+	 *
+	 * @param file the file
+	 * @return the results
+	 * @throws IOException Signals that an I/O exception has occurred, or that the file is not a valid
+	 * results file.
+	 */
+	public static Results read(File file) throws IOException
+	{
+		ArrayList<Episode> episodes=new ArrayList<Episode>();
+		String[] columnNames;
+		RandomAccessFile raf=new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel=raf.getChannel();
+			ByteBuffer in=channel.map(MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			columnNames=readHeader(in, file);
+			while(in.hasRemaining())
+			{
+				int start=in.position();
+				int size=in.getInt();
+				int episode=in.getInt();
+				int days=in.getInt();
+				byte[] nameBytes=new byte[in.getShort()];
+				in.get(nameBytes);
+				if(in.position()-start+columnNames.length*8L*days!=size || start+(long) size>in.limit())
+					throw new IOException("Invalid results block at "+start+" in "+file);
+				double[][] columns=new double[columnNames.length][days];
+				DoubleBuffer values=in.asDoubleBuffer();
+				for(double[] column:columns)
+					values.get(column);
+				in.position(start+size);
+				episodes.add(new Episode(new String(nameBytes, StandardCharsets.UTF_8), episode, columns));
+			}
+		} finally {
+			//The mapping remains valid after the channel is closed
+			raf.close();
+		}
+		return new Results(columnNames, episodes);
+	}
+
+	/**
+	 * Exports the episodes of a results file as CSV, with a line for each day of each episode.
+	 *
+	 * @param results the results
+	 * @param out the output
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void exportCsv(Results results, BufferedWriter out) throws IOException
+	{
+		out.write("name,episode,day");
+		for(String columnName:results.columnNames)
+			out.write(","+columnName);
+		out.write("\n");
+		for(Episode ep:results.episodes)
+			for(int i=0;i<ep.getDayCount();i++)
+			{
+				out.write(ep.name+","+ep.episode+","+i);
+				for(double[] column:ep.columns)
+					out.write(","+column[i]);
+				out.write("\n");
+			}
+	}
+
+	/**
+	 * Exports the episodes of a results file as an octave script, with a cell array for each column,
+	 * with a cell for each episode, that plots the rolling average of the last episode (if there is a
+	 * "rolling" column).
+	 *
+	 * @param results the results
+	 * @param out the output
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void exportOctave(Results results, BufferedWriter out) throws IOException
+	{
+		for(int k=0;k<results.episodes.size();k++)
+		{
+			Episode ep=results.episodes.get(k);
+			out.write("names{"+(k+1)+"}='"+ep.name+"';\n");
+			out.write("episodes("+(k+1)+")="+ep.episode+";\n");
+			for(int c=0;c<ep.columns.length;c++)
+			{
+				out.write(results.columnNames[c]+"{"+(k+1)+"}=[");
+				for(int i=0;i<ep.columns[c].length;i++)
+					out.write((i==0?"":",")+ep.columns[c][i]);
+				out.write("];\n");
+			}
+		}
+		if(!results.episodes.isEmpty() && results.getColumn("rolling")>=0)
+			out.write("plot(1:numel(rolling{end}),rolling{end});\n");
+	}
+
+	/**
+	 * The main method, that exports a results file.
+	 *
+	 * @param args the arguments
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length<2 || !(args[1].equals("csv") || args[1].equals("octave")))
+		{
+			System.err.println("Usage: ResultsStore file csv|octave [outputFile]");
+			return;
+		}
+		Results results=read(new File(args[0]));
+		File output=new File(args.length>2?args[2]:args[0]+(args[1].equals("csv")?".csv":".m"));
+		BufferedWriter out=new BufferedWriter(new FileWriter(output));
+		try {
+			if(args[1].equals("csv"))
+				exportCsv(results, out);
+			else
+				exportOctave(results, out);
+		} finally {
+			out.close();
+		}
+		System.out.println("Exported "+results.episodes.size()+" episodes to "+output);
+	}
+}
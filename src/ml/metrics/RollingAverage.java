@@ -0,0 +1,124 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.metrics;
+
+/**
+ * The Class RollingAverage that computes the average of the last values of a series, over a window of
+ * fixed size, from the prefix sums of the series: adding a value and getting the average of the window
+ * ending at any value both cost O(1), whatever the size of the window. The series holds at most a
+ * given number of values, and is reused between episodes with {@link #reset()}.
+ */
+public class RollingAverage {
+
+	/** The size of the window. */
+	private int window;
+
+	/** The values of the series. */
+	private double[] values;
+
+	/** The prefix sums: prefix[i] is the sum of the first i values. */
+	private double[] prefix;
+
+	/** The number of values. */
+	private int size;
+
+	/**
+	 * Instantiates a new rolling average.
+	 *
+	 * @param window the size of the window
+	 * @param capacity the largest number of values
+	 */
+	public RollingAverage(int window, int capacity) {
+		super();
+		if(window<1)
+			throw new IllegalArgumentException("The window must have at least one value: "+window);
+		this.window=window;
+		this.values=new double[capacity];
+		this.prefix=new double[capacity+1];
+	}
+
+	/**
+	 * Removes all the values.
+	 */
+	public void reset()
+	{
+		size=0;
+	}
+
+	/**
+	 * Adds a value at the end of the series. A value that is not finite would make all the following
+	 * windows of the prefix sums NaN or infinite, so it is rejected.
+	 *
+	 * @param value the value
+	 * @throws IllegalArgumentException if the value is NaN or infinite
+	 */
+	public void add(double value)
+	{
+		if(Double.isNaN(value) || Double.isInfinite(value))
+			throw new IllegalArgumentException("The value is not finite: "+value);
+		if(size==values.length)
+			throw new IllegalStateException("The series is full: "+size+" values");
+		values[size]=value;
+		prefix[size+1]=prefix[size]+value;
+		size++;
+	}
+
+	/**
+	 * Gets the average of the window that ends at a value: the values (index-window, index], or all the
+	 * values up to index, if there are less than window.
+	 *
+	 * @param index the index of the last value of the window
+	 * @return the average
+	 */
+	public double getAverage(int index)
+	{
+		int start=Math.max(0, index+1-window);
+		return (prefix[index+1]-prefix[start])/(index+1-start);
+	}
+
+	/**
+	 * Gets the average of the window that ends at the last value.
+	 *
+	 * @return the average, or 0 if there are no values
+	 */
+	public double getAverage()
+	{
+		return size==0?0:getAverage(size-1);
+	}
+
+	/**
+	 * Gets a value of the series.
+	 *
+	 * @param index the index
+	 * @return the value
+	 */
+	public double get(int index)
+	{
+		return values[index];
+	}
+
+	/**
+	 * Gets the number of values.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the size of the window.
+	 *
+	 * @return the window
+	 */
+	public int getWindow()
+	{
+		return window;
+	}
+}
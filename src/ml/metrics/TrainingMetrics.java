@@ -0,0 +1,454 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import ml.engine.QTable;
+import ml.engine.World;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The Class TrainingMetrics that collects the metrics of all the engines in the process. Each engine
+ * owns a {@link Source}, that only its thread writes, from time to time, so the hot path only updates
+ * plain fields of the engine. The sources are merged when the metrics are read.
+ * <p>
+ * The metrics are exposed as a JMX MBean (ml:type=TrainingMetrics) and, if the system property
+ * {@code ml.metrics.port} is set, on a local HTTP endpoint, {@code /metrics}, in the Prometheus
+ * text format. The endpoint exports the steps only as a counter, from which Prometheus computes the
+ * rate; JMX also reports the steps per second of the running engines.
+ * <p>
+ * A finished engine is removed with {@link #unregister(Source)}, so its metrics are no longer merged.
+ */
+public class TrainingMetrics implements TrainingMetricsMBean {
+
+	/** The Constant OBJECT_NAME of the MBean. */
+	public static final String OBJECT_NAME="ml:type=TrainingMetrics";
+
+	/** The Constant PORT_PROPERTY that defines the system property with the port of the HTTP endpoint. */
+	public static final String PORT_PROPERTY="ml.metrics.port";
+
+	/** The Constant RATE_WINDOW, the duration (in nanoseconds) of the windows over which the steps per
+	 * second of an engine are measured. */
+	public static final long RATE_WINDOW=10000000000L;
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(TrainingMetrics.class);
+
+	/** The instance, created on first use. */
+	private static TrainingMetrics instance;
+
+	/**
+	 * The Class Source that holds the metrics of an engine. It is written only by the engine's thread,
+	 * and read by any thread.
+	 */
+	public static class Source {
+
+		/** The name of the source. */
+		private String name;
+
+		/** The Q table of the engine. Several engines can share the same table. The reference is weak,
+		 * so the metrics do not keep the tables of finished trainings alive. */
+		private WeakReference<QTable> Q;
+
+		/** The number of steps. Written last in an update, so readers see the other fields updated. */
+		private volatile long steps;
+
+		/** The number of completed episodes. */
+		private volatile long episodes;
+
+		/** The number of explored actions. */
+		private volatile long explored;
+
+		/** The number of exploited actions. */
+		private volatile long exploited;
+
+		/** The annealed exploration rate. */
+		private volatile double epsilon;
+
+		/** The running average delay. */
+		private volatile double averageDelay;
+
+		/** The number of passengers waiting on each floor of the building of the engine. */
+		private int[] queueLengths;
+
+		/** Whether the engine is running. */
+		private volatile boolean running;
+
+		/** The time at which the current window of the rate started. Written only by the engine. */
+		private long windowStart;
+
+		/** The steps at the start of the current window of the rate. Written only by the engine. */
+		private long windowSteps;
+
+		/** The steps per second in the last complete window of the rate. */
+		private volatile double stepsPerSecond;
+
+		/**
+		 * Instantiates a new source.
+		 *
+		 * @param name the name
+		 * @param Q the Q table
+		 * @param floorCount the number of floors of the building of the engine
+		 */
+		private Source(String name, QTable Q, int floorCount) {
+			super();
+			this.name=name;
+			this.Q=new WeakReference<QTable>(Q);
+			this.queueLengths=new int[floorCount];
+			this.windowStart=System.nanoTime();
+		}
+
+		/**
+		 * Updates the metrics of the engine. When the current window of the rate is complete, the steps
+		 * per second are measured over it, and a new window starts. Does not allocate.
+		 *
+		 * @param steps the total number of steps
+		 * @param explored the total number of explored actions
+		 * @param exploited the total number of exploited actions
+		 * @param epsilon the annealed exploration rate
+		 * @param world the world of the engine
+		 */
+		public void update(long steps, long explored, long exploited, double epsilon, World world)
+		{
+			this.explored=explored;
+			this.exploited=exploited;
+			this.epsilon=epsilon;
+			this.averageDelay=world.getRunningAverageDelay();
+			for(int i=0;i<queueLengths.length;i++)
+				queueLengths[i]=world.getWaitingCount(i);
+			long now=System.nanoTime();
+			if(now-windowStart>=RATE_WINDOW)
+			{
+				stepsPerSecond=(steps-windowSteps)/((now-windowStart)/1e9);
+				windowStart=now;
+				windowSteps=steps;
+			}
+			this.steps=steps;
+		}
+
+		/**
+		 * Marks the start of an episode.
+		 */
+		public void episodeStarted()
+		{
+			running=true;
+		}
+
+		/**
+		 * Marks the end of an episode.
+		 */
+		public void episodeFinished()
+		{
+			episodes++;
+			running=false;
+		}
+
+		/**
+		 * Gets the name.
+		 *
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+	}
+
+	/** The sources. */
+	private CopyOnWriteArrayList<Source> sources;
+
+	/** The steps of the unregistered sources. */
+	private long unregisteredSteps;
+
+	/** The completed episodes of the unregistered sources. */
+	private long unregisteredEpisodes;
+
+	/**
+	 * Instantiates new training metrics.
+	 */
+	public TrainingMetrics() {
+		super();
+		this.sources=new CopyOnWriteArrayList<Source>();
+	}
+
+	/**
+	 * Gets the training metrics of the process. On first use, they are registered in JMX and, if
+	 * requested, exposed on HTTP.
+	 *
+	 * @return the instance
+	 */
+	public static synchronized TrainingMetrics getInstance()
+	{
+		if(instance==null)
+		{
+			instance=new TrainingMetrics();
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+			} catch (JMException e) {
+				log.warn("Could not register the training metrics MBean: "+e.getMessage());
+			}
+			String port=System.getProperty(PORT_PROPERTY);
+			if(port!=null)
+				try {
+					MetricsHttpServer.start(instance, Integer.parseInt(port));
+				} catch (IOException e) {
+					log.warn("Could not start the metrics endpoint on port "+port+": "+e.getMessage());
+				}
+		}
+		return instance;
+	}
+
+	/**
+	 * Registers a new source of metrics.
+	 *
+	 * @param name the name of the source
+	 * @param Q the Q table that the source updates
+	 * @param floorCount the number of floors of the building of the source
+	 * @return the source
+	 */
+	public Source register(String name, QTable Q, int floorCount)
+	{
+		Source source=new Source(name, Q, floorCount);
+		sources.add(source);
+		return source;
+	}
+
+	/**
+	 * Unregisters a source of metrics, once its engine is finished. Its steps and episodes are kept in
+	 * the totals, so that they remain counters.
+	 *
+	 * @param source the source
+	 */
+	public synchronized void unregister(Source source)
+	{
+		if(sources.remove(source))
+		{
+			unregisteredSteps+=source.steps;
+			unregisteredEpisodes+=source.episodes;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.metrics.TrainingMetricsMBean#getSteps()
+	 */
+	@Override
+	public synchronized long getSteps()
+	{
+		long steps=unregisteredSteps;
+		for(Source source:sources)
+			steps+=source.steps;
+		return steps;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.metrics.TrainingMetricsMBean#getStepsPerSecond()
+	 */
+	@Override
+	public double getStepsPerSecond()
+	{
+		double rate=0;
+		for(Source source:sources)
+			if(source.running)
+				rate+=source.stepsPerSecond;
+		return rate;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.metrics.TrainingMetricsMBean#getEpisodes()
+	 */
+	@Override
+	public synchronized long getEpisodes()
+	{
+		long episodes=unregisteredEpisodes;
+		for(Source source:sources)
+			episodes+=source.episodes;
+		return episodes;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.metrics.TrainingMetricsMBean#getVisitedStates()
+	 */
+	@Override
+	public long getVisitedStates()
+	{
+		long visited=0;
+		for(QTable Q:getTables())
+			visited+=Q.size();
+		return visited;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.metrics.TrainingMetricsMBean#getQTableMemory()
+	 */
+	@Override
+	public long getQTableMemory()
+	{
+		long memory=0;
+		for(QTable Q:getTables())
+			memory+=Q.getMemoryEstimate();
+		return memory;
+	}
+
+	/**
+	 * Gets the distinct Q tables of the sources, that are still in use.
+	 *
+	 * @return the tables
+	 */
+	private Iterable<QTable> getTables()
+	{
+		IdentityHashMap<QTable, Boolean> tables=new IdentityHashMap<QTable, Boolean>();
+		for(Source source:sources)
+		{
+			QTable Q=source.Q.get();
+			if(Q!=null)
+				tables.put(Q, Boolean.TRUE);
+		}
+		return tables.keySet();
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.metrics.TrainingMetricsMBean#getEpsilon()
+	 */
+	@Override
+	public double getEpsilon()
+	{
+		double sum=0;
+		int count=0;
+		for(Source source:sources)
+			if(source.running)
+			{
+				sum+=source.epsilon;
+				count++;
+			}
+		return count==0?0:sum/count;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.metrics.TrainingMetricsMBean#getExploitRatio()
+	 */
+	@Override
+	public double getExploitRatio()
+	{
+		long explored=0;
+		long exploited=0;
+		for(Source source:sources)
+		{
+			explored+=source.explored;
+			exploited+=source.exploited;
+		}
+		return explored+exploited==0?0:(double)exploited/(explored+exploited);
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.metrics.TrainingMetricsMBean#getAverageDelay()
+	 */
+	@Override
+	public double getAverageDelay()
+	{
+		double sum=0;
+		int count=0;
+		for(Source source:sources)
+			if(source.running)
+			{
+				sum+=source.averageDelay;
+				count++;
+			}
+		return count==0?0:sum/count;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.metrics.TrainingMetricsMBean#getQueueLengths()
+	 */
+	@Override
+	public double[] getQueueLengths()
+	{
+		//The buildings of the engines can have different numbers of floors, so each floor is averaged
+		//over the engines whose buildings have it
+		int floorCount=0;
+		for(Source source:sources)
+			floorCount=Math.max(floorCount, source.queueLengths.length);
+		double[] lengths=new double[floorCount];
+		int[] counts=new int[floorCount];
+		for(Source source:sources)
+			if(source.running && source.steps>0)
+				for(int i=0;i<source.queueLengths.length;i++)
+				{
+					lengths[i]+=source.queueLengths[i];
+					counts[i]++;
+				}
+		for(int i=0;i<floorCount;i++)
+			if(counts[i]>0)
+				lengths[i]/=counts[i];
+		return lengths;
+	}
+
+	/* (non-Javadoc)
+	 * @see ml.metrics.TrainingMetricsMBean#getRunningEngines()
+	 */
+	@Override
+	public int getRunningEngines()
+	{
+		int count=0;
+		for(Source source:sources)
+			if(source.running)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Appends a metric in the Prometheus text format.
+	 *
+	 * @param out the output
+	 * @param name the name of the metric
+	 * @param type the type (counter or gauge)
+	 * @param help the description
+	 * @param value the value
+	 */
+	private static void appendMetric(StringBuilder out, String name, String type, String help, double value)
+	{
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		if(value==Math.rint(value) && Math.abs(value)<Long.MAX_VALUE)
+			out.append(name).append(' ').append((long) value).append('\n');
+		else
+			out.append(name).append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Formats all the metrics in the Prometheus text format.
+	 *
+	 * @return the text
+	 */
+	public String toPrometheusText()
+	{
+		StringBuilder out=new StringBuilder();
+		appendMetric(out, "ml_steps_total", "counter", "Simulated steps.", getSteps());
+		appendMetric(out, "ml_episodes_total", "counter", "Completed episodes.", getEpisodes());
+		appendMetric(out, "ml_visited_states", "gauge", "Visited states in the Q tables.", getVisitedStates());
+		appendMetric(out, "ml_qtable_memory_bytes", "gauge", "Estimated memory of the Q tables.", getQTableMemory());
+		appendMetric(out, "ml_epsilon", "gauge", "Annealed exploration rate.", getEpsilon());
+		appendMetric(out, "ml_exploit_ratio", "gauge", "Fraction of greedy actions.", getExploitRatio());
+		appendMetric(out, "ml_average_delay", "gauge", "Running average delay.", getAverageDelay());
+		appendMetric(out, "ml_running_engines", "gauge", "Engines running an episode.", getRunningEngines());
+
+		double[] lengths=getQueueLengths();
+		out.append("# HELP ml_queue_length Passengers waiting on each floor.\n");
+		out.append("# TYPE ml_queue_length gauge\n");
+		for(int i=0;i<lengths.length;i++)
+			out.append("ml_queue_length{floor=\"").append(i).append("\"} ").append(lengths[i]).append('\n');
+		return out.toString();
+	}
+}
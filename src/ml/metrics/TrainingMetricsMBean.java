@@ -0,0 +1,87 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.metrics;
+
+/**
+ * The Interface TrainingMetricsMBean that exposes the training metrics through JMX.
+ */
+public interface TrainingMetricsMBean {
+
+	/**
+	 * Gets the number of simulated steps, of all the engines.
+	 *
+	 * @return the steps
+	 */
+	public long getSteps();
+
+	/**
+	 * Gets the number of simulated steps per second of the running engines, each measured over its
+	 * last complete window of {@link TrainingMetrics#RATE_WINDOW} nanoseconds. Reading it does not
+	 * change it.
+	 *
+	 * @return the steps per second
+	 */
+	public double getStepsPerSecond();
+
+	/**
+	 * Gets the number of completed episodes, of all the engines.
+	 *
+	 * @return the episodes
+	 */
+	public long getEpisodes();
+
+	/**
+	 * Gets the number of visited states, of all the distinct Q tables.
+	 *
+	 * @return the visited states
+	 */
+	public long getVisitedStates();
+
+	/**
+	 * Gets the memory estimate of all the distinct Q tables, in bytes.
+	 *
+	 * @return the Q table memory
+	 */
+	public long getQTableMemory();
+
+	/**
+	 * Gets the annealed exploration rate, averaged over the running engines.
+	 *
+	 * @return the epsilon
+	 */
+	public double getEpsilon();
+
+	/**
+	 * Gets the fraction of the actions that were chosen greedily (exploit), instead of randomly (explore).
+	 *
+	 * @return the exploit ratio
+	 */
+	public double getExploitRatio();
+
+	/**
+	 * Gets the running average delay, averaged over the running engines.
+	 *
+	 * @return the average delay
+	 */
+	public double getAverageDelay();
+
+	/**
+	 * Gets the number of passengers waiting on each floor, averaged over the running engines whose
+	 * buildings have the floor. The array has an element for each floor of the tallest building.
+	 *
+	 * @return the queue lengths
+	 */
+	public double[] getQueueLengths();
+
+	/**
+	 * Gets the number of running engines.
+	 *
+	 * @return the running engines
+	 */
+	public int getRunningEngines();
+}
@@ -0,0 +1,268 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.scenario;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * The Class ScenarioCache that provides deterministic scenarios, keyed by a seed and a traffic profile
+ * (the number of floors and the {@link ScenarioGenerator#PROFILE_VERSION}). The day of a scenario is
+ * generated once, by a {@link ScenarioGenerator} seeded with the seed, and written in a file of the
+ * cache directory; later runs memory map the file instead of generating the day again. The days that
+ * were read are also kept in memory, up to a given number, evicting the least recently used ones.
+ * <p>
+ * A file has a header of HEADER_SIZE bytes (magic, format version, profile version, floor count, event
+ * count, seed), followed by the columns of the events of the day, as little endian int arrays: the
+ * times, the start floors and the stop floors. The files are written to a temporary file that is
+ * renamed, so parallel runs sharing a directory never read a partial file.
+ * <p>
+ * The cache can be shared by threads. The streams it returns share the events of the day, but each of
+ * them has its own cursor.
+ */
+public class ScenarioCache {
+
+	/** The Constant MAGIC that identifies the scenario files ("ELSC"). */
+	public static final int MAGIC=0x43534C45;
+
+	/** The Constant FORMAT_VERSION. */
+	public static final int FORMAT_VERSION=1;
+
+	/** The Constant HEADER_SIZE, in bytes. */
+	public static final int HEADER_SIZE=32;
+
+	/** The Constant DEFAULT_DIR that defines the default directory of the cache files. */
+	public static final String DEFAULT_DIR="scenarios";
+
+	/** The Constant DEFAULT_CAPACITY that defines the default number of days kept in memory. */
+	public static final int DEFAULT_CAPACITY=256;
+
+	/** The Constant EPISODE_SEED_MIX that is used to derive the seeds of the episodes (the golden ratio). */
+	private static final long EPISODE_SEED_MIX=0x9E3779B97F4A7C15L;
+
+	/** The directory of the files. */
+	private File dir;
+
+	/** The days in memory, by their file name, in access order. */
+	private LinkedHashMap<String, ScenarioStream> days;
+
+	/** The number of scenarios found in memory. */
+	private long hitCount;
+
+	/** The number of scenarios read from the files. */
+	private long loadCount;
+
+	/** The number of scenarios generated. */
+	private long generateCount;
+
+	/**
+	 * Instantiates a new scenario cache, in the default directory, with the default capacity.
+	 */
+	public ScenarioCache() {
+		this(new File(DEFAULT_DIR), DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new scenario cache.
+	 *
+	 * @param dir the directory of the files, created if needed
+	 * @param capacity the number of days kept in memory
+	 */
+	public ScenarioCache(File dir, final int capacity) {
+		super();
+		if(capacity<1)
+			throw new IllegalArgumentException("The capacity must be at least 1: "+capacity);
+		this.dir=dir;
+		dir.mkdirs();
+		this.days=new LinkedHashMap<String, ScenarioStream>(16, 0.75f, true) {
+			private static final long serialVersionUID=1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ScenarioStream> eldest) {
+				return size()>capacity;
+			}
+		};
+	}
+
+	/**
+	 * Gets the seed of an episode of a run, so the episodes of a run have different scenarios.
+	 *
+	 * @param seed the seed of the run
+	 * @param episode the episode
+	 * @return the seed of the episode
+	 */
+	public static long getEpisodeSeed(long seed, int episode)
+	{
+		return seed+episode*EPISODE_SEED_MIX;
+	}
+
+	/**
+	 * Gets the file of a scenario.
+	 *
+	 * @param seed the seed
+	 * @param floorCount the floor count
+	 * @return the file
+	 */
+	public File getFile(long seed, int floorCount)
+	{
+		return new File(dir, String.format("scenario_v%d_f%d_%016x.bin", ScenarioGenerator.PROFILE_VERSION,
+				floorCount, seed));
+	}
+
+	/**
+	 * Gets a scenario, from memory, from its file, or by generating it.
+	 *
+	 * @param seed the seed
+	 * @param floorCount the number of floors of the building
+	 * @param dayCount the number of days
+	 * @return the scenario, with its own cursor
+	 * @throws IOException Signals that the file of the scenario could not be read or written.
+	 */
+	public synchronized ScenarioStream getScenario(long seed, int floorCount, int dayCount) throws IOException
+	{
+		File file=getFile(seed, floorCount);
+		ScenarioStream day=days.get(file.getName());
+		if(day!=null)
+			hitCount++;
+		else
+		{
+			if(file.exists())
+			{
+				day=read(file, seed, floorCount);
+				loadCount++;
+			}
+			else
+			{
+				day=new ScenarioGenerator(new SplittableRandom(seed), floorCount).generateScenarioStream(1);
+				write(file, seed, floorCount, day);
+				generateCount++;
+			}
+			days.put(file.getName(), day);
+		}
+		return new ScenarioStream(day.times, day.startFloors, day.stopFloors, dayCount);
+	}
+
+	/**
+	 * Writes the day of a scenario in a file.
+	 *
+	 * @param file the file
+	 * @param seed the seed
+	 * @param floorCount the floor count
+	 * @param day the day
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void write(File file, long seed, int floorCount, ScenarioStream day) throws IOException
+	{
+		int count=day.getDaySize();
+		ByteBuffer buffer=ByteBuffer.allocate(HEADER_SIZE+12*count).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(ScenarioGenerator.PROFILE_VERSION);
+		buffer.putInt(floorCount).putInt(count).putLong(seed);
+		buffer.position(HEADER_SIZE);
+		IntBuffer columns=buffer.asIntBuffer();
+		columns.put(day.times).put(day.startFloors).put(day.stopFloors);
+		buffer.rewind();
+
+		File temp=File.createTempFile(file.getName(), ".tmp", dir);
+		RandomAccessFile raf=new RandomAccessFile(temp, "rw");
+		try {
+			FileChannel channel=raf.getChannel();
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+		} finally {
+			raf.close();
+		}
+		//Another run may have written the same file meanwhile, with the same content
+		if(!temp.renameTo(file) && !file.exists())
+			throw new IOException("Could not rename "+temp+" to "+file);
+		temp.delete();
+	}
+
+	/**
+	 * Reads the day of a scenario from a memory mapped file.
+	 *
+	 * @param file the file
+	 * @param seed the expected seed
+	 * @param floorCount the expected floor count
+	 * @return the day
+	 * @throws IOException Signals that an I/O exception has occurred, or that the file is not a valid
+	 * scenario for the seed and the profile.
+	 */
+	private ScenarioStream read(File file, long seed, int floorCount) throws IOException
+	{
+		RandomAccessFile raf=new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel=raf.getChannel();
+			ByteBuffer buffer=channel.map(MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if(buffer.limit()<HEADER_SIZE || buffer.getInt(0)!=MAGIC)
+				throw new IOException("Not a scenario file: "+file);
+			if(buffer.getInt(4)!=FORMAT_VERSION)
+				throw new IOException("Unsupported scenario format version: "+buffer.getInt(4));
+			if(buffer.getInt(8)!=ScenarioGenerator.PROFILE_VERSION || buffer.getInt(12)!=floorCount ||
+					buffer.getLong(20)!=seed)
+				throw new IOException("The scenario file "+file+" is not for the seed "+seed+" and "+floorCount+
+						" floors of profile "+ScenarioGenerator.PROFILE_VERSION);
+			int count=buffer.getInt(16);
+			if(buffer.limit()!=HEADER_SIZE+12L*count)
+				throw new IOException("Invalid scenario file size: "+buffer.limit()+" instead of "+(HEADER_SIZE+12L*count));
+
+			buffer.position(HEADER_SIZE);
+			IntBuffer columns=buffer.asIntBuffer();
+			int[] times=new int[count], startFloors=new int[count], stopFloors=new int[count];
+			columns.get(times).get(startFloors).get(stopFloors);
+			return new ScenarioStream(times, startFloors, stopFloors, 1);
+		} finally {
+			//The mapping remains valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Gets the number of scenarios found in memory.
+	 *
+	 * @return the hit count
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Gets the number of scenarios read from the files.
+	 *
+	 * @return the load count
+	 */
+	public synchronized long getLoadCount() {
+		return loadCount;
+	}
+
+	/**
+	 * Gets the number of scenarios generated.
+	 *
+	 * @return the generate count
+	 */
+	public synchronized long getGenerateCount() {
+		return generateCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return "ScenarioCache [dir="+dir+", in memory="+days.size()+", hits="+hitCount+", loaded="+loadCount+
+				", generated="+generateCount+"]";
+	}
+}
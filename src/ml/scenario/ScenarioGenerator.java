@@ -9,7 +9,7 @@ package ml.scenario;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * The Class ScenarioGenerator.
@@ -40,8 +40,18 @@ public class ScenarioGenerator {
 	/** The Constant PROB_USE_MIN_FLOOR. */
 	public static final double PROB_USE_MIN_FLOOR=0.6f;
 	
-	/** The Constant rand that provides random numbers. */
-	private static final Random rand=new Random();
+	/** The Constant PROFILE_VERSION that identifies the traffic profile of the generated days. It must
+	 * be incremented on any change of the generation, as it invalidates the {@link ScenarioCache} files. */
+	public static final int PROFILE_VERSION=2;
+	
+	/** The random number generator. */
+	private SplittableRandom rand;
+	
+	/** The number of floors of the building. */
+	private int floorCount;
+	
+	/** The top floor of the building. */
+	private int maxFloor;
 	
 	/**
 	 * The Enum Trend.
@@ -51,6 +61,36 @@ public class ScenarioGenerator {
  Down, /** The None. */
  None };
 	
+	/**
+	 * Instantiates a new scenario generator, with an unseeded random number generator.
+	 */
+	public ScenarioGenerator() {
+		this(new SplittableRandom());
+	}
+	
+	/**
+	 * Instantiates a new scenario generator.
+	 *
+	 * @param rand the random number generator
+	 */
+	public ScenarioGenerator(SplittableRandom rand) {
+		this(rand, FLOOR_COUNT);
+	}
+	
+	/**
+	 * Instantiates a new scenario generator, for a building with a given number of floors. The passengers
+	 * of a day are as many as in the default building, spread over all the floors.
+	 *
+	 * @param rand the random number generator
+	 * @param floorCount the number of floors, at least 3
+	 */
+	public ScenarioGenerator(SplittableRandom rand, int floorCount) {
+		super();
+		this.rand=rand;
+		this.floorCount=floorCount;
+		this.maxFloor=MIN_FLOOR+floorCount-1;
+	}
+	
 	/**
 	 * Generate a new {@link ScenarioEvent} that is basically no-trending, up-trending or down-trending:<br/>
 	 * <ul>
@@ -99,10 +139,10 @@ public class ScenarioGenerator {
 				event.startFloor=MIN_FLOOR;
 			else
 				//to exclude generating ground floor again and generating the top floor
-				event.startFloor=MIN_FLOOR+1+rand.nextInt(FLOOR_COUNT-2);
+				event.startFloor=MIN_FLOOR+1+rand.nextInt(floorCount-2);
 			
 			//end floor
-			event.stopFloor=event.startFloor+1+rand.nextInt(MAX_FLOOR-event.startFloor);
+			event.stopFloor=event.startFloor+1+rand.nextInt(maxFloor-event.startFloor);
 		}
 		else //going down
 		{
@@ -111,10 +151,10 @@ public class ScenarioGenerator {
 				event.stopFloor=MIN_FLOOR;
 			else
 				//to exclude generating ground floor again and generating the top floor
-				event.stopFloor=MIN_FLOOR+1+rand.nextInt(FLOOR_COUNT-2);
+				event.stopFloor=MIN_FLOOR+1+rand.nextInt(floorCount-2);
 			
 			//start floor
-			event.startFloor=event.stopFloor+1+rand.nextInt(MAX_FLOOR-event.stopFloor);
+			event.startFloor=event.stopFloor+1+rand.nextInt(maxFloor-event.stopFloor);
 		}
 		
 		//time
@@ -183,6 +223,17 @@ public class ScenarioGenerator {
 		return events;
 	}
 	
+	/**
+	 * Generate a scenario of count identical days, as a stream that stores the events of only one day.
+	 *
+	 * @param count the count
+	 * @return the scenario stream
+	 */
+	public ScenarioStream generateScenarioStream(int count)
+	{
+		return new ScenarioStream(this.generateScenarioDay(0), count);
+	}
+	
 	/**
 	 * Generate count identical scenario days. The events are sorted.
 	 *
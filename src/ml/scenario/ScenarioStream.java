@@ -0,0 +1,187 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.scenario;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * The Class ScenarioStream that provides the events of a scenario made of identical days. Only the
+ * sorted events of one day are stored, and the events of the following days are obtained by moving
+ * them with the day offset, when they are read through the cursor. The events of the day are stored
+ * by columns (time, start floor, stop floor), as in the files of the {@link ScenarioCache}.
+ */
+public class ScenarioStream {
+	
+	/** The sorted times of the events of a day, relative to the start of the day. */
+	int[] times;
+	
+	/** The start floors of the events of a day. */
+	int[] startFloors;
+	
+	/** The stop floors of the events of a day. */
+	int[] stopFloors;
+	
+	/** The number of days. */
+	private int dayCount;
+	
+	/** The day of the cursor. */
+	private int currentDay;
+	
+	/** The index, in the day events, of the cursor. */
+	private int currentIndex;
+
+	/**
+	 * Instantiates a new scenario stream.
+	 *
+	 * @param dayEvents the events of a day, with times relative to the start of the day
+	 * @param dayCount the number of days
+	 */
+	public ScenarioStream(ArrayList<ScenarioEvent> dayEvents, int dayCount) {
+		super();
+		Collections.sort(dayEvents);
+		this.times=new int[dayEvents.size()];
+		this.startFloors=new int[dayEvents.size()];
+		this.stopFloors=new int[dayEvents.size()];
+		for(int i=0;i<times.length;i++)
+		{
+			ScenarioEvent ev=dayEvents.get(i);
+			times[i]=ev.time;
+			startFloors[i]=ev.startFloor;
+			stopFloors[i]=ev.stopFloor;
+		}
+		this.dayCount=dayCount;
+		rewind();
+	}
+	
+	/**
+	 * Instantiates a new scenario stream, from the columns of the events of a day, sorted by time.
+	 *
+	 * @param times the times of the events, relative to the start of the day
+	 * @param startFloors the start floors
+	 * @param stopFloors the stop floors
+	 * @param dayCount the number of days
+	 */
+	ScenarioStream(int[] times, int[] startFloors, int[] stopFloors, int dayCount) {
+		super();
+		this.times=times;
+		this.startFloors=startFloors;
+		this.stopFloors=stopFloors;
+		this.dayCount=dayCount;
+		rewind();
+	}
+	
+	/**
+	 * Instantiates a new scenario stream over the same events as another one, with its own cursor. The
+	 * events are shared, as they are never modified, so the streams can be read by different threads.
+	 *
+	 * @param other the other stream
+	 */
+	public ScenarioStream(ScenarioStream other) {
+		super();
+		this.times=other.times;
+		this.startFloors=other.startFloors;
+		this.stopFloors=other.stopFloors;
+		this.dayCount=other.dayCount;
+		rewind();
+	}
+	
+	/**
+	 * Moves the cursor back to the first event.
+	 */
+	public void rewind()
+	{
+		currentDay=0;
+		currentIndex=0;
+		if(times.length==0)
+			currentDay=dayCount;
+	}
+	
+	/**
+	 * Checks if there are more events after the cursor.
+	 *
+	 * @return true, if there are more events
+	 */
+	public boolean hasNext()
+	{
+		return currentDay<dayCount;
+	}
+	
+	/**
+	 * Gets the time of the event at the cursor. Should only be called if {@link #hasNext()}.
+	 *
+	 * @return the time
+	 */
+	public int peekTime()
+	{
+		return times[currentIndex]+currentDay*ScenarioGenerator.DAY_DURATION;
+	}
+	
+	/**
+	 * Reads the event at the cursor in the given event and moves the cursor to the next event. Should
+	 * only be called if {@link #hasNext()}.
+	 *
+	 * @param event the event in which the data is stored
+	 */
+	public void next(ScenarioEvent event)
+	{
+		event.time=times[currentIndex]+currentDay*ScenarioGenerator.DAY_DURATION;
+		event.startFloor=startFloors[currentIndex];
+		event.stopFloor=stopFloors[currentIndex];
+		
+		if(++currentIndex==times.length)
+		{
+			currentIndex=0;
+			currentDay++;
+		}
+	}
+	
+	/**
+	 * Gets the total number of events in the scenario.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return times.length*dayCount;
+	}
+	
+	/**
+	 * Gets the number of events in a day.
+	 *
+	 * @return the day size
+	 */
+	public int getDaySize()
+	{
+		return times.length;
+	}
+	
+	/**
+	 * Gets the number of days.
+	 *
+	 * @return the day count
+	 */
+	public int getDayCount()
+	{
+		return dayCount;
+	}
+	
+	/**
+	 * Gets the events of a day, with times relative to the start of the day. The events are created on
+	 * each call.
+	 *
+	 * @return the day events
+	 */
+	public ScenarioEvent[] getDayEvents()
+	{
+		ScenarioEvent[] events=new ScenarioEvent[times.length];
+		for(int i=0;i<events.length;i++)
+			events[i]=new ScenarioEvent(times[i], startFloors[i], stopFloors[i]);
+		return events;
+	}
+}
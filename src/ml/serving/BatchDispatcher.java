@@ -0,0 +1,203 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.serving;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import ml.engine.DenseQTable;
+import ml.engine.State;
+import ml.engine.World;
+
+/**
+ * The Class BatchDispatcher that decides the actions of many buildings at once, with the same frozen
+ * policy. The states are given as indexes ({@link State#getIndex()}), and the actions are chosen in
+ * a single pass over the batch, with a masked argmax over the rows of a {@link DenseQTable}.
+ * <p>
+ * Large batches can be split in partitions that are decided in parallel, on a fixed pool of threads.
+ * Smaller batches, or dispatchers with a single thread, are decided in the calling thread, without
+ * allocating. The threads of the pool are daemons, so a dispatcher that is not shut down does not keep
+ * the JVM alive.
+ * <p>
+ * The state and the partitions of the dispatcher are reused by every batch, so a dispatcher decides a
+ * single batch at a time: concurrent calls of {@link #decide(int[], int[], int[], int[], int)} wait
+ * for each other.
+ */
+public class BatchDispatcher {
+
+	/** The Constant MIN_PARTITION_SIZE that defines the smallest number of decisions worth moving to
+	 * another thread. */
+	public static final int MIN_PARTITION_SIZE=1<<14;
+
+	/** The Q table. */
+	private DenseQTable Q;
+
+	/** The number of threads. */
+	private int threads;
+
+	/** The thread pool, or null if the batches are always decided in the calling thread. */
+	private ExecutorService pool;
+
+	/** The partitions, reused between batches. */
+	private ArrayList<Partition> partitions;
+
+	/** The state used when deciding in the calling thread. */
+	private State state;
+
+	/**
+	 * The Class Partition that decides a contiguous part of a batch.
+	 */
+	private class Partition implements Callable<Void> {
+
+		/** The state used by the partition. */
+		private State state=new State();
+
+		/** The state indexes. */
+		private int[] states;
+
+		/** The previous actions. */
+		private int[] previousActions;
+
+		/** The actions before the previous actions. */
+		private int[] prevPreviousActions;
+
+		/** The array in which the actions are stored. */
+		private int[] actions;
+
+		/** The first decision of the partition. */
+		private int from;
+
+		/** The end of the partition (exclusive). */
+		private int to;
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public Void call() {
+			decide(state, states, previousActions, prevPreviousActions, actions, from, to);
+			return null;
+		}
+	}
+
+	/**
+	 * Instantiates a new batch dispatcher, that decides in the calling thread.
+	 *
+	 * @param Q the trained Q table, that is only read
+	 */
+	public BatchDispatcher(DenseQTable Q) {
+		this(Q, 1);
+	}
+
+	/**
+	 * Instantiates a new batch dispatcher.
+	 *
+	 * @param Q the trained Q table, that is only read
+	 * @param threads the maximum number of threads used for a batch
+	 */
+	public BatchDispatcher(DenseQTable Q, int threads) {
+		super();
+		this.Q=Q;
+		this.threads=threads;
+		this.state=new State();
+		this.partitions=new ArrayList<Partition>(threads);
+		for(int i=0;i<threads;i++)
+			partitions.add(new Partition());
+		if(threads>1)
+			this.pool=Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private int count;
+
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread thread=new Thread(task, "batch-dispatcher-"+(count++));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	}
+
+	/**
+	 * Decides a part of a batch.
+	 *
+	 * @param state the state used for decoding the indexes
+	 * @param states the state indexes
+	 * @param previousActions the previous actions
+	 * @param prevPreviousActions the actions before the previous actions
+	 * @param actions the array in which the actions are stored
+	 * @param from the first decision
+	 * @param to the end (exclusive)
+	 */
+	private void decide(State state, int[] states, int[] previousActions, int[] prevPreviousActions,
+			int[] actions, int from, int to)
+	{
+		for(int i=from;i<to;i++)
+		{
+			state.setIndex(states[i]);
+			int mask=World.getPossibleActionsMask(state, previousActions[i], prevPreviousActions[i]);
+			actions[i]=Q.getBestAction(states[i], mask);
+		}
+	}
+
+	/**
+	 * Decides the actions for a batch of buildings. The building i is in the state with the index
+	 * states[i], and its last actions are previousActions[i] and prevPreviousActions[i]. The batches
+	 * of concurrent calls are decided one after the other, as they share the state and the partitions.
+	 *
+	 * @param states the state indexes
+	 * @param previousActions the previous actions
+	 * @param prevPreviousActions the actions before the previous actions
+	 * @param actions the array in which the actions are stored
+	 * @param count the number of buildings in the batch
+	 */
+	public synchronized void decide(int[] states, int[] previousActions, int[] prevPreviousActions, int[] actions, int count)
+	{
+		int partitionCount=Math.min(threads, count/MIN_PARTITION_SIZE);
+		if(partitionCount<=1)
+		{
+			decide(state, states, previousActions, prevPreviousActions, actions, 0, count);
+			return;
+		}
+
+		//Split the batch in equal, contiguous partitions
+		ArrayList<Future<Void>> results=new ArrayList<Future<Void>>(partitionCount);
+		for(int i=0;i<partitionCount;i++)
+		{
+			Partition partition=partitions.get(i);
+			partition.states=states;
+			partition.previousActions=previousActions;
+			partition.prevPreviousActions=prevPreviousActions;
+			partition.actions=actions;
+			partition.from=(int) ((long)count*i/partitionCount);
+			partition.to=(int) ((long)count*(i+1)/partitionCount);
+			results.add(pool.submit(partition));
+		}
+		try {
+			for(Future<Void> result:results)
+				result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while deciding a batch.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Deciding a batch failed.", e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the threads of the dispatcher.
+	 */
+	public void shutdown()
+	{
+		if(pool!=null)
+			pool.shutdown();
+	}
+}
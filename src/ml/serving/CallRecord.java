@@ -0,0 +1,185 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.serving;
+
+import java.nio.ByteBuffer;
+
+import ml.engine.Action;
+import ml.engine.State;
+import ml.engine.World;
+import ml.scenario.ScenarioGenerator;
+
+/**
+ * The Class CallRecord that defines the binary format of the observations sent to the dispatcher.
+ * Each observation is a fixed size, little endian record:
+ * <ul>
+ * <li> int - the time, in minutes (only the time of the day is used)</li>
+ * <li> short - the hall calls, with bit floor*2+direction set if people wait on the floor to go
+ * in the direction (State.UP or State.DOWN)</li>
+ * <li> byte, byte - the floors of elevator 1 and elevator 2</li>
+ * <li> byte, byte - the destinations of elevator 1 and elevator 2, with bit i set if a passenger
+ * in the elevator is going in direction i (State.BELOW, State.CURRENT or State.ABOVE), from the floor
+ * where the passenger got in to the floor where the passenger gets out (see
+ * {@link ml.engine.ElevatorCar#getDirection(int, int)}). These are the destinations that the policy was
+ * trained with, so they are copied in the state as they are.</li>
+ * <li> byte, byte - the previous action and the action before it (-1 if none)</li>
+ * </ul>
+ * The answer to each record is a single byte, the chosen action. The records come from outside the
+ * process, so each one is checked with {@link #validate(ByteBuffer, int)} before it is decided.
+ */
+public class CallRecord {
+
+	/** The Constant RECORD_SIZE. */
+	public static final int RECORD_SIZE=12;
+
+	/** The Constant HALL_CALLS_OFFSET. */
+	private static final int HALL_CALLS_OFFSET=4;
+
+	/** The Constant FLOORS_OFFSET. */
+	private static final int FLOORS_OFFSET=6;
+
+	/** The Constant DESTINATIONS_OFFSET. */
+	private static final int DESTINATIONS_OFFSET=8;
+
+	/** The Constant ACTIONS_OFFSET. */
+	private static final int ACTIONS_OFFSET=10;
+
+	/**
+	 * Writes a record at the current position of a buffer, and advances the position.
+	 *
+	 * @param buffer the buffer, in little endian order
+	 * @param time the time
+	 * @param hallCalls the hall calls
+	 * @param e1Floor the floor of elevator 1
+	 * @param e2Floor the floor of elevator 2
+	 * @param e1Destinations the destinations of elevator 1
+	 * @param e2Destinations the destinations of elevator 2
+	 * @param previousAction the previous action
+	 * @param prevPreviousAction the action before the previous action
+	 */
+	public static void write(ByteBuffer buffer, int time, int hallCalls, int e1Floor, int e2Floor,
+			int e1Destinations, int e2Destinations, int previousAction, int prevPreviousAction)
+	{
+		buffer.putInt(time);
+		buffer.putShort((short) hallCalls);
+		buffer.put((byte) e1Floor).put((byte) e2Floor);
+		buffer.put((byte) e1Destinations).put((byte) e2Destinations);
+		buffer.put((byte) previousAction).put((byte) prevPreviousAction);
+	}
+
+	/**
+	 * Checks an action of a record.
+	 *
+	 * @param action the action
+	 * @param name the name of the field
+	 * @throws IllegalArgumentException if the action is not NO_ACTION or a valid action
+	 */
+	private static void validateAction(int action, String name)
+	{
+		if(action<Action.NO_ACTION || action>=Action.ACTION_COUNT)
+			throw new IllegalArgumentException("Invalid record: the "+name+" "+action+" is not an action");
+	}
+
+	/**
+	 * Checks that the record at an offset of a buffer describes a state of the building: the floors,
+	 * the actions, the hall calls and the destinations must be in range. Otherwise the record would
+	 * index outside the tables of the dispatcher, or be answered for another state.
+	 *
+	 * @param buffer the buffer, in little endian order
+	 * @param offset the offset of the record
+	 * @throws IllegalArgumentException if the record is not valid
+	 */
+	public static void validate(ByteBuffer buffer, int offset)
+	{
+		int hallCalls=buffer.getShort(offset+HALL_CALLS_OFFSET) & 0xffff;
+		if((hallCalls>>>(2*ScenarioGenerator.FLOOR_COUNT))!=0)
+			throw new IllegalArgumentException("Invalid record: hall calls "+Integer.toHexString(hallCalls)+
+					" above floor "+(ScenarioGenerator.FLOOR_COUNT-1));
+		for(int i=0;i<2;i++)
+		{
+			int floor=buffer.get(offset+FLOORS_OFFSET+i);
+			if(floor<0 || floor>=ScenarioGenerator.FLOOR_COUNT)
+				throw new IllegalArgumentException("Invalid record: elevator "+(i+1)+" on floor "+floor);
+			int destinations=buffer.get(offset+DESTINATIONS_OFFSET+i) & 0xff;
+			if(destinations>0x7)
+				throw new IllegalArgumentException("Invalid record: destinations "+Integer.toHexString(destinations)+
+						" of elevator "+(i+1));
+		}
+		validateAction(getPreviousAction(buffer, offset), "previous action");
+		validateAction(getPrevPreviousAction(buffer, offset), "action before the previous action");
+	}
+
+	/**
+	 * Reads the state from the record at an offset of a buffer. The record must be valid.
+	 *
+	 * @param buffer the buffer, in little endian order
+	 * @param offset the offset of the record
+	 * @param state the state in which the result is stored
+	 */
+	public static void readState(ByteBuffer buffer, int offset, State state)
+	{
+		state.clear();
+		state.setTimeInterval(World.getTimeInterval(buffer.getInt(offset)));
+		int hallCalls=buffer.getShort(offset+HALL_CALLS_OFFSET);
+		for(int i=0;i<ScenarioGenerator.FLOOR_COUNT;i++)
+		{
+			state.setWaiting(i, State.UP, (hallCalls & (1<<(i*2+State.UP)))!=0);
+			state.setWaiting(i, State.DOWN, (hallCalls & (1<<(i*2+State.DOWN)))!=0);
+		}
+		int e1Floor=buffer.get(offset+FLOORS_OFFSET);
+		int e2Floor=buffer.get(offset+FLOORS_OFFSET+1);
+		state.setElevator1Floor(e1Floor);
+		state.setElevator2Floor(e2Floor);
+		//As in the world, the destinations are the directions of the passengers in each car
+		state.setDestinations(0, buffer.get(offset+DESTINATIONS_OFFSET) & 0x7);
+		state.setDestinations(1, buffer.get(offset+DESTINATIONS_OFFSET+1) & 0x7);
+	}
+
+	/**
+	 * Gets the previous action from the record at an offset of a buffer.
+	 *
+	 * @param buffer the buffer
+	 * @param offset the offset of the record
+	 * @return the previous action
+	 */
+	public static int getPreviousAction(ByteBuffer buffer, int offset)
+	{
+		return buffer.get(offset+ACTIONS_OFFSET);
+	}
+
+	/**
+	 * Gets the action before the previous action from the record at an offset of a buffer.
+	 *
+	 * @param buffer the buffer
+	 * @param offset the offset of the record
+	 * @return the action before the previous action
+	 */
+	public static int getPrevPreviousAction(ByteBuffer buffer, int offset)
+	{
+		return buffer.get(offset+ACTIONS_OFFSET+1);
+	}
+
+	/**
+	 * Gets the hall calls from a state.
+	 *
+	 * @param state the state
+	 * @return the hall calls
+	 */
+	public static int getHallCalls(State state)
+	{
+		int hallCalls=0;
+		for(int i=0;i<ScenarioGenerator.FLOOR_COUNT;i++)
+		{
+			if(state.getWaiting(i, State.UP))
+				hallCalls|=1<<(i*2+State.UP);
+			if(state.getWaiting(i, State.DOWN))
+				hallCalls|=1<<(i*2+State.DOWN);
+		}
+		return hallCalls;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.serving;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import ml.engine.Action;
+import ml.engine.QTable;
+import ml.engine.State;
+import ml.engine.World;
+import ml.metrics.Histogram;
+
+/**
+ * The Class Dispatcher that drives the elevators with a frozen, trained policy. Each decision is
+ * a pure greedy lookup in the Q table, among the actions that are possible in the state: there is
+ * no exploration and no learning. After the buffers are created, deciding does not allocate.
+ * <p>
+ * The observations are read as {@link CallRecord}s, and the answer to each of them is a byte with
+ * the chosen action, from which the actions of the elevators are obtained with
+ * {@link Action#getE1Action(int)} and {@link Action#getE2Action(int)}.
+ */
+public class Dispatcher {
+
+	/** The Constant BUFFER_RECORDS that defines the number of records read at once from a channel. */
+	private static final int BUFFER_RECORDS=4096;
+
+	/** The Q table. */
+	private QTable Q;
+
+	/** The state, reused for every decision. */
+	private State state;
+
+	/** The decision latencies, in nanoseconds. */
+	private Histogram latency;
+
+	/** The buffer in which the records are read. */
+	private ByteBuffer input;
+
+	/** The buffer in which the actions are written. */
+	private ByteBuffer output;
+
+	/**
+	 * Instantiates a new dispatcher.
+	 *
+	 * @param Q the trained Q table, that is only read
+	 */
+	public Dispatcher(QTable Q) {
+		super();
+		this.Q=Q;
+		this.state=new State();
+		this.latency=new Histogram();
+		this.input=ByteBuffer.allocateDirect(BUFFER_RECORDS*CallRecord.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.output=ByteBuffer.allocateDirect(BUFFER_RECORDS);
+	}
+
+	/**
+	 * Decides the action in a state.
+	 *
+	 * @param state the state
+	 * @param previousAction the previous action
+	 * @param prevPreviousAction the action before the previous action
+	 * @return the action
+	 */
+	public int decide(State state, int previousAction, int prevPreviousAction)
+	{
+		return Q.getBestAction(state, World.getPossibleActionsMask(state, previousAction, prevPreviousAction));
+	}
+
+	/**
+	 * Decides the action for the record at an offset of a buffer.
+	 *
+	 * @param buffer the buffer, in little endian order
+	 * @param offset the offset of the record
+	 * @return the action
+	 * @throws IllegalArgumentException if the record is not valid
+	 */
+	public int decide(ByteBuffer buffer, int offset)
+	{
+		CallRecord.validate(buffer, offset);
+		CallRecord.readState(buffer, offset, state);
+		return decide(state, CallRecord.getPreviousAction(buffer, offset), CallRecord.getPrevPreviousAction(buffer, offset));
+	}
+
+	/**
+	 * Decides the actions for all the complete records between the position and the limit of a buffer,
+	 * and writes them in another buffer. The latency of each decision is recorded. The position of
+	 * the input buffer is moved after the last complete record.
+	 *
+	 * @param in the records, in little endian order
+	 * @param out the buffer in which the actions are written, with room for all the actions
+	 * @return the number of decisions
+	 * @throws IllegalArgumentException if a record is not valid
+	 */
+	public int serve(ByteBuffer in, ByteBuffer out)
+	{
+		int count=0;
+		int offset=in.position();
+		for(;offset+CallRecord.RECORD_SIZE<=in.limit();offset+=CallRecord.RECORD_SIZE)
+		{
+			long start=System.nanoTime();
+			int action=decide(in, offset);
+			latency.record(System.nanoTime()-start);
+			out.put((byte) action);
+			count++;
+		}
+		in.position(offset);
+		return count;
+	}
+
+	/**
+	 * Reads records from a channel until its end, and writes the actions in another channel.
+	 *
+	 * @param in the channel from which the records are read
+	 * @param out the channel in which the actions are written, or null if they are not needed
+	 * @return the number of decisions
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws IllegalArgumentException if a record is not valid
+	 */
+	public long serve(ReadableByteChannel in, WritableByteChannel out) throws IOException
+	{
+		long count=0;
+		input.clear();
+		while(in.read(input)>=0)
+		{
+			input.flip();
+			output.clear();
+			count+=serve(input, output);
+			input.compact();
+			output.flip();
+			while(out!=null && output.hasRemaining())
+				out.write(output);
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the decision latencies, in nanoseconds.
+	 *
+	 * @return the latency histogram
+	 */
+	public Histogram getLatency() {
+		return latency;
+	}
+}
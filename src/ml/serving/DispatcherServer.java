@@ -0,0 +1,279 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.serving;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.SplittableRandom;
+
+import ml.engine.Action;
+import ml.engine.Engine;
+import ml.engine.QTableCheckpoint;
+import ml.engine.State;
+import ml.engine.World;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class DispatcherServer that serves the decisions of a {@link Dispatcher}, over a Q table
+ * checkpoint written by the training. The records can come from:
+ * <ul>
+ * <li> file - a file of {@link CallRecord}s. The actions are written in another file, if given.</li>
+ * <li> socket - a local TCP socket. Clients are served one at a time, and each record sent
+ * is answered with one byte. A client that sends an invalid record is closed.</li>
+ * <li> replay - records captured from a simulated {@link World} driven by the dispatcher, which
+ * are then replayed from memory to measure the throughput, the latency and the allocations. The
+ * decisions of each replay must be the ones taken on the states of the world, or the replay fails.</li>
+ * </ul>
+ * Usage: DispatcherServer checkpoint file feed [answers] <br/>
+ * DispatcherServer checkpoint socket port <br/>
+ * DispatcherServer checkpoint replay [decisions] [passes] [seed]
+ */
+public class DispatcherServer {
+
+	/** The Constant REPLAY_EXPLORATION that defines how often the simulated world used for recording
+	 * is driven by a random action instead of the dispatcher. It is the lowest exploration rate used in
+	 * the training, so the world behaves as it did when the policy was learned: a purely greedy policy
+	 * may never have been exercised and can let the queues grow without bound. */
+	private static final double REPLAY_EXPLORATION=Engine.ACTION_EPSILON/2;
+	
+	/** The Constant REPLAY_WARMUP_PASSES. */
+	private static final int REPLAY_WARMUP_PASSES=3;
+
+	/** The thread bean that provides the allocation counter. Obtained once, as getting it allocates. */
+	private static final com.sun.management.ThreadMXBean threadBean=
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(DispatcherServer.class);
+
+	/**
+	 * Configure logger.
+	 */
+	private static void configureLogger()
+	{
+		PatternLayout patternLayout=new PatternLayout("%-3r [%-5p] %c - %m%n");
+		ConsoleAppender appender=new ConsoleAppender(patternLayout);
+		log.addAppender(appender);
+		log.setLevel(Level.INFO);
+	}
+
+	/**
+	 * Gets the number of bytes allocated by the current thread.
+	 *
+	 * @return the allocated bytes
+	 */
+	private static long getAllocatedBytes()
+	{
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Serves the records in a file.
+	 *
+	 * @param dispatcher the dispatcher
+	 * @param feed the file with the records
+	 * @param answers the file in which the actions are written, or null
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void serveFile(Dispatcher dispatcher, File feed, File answers) throws IOException
+	{
+		FileChannel in=new FileInputStream(feed).getChannel();
+		FileChannel out=answers==null?null:new FileOutputStream(answers).getChannel();
+		try {
+			long count=dispatcher.serve(in, out);
+			log.info("Served "+count+" decisions from "+feed+". Latency (ns): "+dispatcher.getLatency());
+		} finally {
+			in.close();
+			if(out!=null)
+				out.close();
+		}
+	}
+
+	/**
+	 * Serves the clients of a local socket, one at a time, until the process is stopped.
+	 *
+	 * @param dispatcher the dispatcher
+	 * @param port the port
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void serveSocket(Dispatcher dispatcher, int port) throws IOException
+	{
+		ServerSocketChannel server=ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress("localhost", port));
+		log.info("Listening on "+server.socket().getLocalSocketAddress());
+		while(true)
+		{
+			SocketChannel client=server.accept();
+			client.socket().setTcpNoDelay(true);
+			try {
+				dispatcher.getLatency().clear();
+				long count=dispatcher.serve(client, client);
+				log.info("Client "+client.socket().getRemoteSocketAddress()+" served: "+count+
+						" decisions. Latency (ns): "+dispatcher.getLatency());
+			} catch (IOException e) {
+				log.warn("Client failed: "+e.getMessage());
+			} catch (RuntimeException e) {
+				//An invalid record, or any other failure, closes only this client
+				log.error("Client "+client.socket().getRemoteSocketAddress()+" closed: "+e.getMessage(), e);
+			} finally {
+				client.close();
+			}
+		}
+	}
+
+	/**
+	 * Records the observations of a simulated world, driven by the dispatcher, as a stand-in for a
+	 * live feed. Some of the actions are random (see REPLAY_EXPLORATION). The decision of the dispatcher
+	 * on each state of the world is stored, to check the replays.
+	 *
+	 * @param dispatcher the dispatcher
+	 * @param count the number of records
+	 * @param seed the seed of the world
+	 * @param decisions the buffer in which the decisions are stored, with room for count decisions
+	 * @return the records
+	 */
+	private static ByteBuffer record(Dispatcher dispatcher, int count, long seed, ByteBuffer decisions)
+	{
+		ByteBuffer records=ByteBuffer.allocateDirect(count*CallRecord.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		SplittableRandom rand=new SplittableRandom(seed);
+		World world=new World("replay", new File(System.getProperty("java.io.tmpdir")), rand);
+		State state=world.generateStartState();
+		State next=new State();
+		State swap;
+		int previousAction=Action.NO_ACTION;
+		int prevPreviousAction=Action.NO_ACTION;
+		for(int i=0;i<count;i++)
+		{
+			if(world.isScenarioFinished())
+			{
+				world.resetEpisode();
+				state=world.generateStartState();
+				previousAction=prevPreviousAction=Action.NO_ACTION;
+			}
+			CallRecord.write(records, world.getTime(), CallRecord.getHallCalls(state),
+					state.getElevator1Floor(), state.getElevator2Floor(),
+					world.getCarDirections(1), world.getCarDirections(2), previousAction, prevPreviousAction);
+			int decision=dispatcher.decide(state, previousAction, prevPreviousAction);
+			decisions.put((byte) decision);
+			int action=rand.nextDouble()<REPLAY_EXPLORATION?
+					Action.getRandomAction(World.getPossibleActionsMask(state, previousAction, prevPreviousAction), rand):
+					decision;
+			world.getNextState(state, action, next);
+			prevPreviousAction=previousAction;
+			previousAction=action;
+			swap=state;
+			state=next;
+			next=swap;
+		}
+		records.flip();
+		decisions.flip();
+		return records;
+	}
+
+	/**
+	 * Checks that the actions of a replay are the decisions taken on the states of the world. Otherwise,
+	 * the records do not carry the states seen by the policy.
+	 *
+	 * @param actions the actions of the replay
+	 * @param expected the recorded decisions
+	 * @throws IllegalStateException if an action differs from the recorded decision
+	 */
+	private static void checkDecisions(ByteBuffer actions, ByteBuffer expected)
+	{
+		for(int i=0;i<expected.limit();i++)
+			if(actions.get(i)!=expected.get(i))
+				throw new IllegalStateException("Replayed decision "+i+" is "+actions.get(i)+", but "+
+						expected.get(i)+" was decided on the state of the world");
+	}
+
+	/**
+	 * Replays records from memory, and reports the throughput, the latency and the allocations of
+	 * the measured passes. The actions of the replays are checked against the recorded decisions.
+	 *
+	 * @param dispatcher the dispatcher
+	 * @param records the records
+	 * @param expected the recorded decisions
+	 * @param passes the number of measured passes
+	 */
+	private static void replay(Dispatcher dispatcher, ByteBuffer records, ByteBuffer expected, int passes)
+	{
+		int count=records.remaining()/CallRecord.RECORD_SIZE;
+		ByteBuffer actions=ByteBuffer.allocateDirect(count);
+		for(int i=0;i<REPLAY_WARMUP_PASSES;i++)
+		{
+			records.rewind();
+			actions.clear();
+			dispatcher.serve(records, actions);
+			checkDecisions(actions, expected);
+		}
+
+		dispatcher.getLatency().clear();
+		long allocated=getAllocatedBytes();
+		long start=System.nanoTime();
+		for(int i=0;i<passes;i++)
+		{
+			records.rewind();
+			actions.clear();
+			dispatcher.serve(records, actions);
+		}
+		double seconds=(System.nanoTime()-start)/1e9;
+		allocated=getAllocatedBytes()-allocated;
+		checkDecisions(actions, expected);
+
+		long decisions=(long)count*passes;
+		log.info("Replayed "+decisions+" decisions in "+String.format("%.3f", seconds)+"s: "+
+				String.format("%.0f", decisions/seconds)+" decisions/s");
+		log.info("Latency (ns): "+dispatcher.getLatency());
+		log.info("Allocated "+allocated+" bytes while serving");
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		configureLogger();
+		if(args.length<2)
+		{
+			log.error("Usage: DispatcherServer checkpoint (file feed [answers] | socket port | replay [decisions] [passes] [seed])");
+			return;
+		}
+		Dispatcher dispatcher=new Dispatcher(QTableCheckpoint.open(new File(args[0])));
+		String mode=args[1];
+		if(mode.equals("file"))
+			serveFile(dispatcher, new File(args[2]), args.length>3?new File(args[3]):null);
+		else if(mode.equals("socket"))
+			serveSocket(dispatcher, Integer.parseInt(args[2]));
+		else if(mode.equals("replay"))
+		{
+			int decisions=args.length>2?Integer.parseInt(args[2]):1000000;
+			int passes=args.length>3?Integer.parseInt(args[3]):5;
+			long seed=args.length>4?Long.parseLong(args[4]):1;
+			ByteBuffer recorded=ByteBuffer.allocateDirect(decisions);
+			replay(dispatcher, record(dispatcher, decisions, seed, recorded), recorded, passes);
+		}
+		else
+			log.error("Unknown mode: "+mode);
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import ml.engine.Action;
+import ml.engine.QTableCheckpoint;
+import ml.engine.State;
+import ml.serving.Dispatcher;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * The Class TraceReader that replays the trace files written by {@link TraceRecorder}. The file is
+ * memory mapped in chunks, and the records are decoded in place, so the replay is bound by the
+ * memory bandwidth. All the values are little endian. The file contains:
+ * <ul>
+ * <li> a header of HEADER_SIZE bytes: magic, format version, state encoding version and record size</li>
+ * <li> the records, of RECORD_SIZE bytes each: int tick, int state index, double reward, byte action,
+ * a padding byte, and shorts with the number of passengers injected, boarded and alighted</li>
+ * </ul>
+ * <p>
+ * Usage: TraceReader traceFile [checkpoint] - prints a summary of the trace and the replay speed and,
+ * if a checkpoint is given, how many of the recorded actions match the greedy policy of the checkpoint.
+ */
+public class TraceReader {
+
+	/** The Constant MAGIC that identifies the trace files ("ELTR"). */
+	public static final int MAGIC=0x52544C45;
+
+	/** The Constant FORMAT_VERSION. */
+	public static final int FORMAT_VERSION=1;
+
+	/** The Constant HEADER_SIZE, in bytes. */
+	public static final int HEADER_SIZE=16;
+
+	/** The Constant RECORD_SIZE, in bytes. */
+	public static final int RECORD_SIZE=24;
+
+	/** The Constant CHUNK_SIZE that defines the size of the mappings used for reading the records. */
+	private static final int CHUNK_SIZE=(Integer.MAX_VALUE/RECORD_SIZE)*RECORD_SIZE;
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(TraceReader.class);
+
+	/**
+	 * The Interface Visitor that receives the records of a trace, in order.
+	 */
+	public interface Visitor {
+
+		/**
+		 * Visits a record.
+		 *
+		 * @param tick the time of the step
+		 * @param state the index of the state in which the action was chosen
+		 * @param action the action
+		 * @param reward the reward obtained
+		 * @param injected the number of passengers that showed up
+		 * @param boarded the number of passengers that got in the elevators
+		 * @param alighted the number of passengers that got out of the elevators
+		 */
+		public void visit(int tick, int state, int action, double reward, int injected, int boarded, int alighted);
+	}
+
+	/** The file. */
+	private RandomAccessFile file;
+
+	/** The number of records. */
+	private long recordCount;
+
+	/**
+	 * Opens a trace file.
+	 *
+	 * @param file the file
+	 * @throws IOException Signals that the file could not be read or is not a compatible trace.
+	 */
+	public TraceReader(File file) throws IOException {
+		super();
+		this.file=new RandomAccessFile(file, "r");
+		ByteBuffer header=ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.file.getChannel().read(header, 0);
+		if(header.getInt(0)!=MAGIC)
+			throw new IOException("Not an episode trace.");
+		if(header.getInt(4)!=FORMAT_VERSION)
+			throw new IOException("Unsupported trace format version: "+header.getInt(4));
+		if(header.getInt(8)!=State.ENCODING_VERSION)
+			throw new IOException("Trace has state encoding version "+header.getInt(8)+
+					" instead of "+State.ENCODING_VERSION);
+		if(header.getInt(12)!=RECORD_SIZE)
+			throw new IOException("Trace has records of "+header.getInt(12)+" bytes instead of "+RECORD_SIZE);
+		this.recordCount=(this.file.length()-HEADER_SIZE)/RECORD_SIZE;
+	}
+
+	/**
+	 * Gets the number of records.
+	 *
+	 * @return the record count
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Replays all the records to a visitor.
+	 *
+	 * @param visitor the visitor
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void replay(Visitor visitor) throws IOException
+	{
+		FileChannel channel=file.getChannel();
+		long offset=HEADER_SIZE;
+		long end=HEADER_SIZE+recordCount*RECORD_SIZE;
+		while(offset<end)
+		{
+			long length=Math.min(CHUNK_SIZE, end-offset);
+			MappedByteBuffer chunk=channel.map(MapMode.READ_ONLY, offset, length);
+			chunk.order(ByteOrder.LITTLE_ENDIAN);
+			for(int pos=0;pos<length;pos+=RECORD_SIZE)
+				visitor.visit(chunk.getInt(pos), chunk.getInt(pos+4), chunk.get(pos+16), chunk.getDouble(pos+8),
+						chunk.getShort(pos+18), chunk.getShort(pos+20), chunk.getShort(pos+22));
+			offset+=length;
+		}
+	}
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void close() throws IOException
+	{
+		file.close();
+	}
+
+	/**
+	 * The Class Summary that aggregates a trace and, if a dispatcher is given, compares the recorded
+	 * actions to the actions of the dispatcher.
+	 */
+	private static class Summary implements Visitor {
+
+		/** The dispatcher, or null. */
+		private Dispatcher dispatcher;
+
+		/** The state used for decoding the indexes. */
+		private State state=new State();
+
+		/** The previous action. */
+		private int previousAction=Action.NO_ACTION;
+
+		/** The action before the previous action. */
+		private int prevPreviousAction=Action.NO_ACTION;
+
+		/** The previous tick, used to detect the start of an episode. */
+		private int previousTick=Integer.MAX_VALUE;
+
+		/** The number of records. */
+		private long records;
+
+		/** The number of episodes. */
+		private long episodes;
+
+		/** The sum of the rewards. */
+		private double rewardSum;
+
+		/** The passengers injected, boarded and alighted. */
+		private long injected, boarded, alighted;
+
+		/** The number of recorded actions that match the dispatcher. */
+		private long matching;
+
+		/* (non-Javadoc)
+		 * @see ml.trace.TraceReader.Visitor#visit(int, int, int, double, int, int, int)
+		 */
+		@Override
+		public void visit(int tick, int state, int action, double reward, int injected, int boarded, int alighted)
+		{
+			if(tick<=previousTick)
+			{
+				episodes++;
+				previousAction=Action.NO_ACTION;
+				prevPreviousAction=Action.NO_ACTION;
+			}
+			previousTick=tick;
+			records++;
+			rewardSum+=reward;
+			this.injected+=injected;
+			this.boarded+=boarded;
+			this.alighted+=alighted;
+			if(dispatcher!=null)
+			{
+				this.state.setIndex(state);
+				if(dispatcher.decide(this.state, previousAction, prevPreviousAction)==action)
+					matching++;
+			}
+			prevPreviousAction=previousAction;
+			previousAction=action;
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		log.addAppender(new ConsoleAppender(new PatternLayout("%-3r [%-5p] %c - %m%n")));
+		log.setLevel(Level.INFO);
+		if(args.length<1)
+		{
+			System.err.println("Usage: TraceReader traceFile [checkpoint]");
+			return;
+		}
+
+		TraceReader reader=new TraceReader(new File(args[0]));
+		try {
+			//A first pass warms up the page cache and the code, the second one is timed
+			Summary summary=new Summary();
+			reader.replay(summary);
+			summary=new Summary();
+			long start=System.nanoTime();
+			reader.replay(summary);
+			double seconds=(System.nanoTime()-start)/1e9;
+			log.info("Replayed "+summary.records+" records ("+summary.episodes+" episodes) in "+
+					String.format("%.3f", seconds)+"s: "+String.format("%.1f", summary.records/seconds/1e6)+
+					"M records/s, "+String.format("%.0f", summary.records*RECORD_SIZE/seconds/(1<<20))+" MB/s");
+			log.info("Average reward: "+(summary.records==0?0:summary.rewardSum/summary.records)+
+					", passengers injected: "+summary.injected+", boarded: "+summary.boarded+
+					", alighted: "+summary.alighted);
+
+			if(args.length>1)
+			{
+				Summary comparison=new Summary();
+				comparison.dispatcher=new Dispatcher(QTableCheckpoint.open(new File(args[1])));
+				reader.replay(comparison);
+				log.info("Actions matching the greedy policy of "+args[1]+": "+comparison.matching+" of "+
+						comparison.records+String.format(" (%.1f%%)", 100.0*comparison.matching/Math.max(1, comparison.records)));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Stefan-Dobrin Cosmin
+ * 342C4
+ * 
+ * Invatare Automata
+ * 2012
+ */
+package ml.trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import ml.engine.State;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The Class TraceRecorder that records the steps of the simulation in a binary trace file, in
+ * fixed-width records (see {@link TraceReader} for the format). The records are written in
+ * preallocated buffers, and full buffers are handed to a background thread that writes them to
+ * the file, so the simulation thread never waits for I/O.
+ * <p>
+ * If the file is slower than the simulation, more buffers are allocated, up to MAX_BUFFERS. Only
+ * after that, the simulation waits for a buffer to be written. If the writer thread fails, the next
+ * buffer swap throws an {@link IllegalStateException}, so the simulation fails instead of waiting
+ * forever for a buffer.
+ */
+public class TraceRecorder {
+
+	/** The Constant BUFFER_RECORDS that defines the number of records in a buffer. */
+	private static final int BUFFER_RECORDS=1<<16;
+
+	/** The Constant INITIAL_BUFFERS. */
+	private static final int INITIAL_BUFFERS=4;
+
+	/** The Constant MAX_BUFFERS. */
+	private static final int MAX_BUFFERS=64;
+
+	/** The Constant ERROR_POLL_MILLIS that defines how often a stalled simulation checks the writer thread. */
+	private static final long ERROR_POLL_MILLIS=100;
+
+	/** The Constant log. */
+	private static final Logger log=Logger.getLogger(TraceRecorder.class);
+
+	/** The buffer that marks the end of the trace, for the writer thread. */
+	private static final ByteBuffer END=ByteBuffer.allocate(0);
+
+	/** The buffers that can be filled. */
+	private LinkedBlockingQueue<ByteBuffer> free;
+
+	/** The buffers that must be written. */
+	private LinkedBlockingQueue<ByteBuffer> full;
+
+	/** The buffer being filled. */
+	private ByteBuffer current;
+
+	/** The number of allocated buffers. */
+	private int bufferCount;
+
+	/** The number of times the simulation had to wait for a buffer. */
+	private int stalls;
+
+	/** The number of records. */
+	private long recordCount;
+
+	/** The file channel. */
+	private FileChannel channel;
+
+	/** The writer thread. */
+	private Thread writer;
+
+	/** The error that stopped the writer thread, if any. */
+	private volatile IOException error;
+
+	/**
+	 * Instantiates a new trace recorder, and starts its writer thread.
+	 *
+	 * @param file the trace file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public TraceRecorder(File file) throws IOException {
+		super();
+		this.channel=new FileOutputStream(file).getChannel();
+		this.free=new LinkedBlockingQueue<ByteBuffer>();
+		this.full=new LinkedBlockingQueue<ByteBuffer>();
+		for(int i=0;i<INITIAL_BUFFERS;i++)
+			free.add(allocateBuffer());
+
+		//The header is written directly
+		ByteBuffer header=ByteBuffer.allocate(TraceReader.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(TraceReader.MAGIC).putInt(TraceReader.FORMAT_VERSION);
+		header.putInt(State.ENCODING_VERSION).putInt(TraceReader.RECORD_SIZE);
+		header.flip();
+		while(header.hasRemaining())
+			channel.write(header);
+
+		this.current=free.poll();
+		this.writer=new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBuffers();
+			}
+		}, "trace-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Allocates a new buffer.
+	 *
+	 * @return the buffer
+	 */
+	private ByteBuffer allocateBuffer()
+	{
+		bufferCount++;
+		return ByteBuffer.allocateDirect(BUFFER_RECORDS*TraceReader.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Writes the full buffers to the file, until the end of the trace. Runs on the writer thread.
+	 */
+	private void writeBuffers()
+	{
+		try {
+			while(true)
+			{
+				ByteBuffer buffer=full.take();
+				if(buffer==END)
+					return;
+				buffer.flip();
+				while(buffer.hasRemaining())
+					channel.write(buffer);
+				buffer.clear();
+				free.add(buffer);
+			}
+		} catch (IOException e) {
+			error=e;
+			log.error("Writing the trace failed: "+e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Checks that the writer thread did not fail.
+	 *
+	 * @throws IllegalStateException if the writer thread failed
+	 */
+	private void checkWriter()
+	{
+		if(error!=null)
+			throw new IllegalStateException("Writing the trace failed: "+error.getMessage(), error);
+	}
+
+	/**
+	 * Hands the current buffer to the writer thread, and takes an empty one.
+	 *
+	 * @throws IllegalStateException if the writer thread failed
+	 */
+	private void swapBuffer()
+	{
+		checkWriter();
+		full.add(current);
+		current=free.poll();
+		if(current!=null)
+			return;
+		if(bufferCount<MAX_BUFFERS)
+		{
+			current=allocateBuffer();
+			return;
+		}
+		stalls++;
+		try {
+			//The writer thread may fail while the simulation waits
+			while(current==null)
+			{
+				checkWriter();
+				current=free.poll(ERROR_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a trace buffer.", e);
+		}
+	}
+
+	/**
+	 * Records a step. Does not allocate, unless the writer thread falls behind.
+	 *
+	 * @param tick the time of the step
+	 * @param state the index of the state in which the action was chosen
+	 * @param action the action
+	 * @param reward the reward obtained
+	 * @param injected the number of passengers that showed up
+	 * @param boarded the number of passengers that got in the elevators
+	 * @param alighted the number of passengers that got out of the elevators
+	 * @throws IllegalStateException if the writer thread failed
+	 */
+	public void record(int tick, int state, int action, double reward, int injected, int boarded, int alighted)
+	{
+		if(!current.hasRemaining())
+			swapBuffer();
+		current.putInt(tick);
+		current.putInt(state);
+		current.putDouble(reward);
+		current.put((byte) action);
+		current.put((byte) 0);
+		current.putShort((short) injected);
+		current.putShort((short) boarded);
+		current.putShort((short) alighted);
+		recordCount++;
+	}
+
+	/**
+	 * Gets the number of records.
+	 *
+	 * @return the record count
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Writes the remaining records and closes the file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred, in this or in the writer thread.
+	 */
+	public void close() throws IOException
+	{
+		full.add(current);
+		full.add(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if(stalls>0)
+			log.warn("The simulation waited "+stalls+" times for the trace to be written.");
+		if(error!=null)
+			throw error;
+	}
+}